@@ -8,29 +8,26 @@ import ResultsList from "../components/ResultsList";
 import LoadingSpinner from "../components/LoadingSpinner";
 import { useState, useEffect } from "react";
 
+const PAGE_SIZE = 10;
+
 function ResultsPage() {
   const location = useLocation();
   const queryParams = new URLSearchParams(location.search);
   const query = queryParams.get("q") || "";
   const [results, setResults] = useState([]);
-  const [pageData, setPageData] = useState([]);
   const [isLoading, setIsLoading] = useState(true);
   const [page, setPage] = useState(0);
   const [totalPages, setTotalPages] = useState(0);
 
-  const fetchResults = async (query) => {
+  // The server returns only the requested page, so every page change is a new request
+  const fetchResults = async (query, page) => {
     setIsLoading(true);
     try {
-      const response = await searchQuery(query);
+      const response = await searchQuery(query, page, PAGE_SIZE);
       setResults(response);
-      setTotalPages(Math.ceil(response.totalCount / 10)); // Assuming 10 results per page
-      const limit = response.results
-        ? Math.min(10, response.results.length)
-        : 0;
-      setPageData(response.results ? response.results.slice(0, limit) : []);
-      setPage(0); // Reset to the first page
+      setTotalPages(Math.ceil(response.totalCount / PAGE_SIZE));
 
-      console.log("Total pages:", Math.ceil(response.totalCount / 10));
+      console.log("Total pages:", Math.ceil(response.totalCount / PAGE_SIZE));
       console.log("Fetched results:", response);
     } catch (error) {
       console.error("Error fetching results:", error);
@@ -39,16 +36,14 @@ function ResultsPage() {
     }
   };
   useEffect(() => {
-    fetchResults(query);
+    setPage(0); // Reset to the first page
+    fetchResults(query, 0);
   }, [query]);
-  useEffect(() => {
-    if (page <= totalPages && results.results) {
-      const startIndex = page * 10;
-      const endIndex = Math.min(startIndex + 10, results.results.length);
-      setPageData(results.results.slice(startIndex, endIndex) || []);
-      console.log("Page data:", pageData);
-    }
-  }, [page]);
+
+  const handlePageChange = (newPage) => {
+    setPage(newPage);
+    fetchResults(query, newPage);
+  };
 
   return (
     (isLoading && <LoadingSpinner />) || (
@@ -57,14 +52,14 @@ function ResultsPage() {
 
         <ResultsList
           totalCount={results.totalCount}
-          results={pageData}
+          results={results.results || []}
           totalTime={results.totalTime}
         />
 
         <Pagination
           totalPages={totalPages}
           initialPage={page}
-          onPageChange={setPage}
+          onPageChange={handlePageChange}
         />
 
         <div className="mt-auto">
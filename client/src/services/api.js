@@ -1,7 +1,7 @@
 import axios from "axios";
 const backendUrl = "http://localhost:8080";
 
-export const searchQuery = async (query) => {
+export const searchQuery = async (query, page = 0, size = 10) => {
   try {
     // Get existing search history from localStorage
     const searchHistory = JSON.parse(
@@ -33,6 +33,8 @@ export const searchQuery = async (query) => {
     const response = await axios.get(`${backendUrl}/search`, {
       params: {
         query: query,
+        page: page,
+        size: size,
       },
     });
 
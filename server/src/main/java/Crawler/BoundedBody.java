@@ -0,0 +1,166 @@
+package Crawler;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// A response body read into memory up to a byte limit. The client pushes the body as it
+// arrives; once the limit is passed the stream is cancelled, so an enormous or endless
+// response costs at most limit bytes and the rest is never downloaded. A skipped body is
+// cancelled before the first byte.
+final class BoundedBody implements HttpResponse.BodySubscriber<BoundedBody> {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int limit;
+    private final boolean skip;
+    private final CompletableFuture<BoundedBody> result = new CompletableFuture<>();
+    private Flow.Subscription subscription;
+    private byte[] bytes;
+    private int length;
+    // More bytes were sent than the limit allowed, or the body was skipped for its declared size
+    private boolean truncated;
+
+    private BoundedBody(int limit, long expectedLength, boolean skip, boolean truncated) {
+        this.limit = limit;
+        this.skip = skip;
+        this.truncated = truncated;
+        this.bytes = skip ? EMPTY : new byte[(int) Math.min(limit, expectedLength >= 0 ? expectedLength : 16 * 1024)];
+    }
+
+    // expectedLength is the Content-Length, or -1 when the server did not send one
+    static BoundedBody upTo(int limit, long expectedLength) {
+        return new BoundedBody(limit, expectedLength, false, false);
+    }
+
+    static BoundedBody skipped(boolean tooLarge) {
+        return new BoundedBody(0, 0, true, tooLarge);
+    }
+
+    byte[] bytes() {
+        return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+    }
+
+    // Bytes held, before decode() the bytes as they came over the wire
+    int length() {
+        return length;
+    }
+
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if (skip) {
+            subscription.cancel();
+            result.complete(this);
+        } else {
+            subscription.request(Long.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+        if (result.isDone()) {
+            return;
+        }
+        for (ByteBuffer buffer : buffers) {
+            int room = limit - length;
+            if (buffer.remaining() > room) {
+                append(buffer, room);
+                truncated = true;
+                subscription.cancel();
+                result.complete(this);
+                return;
+            }
+            append(buffer, buffer.remaining());
+        }
+    }
+
+    private void append(ByteBuffer buffer, int count) {
+        if (length + count > bytes.length) {
+            bytes = Arrays.copyOf(bytes, (int) Math.min(limit, Math.max(length + count, 2L * bytes.length)));
+        }
+        buffer.get(bytes, length, count);
+        length += count;
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        result.complete(this);
+    }
+
+    @Override
+    public CompletionStage<BoundedBody> getBody() {
+        return result;
+    }
+
+    // Undoes a gzip or deflate Content-Encoding in place, still keeping at most limit bytes so
+    // a small compressed body cannot expand without bound. A body cut short by the limit
+    // decodes as far as it goes.
+    void decode(String contentEncoding) throws IOException {
+        String encoding = contentEncoding == null ? "" : contentEncoding.trim().toLowerCase();
+        if (length == 0 || encoding.isEmpty() || encoding.equals("identity")) {
+            return;
+        }
+        InputStream encoded = new ByteArrayInputStream(bytes, 0, length);
+        InputStream in;
+        Inflater inflater = null;
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            in = new GZIPInputStream(encoded);
+        } else if (encoding.equals("deflate")) {
+            // Meant to be zlib-wrapped, but some servers send a raw deflate stream
+            boolean zlib = length >= 2 && (bytes[0] & 0x0f) == 8 && ((bytes[0] & 0xff) << 8 | bytes[1] & 0xff) % 31 == 0;
+            inflater = new Inflater(!zlib);
+            in = new InflaterInputStream(encoded, inflater);
+        } else {
+            throw new IOException("Unsupported Content-Encoding " + contentEncoding);
+        }
+        byte[] decoded = new byte[Math.min(limit, Math.max(length * 4, 16 * 1024))];
+        int decodedLength = 0;
+        try (in) {
+            while (true) {
+                if (decodedLength == decoded.length) {
+                    if (decodedLength == limit) {
+                        truncated |= in.read() >= 0;
+                        break;
+                    }
+                    decoded = Arrays.copyOf(decoded, (int) Math.min(limit, 2L * decoded.length));
+                }
+                int read = in.read(decoded, decodedLength, decoded.length - decodedLength);
+                if (read < 0) {
+                    break;
+                }
+                decodedLength += read;
+            }
+        } catch (EOFException e) {
+            if (!truncated) {
+                throw e;
+            }
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+        bytes = decoded;
+        length = decodedLength;
+    }
+}
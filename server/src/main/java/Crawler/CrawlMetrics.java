@@ -0,0 +1,219 @@
+package Crawler;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// What the crawl has been doing, for the periodic log line and the metrics endpoint: every
+// response by status and host with its download latency, the bytes that came over the wire,
+// how many links and pages dedup threw away, and the time fetchers spent waiting on robots.txt.
+// Counters are LongAdders, so the fetchers recording into them never contend on one cache line.
+// Latency is kept per host for the first MAX_HOSTS hosts seen and for all hosts together.
+public class CrawlMetrics {
+
+    private static final int MAX_HOSTS = Integer.getInteger("crawler.metricsHosts", 1024);
+    static final String OTHER_HOSTS = "(other)";
+
+    private final long startedAt = System.nanoTime();
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final Map<String, LatencyHistogram> hostLatency = new ConcurrentHashMap<>();
+
+    private final LongAdder robotsNanos = new LongAdder();
+    private final LongAdder robotsLookups = new LongAdder();
+    private final LongAdder linksSeen = new LongAdder();
+    private final LongAdder linksNew = new LongAdder();
+    private final LongAdder pagesParsed = new LongAdder();
+    private final LongAdder nearDuplicates = new LongAdder();
+    private final LongAdder alreadyCrawled = new LongAdder();
+
+    // Rates over the window between the last two calls to tick
+    private long windowStart = System.nanoTime();
+    private long windowPages;
+    private long windowBytes;
+    private volatile double pagesPerSecond;
+    private volatile double bytesPerSecond;
+
+    // A response that came back, whatever its status; bytes is what was read of the body
+    // before any Content-Encoding was undone
+    public void recordResponse(String host, int status, long bodyBytes, long nanos) {
+        responses.increment();
+        bytes.add(bodyBytes);
+        statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+        recordLatency(host, nanos);
+    }
+
+    public void recordError(String host, boolean timeout, long nanos) {
+        errors.increment();
+        if (timeout) {
+            timeouts.increment();
+        }
+        recordLatency(host, nanos);
+    }
+
+    private void recordLatency(String host, long nanos) {
+        latency.recordNanos(nanos);
+        LatencyHistogram histogram = hostLatency.get(host == null ? OTHER_HOSTS : host);
+        if (histogram == null) {
+            String key = host == null || hostLatency.size() >= MAX_HOSTS ? OTHER_HOSTS : host;
+            histogram = hostLatency.computeIfAbsent(key, k -> new LatencyHistogram());
+        }
+        histogram.recordNanos(nanos);
+    }
+
+    public void recordRobotsLookup(long nanos) {
+        robotsLookups.increment();
+        robotsNanos.add(nanos);
+    }
+
+    public void recordLinks(int seen, int added) {
+        linksSeen.add(seen);
+        linksNew.add(added);
+    }
+
+    public void recordParsed(boolean nearDuplicate) {
+        pagesParsed.increment();
+        if (nearDuplicate) {
+            nearDuplicates.increment();
+        }
+    }
+
+    public void recordAlreadyCrawled() {
+        alreadyCrawled.increment();
+    }
+
+    // Time fetchers spent downloading, summed over all of them
+    long fetchNanos() {
+        return latency.totalMicros() * 1000;
+    }
+
+    long robotsNanos() {
+        return robotsNanos.sum();
+    }
+
+    // Closes the current rate window; pages is the crawl's running page count
+    public synchronized void tick(long pages) {
+        long now = System.nanoTime();
+        long currentBytes = bytes.sum();
+        double seconds = (now - windowStart) / 1e9;
+        if (seconds > 0) {
+            pagesPerSecond = (pages - windowPages) / seconds;
+            bytesPerSecond = (currentBytes - windowBytes) / seconds;
+        }
+        windowStart = now;
+        windowPages = pages;
+        windowBytes = currentBytes;
+    }
+
+    // e.g. "net 4.2 pages/s 310 KB/s responses=1200 2xx=1100 3xx=4 4xx=80 5xx=6 errors=10
+    // timeouts=3 p50=180ms p99=2400ms robots=12.5s dedup links=71% pages=4%"
+    public String summary() {
+        long[] classes = new long[6];
+        statuses.forEach((status, count) -> classes[Math.min(5, Math.max(0, status / 100))] += count.sum());
+        long seen = linksSeen.sum();
+        long parsed = pagesParsed.sum();
+        return String.format("net %.1f pages/s %.0f KB/s responses=%d 2xx=%d 3xx=%d 4xx=%d 5xx=%d errors=%d"
+                + " timeouts=%d p50=%dms p99=%dms robots=%.1fs dedup links=%d%% pages=%d%%",
+                pagesPerSecond, bytesPerSecond / 1024, responses.sum(), classes[2], classes[3], classes[4],
+                classes[5], errors.sum(), timeouts.sum(), latency.quantileMicros(0.5) / 1000,
+                latency.quantileMicros(0.99) / 1000, robotsNanos.sum() / 1e9,
+                seen == 0 ? 0 : 100 * (seen - linksNew.sum()) / seen,
+                parsed == 0 ? 0 : 100 * nearDuplicates.sum() / parsed);
+    }
+
+    // The counters in Prometheus' text format, and per-host latency for the topHosts hosts with
+    // the slowest p99
+    public void writeTo(StringBuilder out, int topHosts) {
+        Exposition metrics = new Exposition(out);
+        metrics.gauge("crawler_uptime_seconds", (System.nanoTime() - startedAt) / 1e9);
+        metrics.gauge("crawler_pages_per_second", pagesPerSecond);
+        metrics.gauge("crawler_bytes_per_second", bytesPerSecond);
+        metrics.counter("crawler_responses_total", responses.sum());
+        metrics.counter("crawler_bytes_total", bytes.sum());
+        metrics.type("crawler_http_responses_total", "counter");
+        new TreeMap<>(statuses).forEach((status, count) ->
+                metrics.sample("crawler_http_responses_total", "status", String.valueOf(status), count.sum()));
+        metrics.counter("crawler_fetch_errors_total", errors.sum());
+        metrics.counter("crawler_fetch_timeouts_total", timeouts.sum());
+        metrics.counter("crawler_robots_lookups_total", robotsLookups.sum());
+        metrics.counter("crawler_robots_wait_seconds_total", robotsNanos.sum() / 1e9);
+        metrics.type("crawler_dedup_total", "counter");
+        metrics.sample("crawler_dedup_total", "kind", "link_seen", linksSeen.sum() - linksNew.sum());
+        metrics.sample("crawler_dedup_total", "kind", "link_new", linksNew.sum());
+        metrics.sample("crawler_dedup_total", "kind", "page_near_duplicate", nearDuplicates.sum());
+        metrics.sample("crawler_dedup_total", "kind", "page_unique", pagesParsed.sum() - nearDuplicates.sum());
+        metrics.sample("crawler_dedup_total", "kind", "url_already_crawled", alreadyCrawled.sum());
+
+        metrics.type("crawler_fetch_latency_seconds", "summary");
+        metrics.summary("crawler_fetch_latency_seconds", null, latency);
+        List<Map.Entry<String, LatencyHistogram>> hosts = new ArrayList<>(hostLatency.entrySet());
+        hosts.sort(Comparator.comparingLong(
+                (Map.Entry<String, LatencyHistogram> host) -> host.getValue().quantileMicros(0.99)).reversed());
+        metrics.type("crawler_host_fetch_latency_seconds", "summary");
+        for (Map.Entry<String, LatencyHistogram> host : hosts.subList(0, Math.min(topHosts, hosts.size()))) {
+            metrics.summary("crawler_host_fetch_latency_seconds", host.getKey(), host.getValue());
+        }
+    }
+
+    // Appends samples; label values are escaped as the format asks
+    static final class Exposition {
+        private final StringBuilder out;
+
+        Exposition(StringBuilder out) {
+            this.out = out;
+        }
+
+        void type(String name, String type) {
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+
+        void counter(String name, double value) {
+            type(name, "counter");
+            sample(name, null, null, value);
+        }
+
+        void gauge(String name, double value) {
+            type(name, "gauge");
+            sample(name, null, null, value);
+        }
+
+        void sample(String name, String label, String labelValue, double value) {
+            out.append(name);
+            if (label != null) {
+                out.append('{').append(label).append("=\"").append(escape(labelValue)).append("\"}");
+            }
+            out.append(' ');
+            if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                out.append((long) value);
+            } else {
+                out.append(value);
+            }
+            out.append('\n');
+        }
+
+        void summary(String name, String host, LatencyHistogram histogram) {
+            String labels = host == null ? "" : "host=\"" + escape(host) + "\",";
+            // Quantile 1 is the slowest fetch
+            for (String q : new String[] {"0.5", "0.9", "0.99", "1"}) {
+                long micros = q.equals("1") ? histogram.maxMicros() : histogram.quantileMicros(Double.parseDouble(q));
+                out.append(name).append('{').append(labels).append("quantile=\"").append(q).append("\"} ")
+                        .append(micros / 1e6).append('\n');
+            }
+            String suffix = host == null ? "" : "{host=\"" + escape(host) + "\"}";
+            out.append(name).append("_sum").append(suffix).append(' ').append(histogram.totalMicros() / 1e6).append('\n');
+            out.append(name).append("_count").append(suffix).append(' ').append(histogram.count()).append('\n');
+        }
+
+        private static String escape(String value) {
+            return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+    }
+}
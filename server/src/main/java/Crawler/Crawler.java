@@ -1,258 +1,484 @@
 package Crawler;
 
-import java.math.BigInteger;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Queue;
-import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Pattern;
+import java.util.function.Consumer;
 
-import org.jsoup.Connection;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Element;
+import org.bson.types.ObjectId;
 
 import com.mongodb.client.MongoCollection;
+import com.sun.net.httpserver.HttpServer;
 
+import db.PageStore;
 
 
-public class Crawler implements Runnable {
+// The crawl as a staged pipeline. Fetchers take hosts from the frontier and download pages;
+// everything after the download runs in its own stage with a bounded queue and worker pool:
+//   fetch (virtual threads) -> parse (CPU) -> dedup (CPU) -> persist (write-behind to Mongo)
+// so network concurrency, CPU parallelism and database writes are sized separately, and a
+// stage that falls behind blocks the one before it rather than buffering without limit.
+// Persist only hands documents to a WriteBehind, which batches them into insertMany calls.
+// Pages due for a revisit go through the same stages with a conditional GET; unchanged ones
+// (304, or a SimHash within a few bits of the stored one) only get their schedule updated.
+// CrawlMetrics follows throughput, per-host latency and dedup rates; a line of it is logged
+// every METRICS_PERIOD_SECONDS and MetricsEndpoint serves all of it on crawler.metricsPort.
+public class Crawler {
 
-    private final List<String> seedURLs;
-    private final Queue<String> urlFrontier;
-    private int ID = 0;
+    static final int MAX_PAGES = Integer.getInteger("crawler.maxPages", 6000);
+    // How long a shard with nothing to crawl waits for links from the others before it stops
+    private static final long SHARD_IDLE_MILLIS = Long.getLong("crawler.shardIdleSeconds", 60) * 1000;
+    // How long an idle fetcher waits for a host before re-checking the page budget
+    private static final long IDLE_WAIT_MILLIS = 1000;
+    private static final int QUEUE_CAPACITY = Integer.getInteger("crawler.queueCapacity", 256);
+    private static final int PARSERS = Integer.getInteger("crawler.parsers",
+            Runtime.getRuntime().availableProcessors());
+    private static final int DEDUPERS = Integer.getInteger("crawler.dedupers", 2);
+    private static final int PERSISTERS = Integer.getInteger("crawler.persisters", 2);
+    private static final long METRICS_PERIOD_SECONDS = 10;
+    // Where MetricsEndpoint listens on the loopback interface, negative to not serve metrics
+    private static final int METRICS_PORT = Integer.getInteger("crawler.metricsPort", 9464);
 
-    private final Set<String> visitedURLs;
-    private final Set<String> visitedDocs;
-    private final Set<String> crawledURLs;
-    private final Map<String, List<Pattern>> unAllowedURLs;
-    private final MongoCollection<org.bson.Document> docsCollection;
-    private final MongoCollection<org.bson.Document> URLsCollection;
-    private final MongoCollection<org.bson.Document> visitedDocsCollection;
-    private final MongoCollection<org.bson.Document> crawledURLsCollection;
-    private final MongoCollection<org.bson.Document> URLsListCollection;
-    private static final int MAX_PAGES = 6000;
+    private static class FetchedPage {
+        final String url;
+        final PageFetcher.Page page;
+        // null unless this is a revisit
+        final Revisits.Visit visit;
+
+        FetchedPage(String url, PageFetcher.Page page, Revisits.Visit visit) {
+            this.url = url;
+            this.page = page;
+            this.visit = visit;
+        }
+    }
+
+    private static class ParsedPage {
+        final String url;
+        final long simhash;
+        final org.bson.Document content;
+        final List<String> links;
+        final FetchedPage fetched;
+
+        ParsedPage(FetchedPage fetched, long simhash, org.bson.Document content, List<String> links) {
+            this.url = fetched.url;
+            this.simhash = simhash;
+            this.content = content;
+            this.links = links;
+            this.fetched = fetched;
+        }
+    }
+
+    private final HostFrontier frontier;
+    private final PageFetcher fetcher;
+
+    private final FingerprintSet visitedURLs;
+    private final NearDuplicateIndex nearDuplicates;
+    private final FingerprintSet crawledURLs;
+    private final RobotsCache robots;
+    private final WriteBehind writeBehind = new WriteBehind();
+    private final CrawlMetrics crawlMetrics = new CrawlMetrics();
+    private final WriteBehind.Buffer docsCollection;
+    private final WriteBehind.Buffer visitedDocsCollection;
+    private final WriteBehind.Buffer crawledURLsCollection;
+    private final WriteBehind.Buffer URLsListCollection;
+    private final WriteBehind.Buffer docUpdates;
+    private final WriteBehind.Buffer URLsListUpdates;
+    private final Revisits revisits;
+    private final AtomicInteger revisitsChanged = new AtomicInteger();
+    private final AtomicInteger revisitsUnchanged = new AtomicInteger();
     private final AtomicInteger pagesCrawled;
+    private PageBudget budget = PageBudget.local(MAX_PAGES);
+    // null unless this is one shard of several
+    private LinkExchange exchange;
+    // Pages fetched but whose links have not reached the frontier yet; while any are in
+    // flight an empty frontier does not mean the crawl is over
+    private final AtomicInteger inFlight = new AtomicInteger();
 
-    public Crawler(List<String> urls, int id, Set<String> visitedURLs, AtomicInteger pagesCrawled,
-            Queue<String> urlFrontier, Map<String, List<Pattern>> unAllowedURLs,
-            Set<String> visitedDocs, Set<String> crawledURLs,
+    private final Stage<FetchedPage> parseStage;
+    private final Stage<ParsedPage> dedupStage;
+    private final Stage<ParsedPage> persistStage;
+    // Where page text goes; Mongo only keeps its ref
+    private final PageStore pages;
+
+    public Crawler(FingerprintSet visitedURLs, AtomicInteger pagesCrawled,
+            HostFrontier frontier, PageFetcher fetcher, RobotsCache robots,
+            NearDuplicateIndex nearDuplicates, FingerprintSet crawledURLs, Revisits revisits,
             MongoCollection<org.bson.Document> docsCollection,
-            MongoCollection<org.bson.Document> URLsCollection,
             MongoCollection<org.bson.Document> visitedDocsCollection,
             MongoCollection<org.bson.Document> crawledURLsCollection,
-            MongoCollection<org.bson.Document> URLsListCollection) {
-        this.URLsListCollection = URLsListCollection;
+            MongoCollection<org.bson.Document> URLsListCollection, PageStore pages) {
+        this.pages = pages;
+        this.URLsListCollection = writeBehind.buffer(URLsListCollection);
+        this.URLsListUpdates = writeBehind.updates(URLsListCollection);
+        this.docUpdates = writeBehind.updates(docsCollection);
+        this.revisits = revisits;
         this.pagesCrawled = pagesCrawled;
         this.crawledURLs = crawledURLs;
-        this.crawledURLsCollection = crawledURLsCollection;
-        this.visitedDocsCollection = visitedDocsCollection;
-        this.URLsCollection = URLsCollection;
-        this.docsCollection = docsCollection;
-        this.visitedDocs = visitedDocs;
-        this.unAllowedURLs = unAllowedURLs;
-        this.seedURLs = urls;
-        this.urlFrontier = urlFrontier;
-        this.ID = id;
+        this.crawledURLsCollection = writeBehind.buffer(crawledURLsCollection);
+        this.visitedDocsCollection = writeBehind.upserts(visitedDocsCollection);
+        this.docsCollection = writeBehind.buffer(docsCollection);
+        this.nearDuplicates = nearDuplicates;
+        this.robots = robots;
+        this.frontier = frontier;
+        this.fetcher = fetcher;
         this.visitedURLs = visitedURLs;
+        fetcher.recordTo(crawlMetrics);
+
+        this.parseStage = new Stage<>("parse", QUEUE_CAPACITY, PARSERS, false, this::parse);
+        this.dedupStage = new Stage<>("dedup", QUEUE_CAPACITY, DEDUPERS, false, this::dedup);
+        this.persistStage = new Stage<>("persist", QUEUE_CAPACITY, PERSISTERS, true, this::persist);
     }
 
-    @Override
-    public void run() {
-        for (String url : seedURLs) {
-            try {
-                if (url.contains("{{") || url.contains("}}")) {
-                    continue; // skip template URLs
+    // Hands every page to indexer once it is stored, so it can be indexed while the crawl goes
+    // on: new pages as inserted, changed revisits as the fields they were rewritten with.
+    // Call before crawl().
+    public void handOffTo(Consumer<org.bson.Document> indexer) {
+        docsCollection.afterWrite(documents -> documents.forEach(indexer));
+        docUpdates.afterWrite(updates -> {
+            for (org.bson.Document update : updates) {
+                org.bson.Document set = update.get("update", org.bson.Document.class)
+                        .get("$set", org.bson.Document.class);
+                if (set.getBoolean("reindex", false)) {
+                    indexer.accept(new org.bson.Document(set)
+                            .append("_id", update.get("filter", org.bson.Document.class).get("_id")));
                 }
-                url = URLNormalizer.normalizeToCompactString(url);
-                synchronized (visitedURLs) {
-                    if (visitedURLs.contains(url))
-                        continue;
-                    visitedURLs.add(url);
-                }
-                synchronized (urlFrontier) {
-                    urlFrontier.add(url);
-                }
-                URLsCollection.insertOne(new org.bson.Document("url", url));
-            } catch (Exception e) {
-                e.printStackTrace();
             }
-        }
-        crawl();
+        });
     }
 
-    private void crawl() {
-        while (pagesCrawled.get() < MAX_PAGES) {
-            String url;
-            synchronized (urlFrontier) {
-                url = urlFrontier.poll();
-            }
-            if (url == null) {
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt(); // Restore interrupted status
+    // Makes this crawler one shard of several: links to hosts other shards own are sent to them
+    // through exchange, links they send here are queued like links found here, and stored
+    // pages count against budget, shared by all of them. Call before crawl().
+    public void shard(LinkExchange exchange, PageBudget budget) {
+        this.exchange = exchange;
+        this.budget = budget;
+    }
+
+    // Runs the crawl with the given number of fetchers and returns once it is over and
+    // everything fetched has been written
+    public void crawl(int fetchers) throws InterruptedException {
+        persistStage.start();
+        dedupStage.start();
+        parseStage.start();
+        if (exchange != null) {
+            exchange.start(url -> {
+                if (visitedURLs.add(url)) {
+                    frontier.add(url);
                 }
-                continue;
-            }
-            if (crawledURLs.contains(url)) {
-                continue;
+            });
+        }
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "crawler-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> {
+            crawlMetrics.tick(pagesCrawled.get());
+            System.out.println("[INFO] " + metrics());
+        }, METRICS_PERIOD_SECONDS, METRICS_PERIOD_SECONDS, TimeUnit.SECONDS);
+        HttpServer endpoint = null;
+        if (METRICS_PORT >= 0) {
+            try {
+                endpoint = MetricsEndpoint.start(METRICS_PORT, this::writeMetrics);
+                System.out.println("[INFO] Metrics at http://127.0.0.1:" + endpoint.getAddress().getPort() + "/metrics");
+            } catch (IOException e) {
+                System.out.println("[WARNING] Not serving metrics on port " + METRICS_PORT + ": " + e.getMessage());
             }
-            String base = null;
+        }
+
+        List<Thread> threads = new ArrayList<>(fetchers);
+        for (int i = 0; i < fetchers; i++) {
+            threads.add(Thread.ofVirtual().name("fetch-" + i).start(this::fetchLoop));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        parseStage.close();
+        dedupStage.close();
+        if (exchange != null) {
+            exchange.close();
+        }
+        persistStage.close();
+        writeBehind.close();
+        reporter.shutdownNow();
+        if (endpoint != null) {
+            endpoint.stop(0);
+        }
+        crawlMetrics.tick(pagesCrawled.get());
+        System.out.println("[INFO] " + metrics());
+    }
+
+    // One line per stage; the fetch stage's queue is the frontier itself
+    public String metrics() {
+        return "fetch frontier=" + frontier.size() + " hosts=" + frontier.hostCount()
+                + " inFlight=" + inFlight.get() + " pages=" + pagesCrawled.get()
+                + " revisits changed=" + revisitsChanged.get() + " unchanged=" + revisitsUnchanged.get()
+                + " | " + parseStage.metrics() + " | " + dedupStage.metrics()
+                + " | " + persistStage.metrics() + " | " + writeBehind.metrics()
+                + " | " + crawlMetrics.summary() + (exchange == null ? "" : " | " + exchange.metrics());
+    }
+
+    // Everything metrics() logs, for MetricsEndpoint, with latency for the hosts slowest hosts
+    public void writeMetrics(StringBuilder out, int hosts) {
+        CrawlMetrics.Exposition metrics = new CrawlMetrics.Exposition(out);
+        metrics.gauge("crawler_frontier_urls", frontier.size());
+        metrics.gauge("crawler_frontier_hosts", frontier.hostCount());
+        metrics.gauge("crawler_in_flight_pages", inFlight.get());
+        metrics.counter("crawler_pages_total", pagesCrawled.get());
+        metrics.type("crawler_revisits_total", "counter");
+        metrics.sample("crawler_revisits_total", "result", "changed", revisitsChanged.get());
+        metrics.sample("crawler_revisits_total", "result", "unchanged", revisitsUnchanged.get());
+
+        // Fetch and robots are summed over the fetchers, write over the Mongo writer threads
+        List<Stage<?>> stages = List.of(parseStage, dedupStage, persistStage);
+        metrics.type("crawler_stage_busy_seconds_total", "counter");
+        metrics.sample("crawler_stage_busy_seconds_total", "stage", "fetch", crawlMetrics.fetchNanos() / 1e9);
+        metrics.sample("crawler_stage_busy_seconds_total", "stage", "robots", crawlMetrics.robotsNanos() / 1e9);
+        for (Stage<?> stage : stages) {
+            metrics.sample("crawler_stage_busy_seconds_total", "stage", stage.getName(), stage.busyNanos() / 1e9);
+        }
+        metrics.sample("crawler_stage_busy_seconds_total", "stage", "write", writeBehind.flushNanos() / 1e9);
+        metrics.type("crawler_stage_processed_total", "counter");
+        for (Stage<?> stage : stages) {
+            metrics.sample("crawler_stage_processed_total", "stage", stage.getName(), stage.processedCount());
+        }
+        metrics.sample("crawler_stage_processed_total", "stage", "write", writeBehind.writtenCount());
+        metrics.type("crawler_stage_failed_total", "counter");
+        for (Stage<?> stage : stages) {
+            metrics.sample("crawler_stage_failed_total", "stage", stage.getName(), stage.failedCount());
+        }
+        metrics.sample("crawler_stage_failed_total", "stage", "write", writeBehind.failedCount());
+        metrics.type("crawler_stage_queue", "gauge");
+        for (Stage<?> stage : stages) {
+            metrics.sample("crawler_stage_queue", "stage", stage.getName(), stage.queueDepth());
+        }
+        metrics.sample("crawler_stage_queue", "stage", "write", writeBehind.pendingCount());
+        metrics.type("crawler_stage_busy_workers", "gauge");
+        for (Stage<?> stage : stages) {
+            metrics.sample("crawler_stage_busy_workers", "stage", stage.getName(), stage.busyWorkers());
+        }
+        crawlMetrics.writeTo(out, hosts);
+    }
+
+    private void fetchLoop() {
+        while (!budget.isExhausted()) {
+            HostFrontier.Lease lease;
             try {
-                URL baseURL = URI.create(url).toURL();
-                base = baseURL.getProtocol() + "://" + baseURL.getHost();
-                synchronized (unAllowedURLs) {
-                    if (!unAllowedURLs.containsKey(base)) {
-                        unAllowedURLs.put(base, null); // Insert null initially to avoid
-                                                       // re-parsing when exception occurs
-                        List<Pattern> disallowed = RobotParser.parse(base);
-                        unAllowedURLs.put(base, disallowed); // Replace null with actual list
-                    }
-                }
-            } catch (Exception e) {
-                System.out.println("Error parsing URL: " + e.getMessage());
+                lease = frontier.next(IDLE_WAIT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // Restore interrupted status
+                break;
             }
-            if (base != null && unAllowedURLs.containsKey(base)) {
-                List<Pattern> disallowed = unAllowedURLs.get(base);
-                if (disallowed != null) {
-                    if (RobotParser.isDisallowed(url, disallowed)) {
-                        continue;
+            if (lease == null) {
+                if (frontier.isExhausted()) {
+                    if (inFlight.get() == 0 && isOver()) {
+                        break;
+                    }
+                    // Nothing to lease until the pages in flight add their links, or other
+                    // shards send some
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
                     }
                 }
-            }
-            org.jsoup.nodes.Document doc = downloadPage(url);
-            if (doc == null) {
                 continue;
             }
             try {
-                String hashedDoc = sha256Hash(doc); // in case two urls point to the same page
-                synchronized (visitedDocs) {
-                    if (visitedDocs.contains(hashedDoc)) {
-                        continue;
+                Revisits.Visit visit = revisits.take(lease.url);
+                PageFetcher.Page page = fetch(lease.url, lease.host, visit);
+                if (page != null && page.isNotModified()) {
+                    recordUnchanged(new FetchedPage(lease.url, page, visit), visit.simhash);
+                } else if (page != null) {
+                    // Counted before the lease is released so the frontier never looks
+                    // exhausted while this page's links are still on their way
+                    inFlight.incrementAndGet();
+                    try {
+                        parseStage.submit(new FetchedPage(lease.url, page, visit));
+                    } catch (InterruptedException e) {
+                        inFlight.decrementAndGet();
+                        Thread.currentThread().interrupt();
+                        break;
                     }
-                    visitedDocs.add(hashedDoc);
                 }
-                visitedDocsCollection
-                        .insertOne(new org.bson.Document("url", url).append("doc", hashedDoc));
-            } catch (NoSuchAlgorithmException e) {
-                System.out.println("Error hashing document: " + e.getMessage());
-            }
-            ArrayList<String> h1s = new ArrayList<>();
-            for (Element h1 : doc.select("h1")) {
-                h1s.add(h1.text());
-            }
-            ArrayList<String> h2s = new ArrayList<>();
-            for (Element h2 : doc.select("h2")) {
-                h2s.add(h2.text());
-            }
-            ArrayList<String> h3s = new ArrayList<>();
-            for (Element h3 : doc.select("h3")) {
-                h3s.add(h3.text());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                frontier.release(lease);
             }
-            ArrayList<String> h456s = new ArrayList<>();
-            for (Element h456 : doc.select("h4, h5, h6")) {
-                h456s.add(h456.text());
+        }
+    }
+
+    // With nothing in flight and nothing to crawl, a lone crawler is done; a shard is done once
+    // the shared budget is spent or the other shards have sent nothing for a while
+    private boolean isOver() {
+        return exchange == null || budget.isSpent() || exchange.idleMillis() >= SHARD_IDLE_MILLIS;
+    }
+
+    // Runs while holding the host's lease, so the host's delay starts counting when this
+    // returns; a robots.txt being loaded only holds up fetchers waiting on the same host
+    private PageFetcher.Page fetch(String url, String host, Revisits.Visit visit) {
+        if (visit == null && crawledURLs.contains(url)) {
+            crawlMetrics.recordAlreadyCrawled();
+            return null;
+        }
+        try {
+            URL baseURL = URI.create(url).toURL();
+            String base = baseURL.getProtocol() + "://" + baseURL.getHost();
+            long start = System.nanoTime();
+            RobotRules rules = robots.get(base);
+            crawlMetrics.recordRobotsLookup(System.nanoTime() - start);
+            if (rules.getCrawlDelayMillis() >= 0) {
+                frontier.setCrawlDelay(host, rules.getCrawlDelayMillis());
             }
-            ArrayList<String> ps = new ArrayList<>();
-            for (Element p : doc.select("p")) {
-                ps.add(p.text());
+            if (rules.isDisallowed(url)) {
+                return null;
             }
-            if (pagesCrawled.get() >= MAX_PAGES) {
-                break;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            System.out.println("Error parsing URL: " + e.getMessage());
+        }
+        if (visit == null) {
+            return fetcher.fetchHtml(url);
+        }
+        return fetcher.fetchHtml(url, visit.etag, visit.lastModified);
+    }
+
+    private void parse(FetchedPage fetched) throws InterruptedException {
+        Revisits.Visit visit = fetched.visit;
+        ParsedPage parsed;
+        long simhash;
+        try {
+            // One pass over the DOM gives the content, the links and the text the fingerprint
+            // is taken from; a copy of a page already crawled, under another URL or with a
+            // changed timestamp or ad, goes no further than that. Pages without any text are
+            // never taken for copies of each other.
+            PageExtractor.Page page = PageExtractor.extract(PageFetcher.parse(fetched.page));
+            simhash = page.fingerprint();
+            if (visit != null && visit.simhash != null
+                    && SimHash.distance(simhash, visit.simhash) <= NearDuplicateIndex.MAX_DISTANCE) {
+                parsed = null; // the server did not validate, but the text is what we have
+            } else if (simhash != SimHash.EMPTY && !nearDuplicates.add(simhash) && visit == null) {
+                crawlMetrics.recordParsed(true);
+                inFlight.decrementAndGet();
+                return;
             } else {
-                pagesCrawled.incrementAndGet();
+                crawlMetrics.recordParsed(false);
+                parsed = new ParsedPage(fetched, simhash, toDocument(fetched.url, page), page.links);
             }
-            docsCollection.insertOne(new org.bson.Document("title", doc.title()).append("url", url)
-                    .append("h1s", h1s).append("h2s", h2s).append("h3s", h3s).append("h456s", h456s)
-                    .append("ps", ps).append("body", doc.body().text()).append("isIndexed", false));
-            crawledURLsCollection.insertOne(new org.bson.Document("url", url));
-            List<String> links = extractLinks(doc);
+        } catch (Exception e) {
+            inFlight.decrementAndGet();
+            System.out.println("Error parsing " + fetched.url + ": " + e.getMessage());
+            return;
+        }
+        if (parsed == null) {
+            inFlight.decrementAndGet();
+            recordUnchanged(fetched, simhash);
+            return;
+        }
+        dedupStage.submit(parsed);
+    }
 
-            // Add the listof URLs
-            URLsListCollection
-                    .insertOne(new org.bson.Document("url", url).append("URLsList", links));
+    private void dedup(ParsedPage page) throws InterruptedException {
+        try {
+            // Returning here drops the page, only pages that get through reach persist. A
+            // changed revisit rewrites a page already counted, so only new pages are charged
+            if (page.fetched.visit == null) {
+                if (!budget.take()) {
+                    return;
+                }
+                pagesCrawled.incrementAndGet();
+                crawledURLs.add(page.url);
+            }
 
-            for (String link : links) {
+            // The frontier writes new links to its log, which is what a restart resumes from
+            int added = 0;
+            for (String link : page.links) {
                 try {
                     if (link.contains("{{") || link.contains("}}")) {
                         continue; // skip template URLs
                     }
                     link = URLNormalizer.normalizeToCompactString(link);
-                    if (link == null) {
+                    if (link == null || exchange != null && exchange.route(link)) {
                         continue;
                     }
-                    if (!visitedURLs.contains(link)) {
-                        synchronized (visitedURLs) { // add to visited when adding to queue, not
-                                                     // when poping from queue to ensure no
-                                                     // duplicates
-                            visitedURLs.add(link);
-                        }
-                        synchronized (urlFrontier) {
-                            urlFrontier.add(link);
-                        }
-                        URLsCollection.insertOne(new org.bson.Document("url", link));
+                    // add to visited when adding to queue, not when poping from queue to ensure no
+                    // duplicates
+                    if (visitedURLs.add(link)) {
+                        frontier.add(link);
+                        added++;
                     }
                 } catch (URISyntaxException e) {
                     System.out.println("Error normalizing URL: " + e.getMessage());
                 }
             }
+            crawlMetrics.recordLinks(page.links.size(), added);
+        } finally {
+            inFlight.decrementAndGet();
         }
-        System.out.println(pagesCrawled + " pages" + " crawled by thread " + ID);
+        persistStage.submit(page);
     }
 
-    private List<String> extractLinks(org.jsoup.nodes.Document doc) {
-        List<String> links = new ArrayList<>();
-        for (Element link : doc.select("a[href]")) {
-            String absURL = link.attr("abs:href");
-
-            if (absURL != null) {
-                links.add(absURL);
-            }
+    private void persist(ParsedPage page) throws IOException, InterruptedException {
+        Revisits.Visit visit = page.fetched.visit;
+        // Assigned here rather than by the driver so the docId is known to whoever the stored
+        // page is handed to, and to the PageStore
+        ObjectId docId = visit == null ? new ObjectId() : visit.docId;
+        String body = (String) page.content.remove("body");
+        @SuppressWarnings("unchecked")
+        List<String> ps = (List<String>) page.content.remove("ps");
+        page.content.put("pageRef", pages.append(docId, body, ps));
+        // One row per url, a revisit replaces the fingerprint of the version it rewrites
+        visitedDocsCollection.add(new org.bson.Document("filter", new org.bson.Document("url", page.url))
+                .append("update", new org.bson.Document("$set", new org.bson.Document("simhash", page.simhash))));
+        page.content.putAll(Revisits.schedule(visit, true, page.fetched.page.etag,
+                page.fetched.page.lastModified, page.simhash, System.currentTimeMillis()));
+        if (visit == null) {
+            page.content.put("_id", docId);
+            docsCollection.add(page.content);
+            crawledURLsCollection.add(new org.bson.Document("url", page.url));
+            // Add the listof URLs
+            URLsListCollection.add(new org.bson.Document("url", page.url).append("URLsList", page.links));
+            return;
         }
-        return links;
+        // Rewritten in place so the docId stays the same; reindex tells the indexer to drop
+        // the postings of the old version. A page crawled before the PageStore loses the text
+        // it kept in Mongo.
+        revisitsChanged.incrementAndGet();
+        page.content.append("reindex", true);
+        docUpdates.add(new org.bson.Document("filter", new org.bson.Document("_id", docId))
+                .append("update", new org.bson.Document("$set", page.content)
+                        .append("$unset", new org.bson.Document("body", "").append("ps", ""))));
+        URLsListUpdates.add(new org.bson.Document("filter", new org.bson.Document("url", page.url))
+                .append("update", new org.bson.Document("$set", new org.bson.Document("URLsList", page.links))));
     }
 
-    private org.jsoup.nodes.Document downloadPage(String url) {
-        try {
-            Connection connection =
-                    Jsoup.connect(url).userAgent("Mozilla/5.0 (compatible; MiniCrawler/1.0)")
-                            .timeout(10000).followRedirects(true);
-
-            org.jsoup.nodes.Document doc = connection.get();
-            return doc;
-        } catch (org.jsoup.HttpStatusException e) {
-            // Log HTTP errors (like 404) but don't print stack trace
-            System.out.println("HTTP error " + e.getStatusCode() + " for URL: " + url);
-            return null;
-        } catch (Exception e) {
-            // Handle other exceptions
-            System.out.println("Error downloading " + url + ": " + e.getMessage());
-            return null;
-        }
+    // Pushes the next visit of an unchanged page further out; nothing is re-extracted or reindexed
+    private void recordUnchanged(FetchedPage fetched, Long simhash) throws InterruptedException {
+        Revisits.Visit visit = fetched.visit;
+        revisitsUnchanged.incrementAndGet();
+        String etag = fetched.page.etag != null ? fetched.page.etag : visit.etag;
+        String lastModified = fetched.page.lastModified != null ? fetched.page.lastModified : visit.lastModified;
+        docUpdates.add(new org.bson.Document("filter", new org.bson.Document("_id", visit.docId))
+                .append("update", new org.bson.Document("$set", Revisits.schedule(visit, false, etag,
+                        lastModified, simhash, System.currentTimeMillis()))));
     }
 
-    public static String sha256Hash(org.jsoup.nodes.Document doc) throws NoSuchAlgorithmException {
-        String html = doc.html(); // Convert Document to HTML string
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        byte[] hashBytes = digest.digest(html.getBytes(StandardCharsets.UTF_8));
-
-        // Convert to hex string
-        BigInteger number = new BigInteger(1, hashBytes);
-        StringBuilder hexString = new StringBuilder(number.toString(16));
-
-        // Pad with leading zeros if needed
-        while (hexString.length() < 64) {
-            hexString.insert(0, '0');
-        }
-
-        return hexString.toString();
+    private static org.bson.Document toDocument(String url, PageExtractor.Page page) {
+        return new org.bson.Document("title", page.title).append("url", url)
+                .append("h1s", page.h1s).append("h2s", page.h2s).append("h3s", page.h3s)
+                .append("h456s", page.h456s).append("ps", page.ps).append("body", page.bodyText)
+                .append("isIndexed", false);
     }
 }
@@ -0,0 +1,267 @@
+package Crawler;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// A set of strings kept as 64-bit fingerprints in a memory-mapped open-addressing table, so it
+// lives in the page cache instead of the heap and survives restarts as a file. Slots are
+// claimed with a compare-and-set, which makes add-if-absent lock free. Two strings with the
+// same fingerprint count as one; at 64 bits and tens of millions of entries that happens with
+// a probability around 1e-5 over the whole crawl, which a crawler can live with.
+//
+// A table never rehashes. Once it is MAX_LOAD full, new values go to a table twice its size
+// in the file next to it (name.1, name.2, ...), and lookups check the tables in order. Two
+// threads adding the same value just as a table fills up may both be told it is new, which
+// costs the crawler one duplicate fetch.
+//
+// File layout (native byte order): magic | capacity | count | padding to 64 bytes | slots
+public class FingerprintSet implements AutoCloseable {
+
+    private static final long MAGIC = 0x4650534554303031L; // "FPSET001"
+    private static final int HEADER_BYTES = 64;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int COUNT_OFFSET = 16;
+    // Past this load probes get long, so new values go to the next table
+    private static final double MAX_LOAD = 0.75;
+    // The largest power of two whose slots still fit in one mapping
+    private static final int MAX_CAPACITY = Integer.highestOneBit((Integer.MAX_VALUE - HEADER_BYTES) / Long.BYTES);
+    private static final long EMPTY = 0;
+    // What addHere found
+    private static final int ADDED = 0;
+    private static final int PRESENT = 1;
+    private static final int FULL = 2;
+
+    private static final VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final Path path;
+    // The first table's file and this table's place in the chain, 0 for the first
+    private final Path first;
+    private final int generation;
+    private final FileChannel channel;
+    private final MappedByteBuffer table;
+    private final int capacity;
+    private final int mask;
+    private volatile FingerprintSet next;
+    private volatile boolean warnedFull = false;
+
+    // capacity is rounded up to a power of two; an existing file keeps the capacity it has
+    public static FingerprintSet open(Path path, int capacity) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        return open(path, 0, Integer.highestOneBit(Math.max(2, capacity - 1)) << 1);
+    }
+
+    // Opens the table and every table it has already overflowed into
+    private static FingerprintSet open(Path first, int generation, int capacity) throws IOException {
+        FingerprintSet set = new FingerprintSet(first, generation, capacity);
+        Path overflow = set.overflowPath();
+        if (Files.exists(overflow)) {
+            try {
+                set.next = open(first, generation + 1, set.overflowCapacity());
+            } catch (IOException | RuntimeException e) {
+                set.close();
+                throw e;
+            }
+        }
+        return set;
+    }
+
+    private FingerprintSet(Path first, int generation, int requestedCapacity) throws IOException {
+        this.path = generation == 0 ? first : first.resolveSibling(first.getFileName() + "." + generation);
+        this.first = first;
+        this.generation = generation;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        boolean fresh = channel.size() < HEADER_BYTES;
+        int slots = requestedCapacity;
+        if (!fresh) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            header.order(ByteOrder.nativeOrder());
+            if (header.getLong(0) != MAGIC) {
+                channel.close();
+                throw new IOException("Not a fingerprint set: " + path);
+            }
+            slots = (int) header.getLong(CAPACITY_OFFSET);
+        }
+        if ((long) slots * Long.BYTES > Integer.MAX_VALUE - HEADER_BYTES) {
+            channel.close();
+            throw new IllegalArgumentException("Fingerprint set capacity too large: " + slots);
+        }
+        this.capacity = slots;
+        this.mask = slots - 1;
+        // Mapping past the end grows the file sparsely, untouched slots take no disk or memory
+        this.table = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) slots * Long.BYTES);
+        if (fresh) {
+            LONGS.setVolatile(table, CAPACITY_OFFSET, (long) slots);
+            LONGS.setVolatile(table, COUNT_OFFSET, 0L);
+            LONGS.setVolatile(table, 0, MAGIC);
+        }
+    }
+
+    // Adds the string's fingerprint; true if it was not there before
+    public boolean add(String value) {
+        return add(fingerprint(value));
+    }
+
+    private boolean add(long fingerprint) {
+        if (next == null && size(this) < capacity * MAX_LOAD) {
+            int added = addHere(fingerprint);
+            if (added != FULL) {
+                return added == ADDED;
+            }
+        }
+        // Filled up, so the value is either here already or goes to the next table
+        if (containsHere(fingerprint)) {
+            return false;
+        }
+        FingerprintSet overflow = overflow();
+        // Without a next table the value is treated as seen: the crawl skips a URL instead of
+        // losing the worker that tried to add it
+        return overflow != null && overflow.add(fingerprint);
+    }
+
+    private int addHere(long fingerprint) {
+        int slot = (int) fingerprint & mask;
+        for (int probes = 0; probes < capacity; probes++) {
+            int offset = HEADER_BYTES + slot * Long.BYTES;
+            long current = (long) LONGS.getVolatile(table, offset);
+            if (current == fingerprint) {
+                return PRESENT;
+            }
+            if (current == EMPTY) {
+                long witness = (long) LONGS.compareAndExchange(table, offset, EMPTY, fingerprint);
+                if (witness == EMPTY) {
+                    LONGS.getAndAdd(table, COUNT_OFFSET, 1L);
+                    return ADDED;
+                }
+                if (witness == fingerprint) {
+                    return PRESENT;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+        return FULL;
+    }
+
+    // The next table, created the first time this one fills up; null if it cannot be
+    private FingerprintSet overflow() {
+        FingerprintSet overflow = next;
+        if (overflow != null) {
+            return overflow;
+        }
+        synchronized (this) {
+            if (next == null) {
+                try {
+                    next = new FingerprintSet(first, generation + 1, overflowCapacity());
+                    System.out.println("[INFO] " + path + " is full at " + size(this) + "/" + capacity
+                            + ", continuing in " + next.path + " with " + next.capacity + " slots");
+                } catch (IOException | RuntimeException e) {
+                    if (!warnedFull) {
+                        warnedFull = true;
+                        System.out.println("[ERROR] " + path + " is full and " + overflowPath()
+                                + " cannot be created, new values count as seen: " + e.getMessage());
+                    }
+                }
+            }
+            return next;
+        }
+    }
+
+    private Path overflowPath() {
+        return first.resolveSibling(first.getFileName() + "." + (generation + 1));
+    }
+
+    private int overflowCapacity() {
+        return capacity >= MAX_CAPACITY ? MAX_CAPACITY : capacity << 1;
+    }
+
+    public boolean contains(String value) {
+        long fingerprint = fingerprint(value);
+        for (FingerprintSet set = this; set != null; set = set.next) {
+            if (set.containsHere(fingerprint)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean containsHere(long fingerprint) {
+        int slot = (int) fingerprint & mask;
+        for (int probes = 0; probes < capacity; probes++) {
+            long current = (long) LONGS.getVolatile(table, HEADER_BYTES + slot * Long.BYTES);
+            if (current == fingerprint) {
+                return true;
+            }
+            if (current == EMPTY) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public long size() {
+        long size = 0;
+        for (FingerprintSet set = this; set != null; set = set.next) {
+            size += size(set);
+        }
+        return size;
+    }
+
+    private static long size(FingerprintSet set) {
+        return (long) LONGS.getVolatile(set.table, COUNT_OFFSET);
+    }
+
+    // Slots across all tables
+    public long capacity() {
+        long slots = 0;
+        for (FingerprintSet set = this; set != null; set = set.next) {
+            slots += set.capacity;
+        }
+        return slots;
+    }
+
+    // Writes dirty pages back; the OS also does this on its own, this just bounds the loss
+    public void flush() {
+        for (FingerprintSet set = this; set != null; set = set.next) {
+            set.table.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            table.force();
+            channel.close();
+        } finally {
+            if (next != null) {
+                next.close();
+            }
+        }
+    }
+
+    // FNV-1a over the UTF-16 chars, then the murmur3 finalizer so nearby strings spread out.
+    // Never EMPTY, which marks a free slot.
+    static long fingerprint(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == EMPTY ? 1 : h;
+    }
+}
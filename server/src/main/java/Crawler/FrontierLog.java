@@ -0,0 +1,227 @@
+package Crawler;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Durable FIFO of URLs waiting to be crawled, the part of the frontier that does not fit in
+// memory. URLs are appended to fixed-size memory-mapped segment files, so an enqueue is a
+// sequential write into the page cache; a small mapped cursor file records where reading and
+// writing stand, so reopening after a restart is O(1). Reading is only recorded up to the
+// last commit(): whoever polls commits once it is done with what it read, and a run that dies
+// before that reads the same URLs again next time instead of losing them. Segments are deleted
+// once the commit has moved past them.
+//
+// Segment records: int length | UTF-8 bytes, and a length of -1 where the writer moved on to
+// the next segment. Cursor file (native order): magic | committed segment | committed offset |
+// write segment | write offset | URLs pending after the committed position.
+public class FrontierLog implements AutoCloseable {
+
+    private static final long MAGIC = 0x46524f4e54303031L; // "FRONT001"
+    private static final int SEGMENT_BYTES = Integer.getInteger("crawler.frontierSegmentMb", 64) << 20;
+    private static final int ROLL_MARKER = -1;
+    // URLs longer than this are not worth crawling and would waste a segment's tail
+    private static final int MAX_URL_BYTES = 8192;
+
+    private static final int COMMITTED_SEGMENT = 8;
+    private static final int COMMITTED_OFFSET = 16;
+    private static final int WRITE_SEGMENT = 24;
+    private static final int WRITE_OFFSET = 32;
+    private static final int PENDING = 40;
+    private static final int CURSOR_BYTES = 48;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final FileChannel cursorChannel;
+    private final MappedByteBuffer cursor;
+    private final boolean created;
+
+    private long readSegment;
+    private int readOffset;
+    private MappedByteBuffer reader;
+    private long writeSegment;
+    private int writeOffset;
+    private MappedByteBuffer writer;
+    private long pending;
+    // URLs polled since the log was opened
+    private long polled;
+    private long committedSegment;
+    private int committedOffset;
+    private long committedPending;
+    private long committedOrdinal;
+    private boolean closed;
+
+    // A read position, taken before a poll; committing it keeps the URL polled next and every
+    // one after it for the next run
+    public static final class Mark {
+        final long segment;
+        final int offset;
+        final long ordinal;
+
+        Mark(long segment, int offset, long ordinal) {
+            this.segment = segment;
+            this.offset = offset;
+            this.ordinal = ordinal;
+        }
+    }
+
+    public static FrontierLog open(Path dir) throws IOException {
+        return open(dir, SEGMENT_BYTES);
+    }
+
+    // segmentBytes must stay the same across runs over one directory
+    static FrontierLog open(Path dir, int segmentBytes) throws IOException {
+        Files.createDirectories(dir);
+        return new FrontierLog(dir, segmentBytes);
+    }
+
+    private FrontierLog(Path dir, int segmentBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        Path cursorFile = dir.resolve("frontier.cursor");
+        this.cursorChannel = FileChannel.open(cursorFile, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.created = cursorChannel.size() < CURSOR_BYTES;
+        this.cursor = cursorChannel.map(FileChannel.MapMode.READ_WRITE, 0, CURSOR_BYTES);
+        cursor.order(ByteOrder.nativeOrder());
+        if (created) {
+            cursor.putLong(0, MAGIC);
+            saveCursor();
+        } else if (cursor.getLong(0) != MAGIC) {
+            cursorChannel.close();
+            throw new IOException("Not a frontier cursor: " + cursorFile);
+        }
+        readSegment = committedSegment = cursor.getLong(COMMITTED_SEGMENT);
+        readOffset = committedOffset = (int) cursor.getLong(COMMITTED_OFFSET);
+        writeSegment = cursor.getLong(WRITE_SEGMENT);
+        writeOffset = (int) cursor.getLong(WRITE_OFFSET);
+        pending = committedPending = cursor.getLong(PENDING);
+        writer = map(writeSegment);
+        reader = readSegment == writeSegment ? writer : map(readSegment);
+    }
+
+    // True when this run created the log, i.e. there was nothing to resume
+    public boolean isNew() {
+        return created;
+    }
+
+    public synchronized void append(String url) throws IOException {
+        byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_URL_BYTES) {
+            return;
+        }
+        if (writeOffset + Integer.BYTES + bytes.length > segmentBytes) {
+            if (writeOffset + Integer.BYTES <= segmentBytes) {
+                writer.putInt(writeOffset, ROLL_MARKER);
+            }
+            writeSegment++;
+            writeOffset = 0;
+            writer = map(writeSegment);
+        }
+        writer.put(writeOffset + Integer.BYTES, bytes);
+        writer.putInt(writeOffset, bytes.length);
+        writeOffset += Integer.BYTES + bytes.length;
+        pending++;
+        committedPending++;
+        saveCursor();
+    }
+
+    public synchronized Mark mark() {
+        return new Mark(readSegment, readOffset, polled);
+    }
+
+    // Forgets everything read before mark, for good
+    public synchronized void commit(Mark mark) throws IOException {
+        if (mark.ordinal < committedOrdinal) {
+            return;
+        }
+        committedOrdinal = mark.ordinal;
+        long finished = committedSegment;
+        committedSegment = mark.segment;
+        committedOffset = mark.offset;
+        committedPending = pending + (polled - mark.ordinal);
+        saveCursor();
+        for (; finished < committedSegment; finished++) {
+            Files.deleteIfExists(segmentPath(finished));
+        }
+    }
+
+    // The oldest URL not read yet, or null when the log is empty. It is read again after a
+    // restart unless a later mark is committed first.
+    public synchronized String poll() throws IOException {
+        while (true) {
+            if (readSegment == writeSegment && readOffset >= writeOffset) {
+                return null;
+            }
+            int length = readOffset + Integer.BYTES <= segmentBytes ? reader.getInt(readOffset) : ROLL_MARKER;
+            if (length == ROLL_MARKER || (readSegment < writeSegment && length == 0)) {
+                nextReadSegment();
+                continue;
+            }
+            byte[] bytes = new byte[length];
+            reader.get(readOffset + Integer.BYTES, bytes);
+            readOffset += Integer.BYTES + length;
+            pending--;
+            polled++;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    public synchronized long size() {
+        return pending;
+    }
+
+    public synchronized boolean isEmpty() {
+        return pending == 0;
+    }
+
+    // Forces the segments and the cursor to disk; a killed process leaves them in the page
+    // cache anyway, this is for a machine that goes down
+    public synchronized void flush() {
+        if (closed) {
+            return;
+        }
+        writer.force();
+        cursor.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        closed = true;
+        cursorChannel.close();
+    }
+
+    private void nextReadSegment() throws IOException {
+        readSegment++;
+        readOffset = 0;
+        reader = readSegment == writeSegment ? writer : map(readSegment);
+    }
+
+    private void saveCursor() {
+        cursor.putLong(COMMITTED_SEGMENT, committedSegment);
+        cursor.putLong(COMMITTED_OFFSET, committedOffset);
+        cursor.putLong(WRITE_SEGMENT, writeSegment);
+        cursor.putLong(WRITE_OFFSET, writeOffset);
+        cursor.putLong(PENDING, committedPending);
+    }
+
+    // The mapping stays valid after the channel is closed
+    private MappedByteBuffer map(long segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            buffer.order(ByteOrder.nativeOrder());
+            return buffer;
+        }
+    }
+
+    private Path segmentPath(long segment) {
+        return dir.resolve(String.format("frontier-%06d.seg", segment));
+    }
+}
@@ -0,0 +1,318 @@
+package Crawler;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// The crawl frontier, kept as one FIFO queue per host. A host with queued URLs sits in a heap
+// ordered by the earliest time it may be fetched again; a worker takes the head once that time
+// has passed and holds the host until it calls release, so a host is never fetched by two
+// workers at once and never sooner than its delay after the previous fetch finished. Workers
+// wait on the heap instead of polling, and slow hosts only hold up their own queue.
+// Guarded by a ReentrantLock rather than a monitor: workers are virtual threads, and a virtual
+// thread blocked in Object.wait pins its carrier thread.
+// With a FrontierLog behind it, every added URL is appended to the log and only a window of
+// MAX_IN_MEMORY_URLS is held in the host queues, refilled from the log as it drains. A host
+// holds at most MAX_HOST_URLS of that window; its other URLs go back to the end of the log, so
+// the few large hosts most links point to cannot crowd every other host out of memory. The log
+// is committed up to the oldest URL still in that window as URLs are handed out, so a run that
+// dies reads the window again, along with some URLs it had already handed out, instead of
+// losing it; close() writes the window back to the log and commits all of it.
+public class HostFrontier {
+
+    // Used until robots.txt has been read, and when it sets no Crawl-delay
+    public static final long DEFAULT_DELAY_MILLIS = Long.getLong("crawler.hostDelayMs", 1000);
+    // A larger Crawl-delay would park the host for most of a crawl, it is capped instead
+    public static final long MAX_DELAY_MILLIS = 30_000;
+    private static final int MAX_IN_MEMORY_URLS = Integer.getInteger("crawler.frontierMemoryUrls", 100_000);
+    private static final int MAX_HOST_URLS = Integer.getInteger("crawler.frontierHostUrls", 1000);
+    // URLs a single refill may send back to the log before it gives up for now
+    private static final int MAX_DEFERRED_PER_REFILL = 1024;
+    // How often hosts with nothing queued are dropped
+    private static final long PRUNE_INTERVAL_MILLIS = 1000;
+
+    public static class Lease {
+        public final String host;
+        public final String url;
+
+        Lease(String host, String url) {
+            this.host = host;
+            this.url = url;
+        }
+    }
+
+    private static class HostQueue {
+        final String host;
+        final ArrayDeque<String> urls = new ArrayDeque<>();
+        // Where each of urls was read from the log, empty without one
+        final ArrayDeque<FrontierLog.Mark> marks = new ArrayDeque<>();
+        long delayMillis = DEFAULT_DELAY_MILLIS;
+        long nextFetchAt = 0;
+        boolean leased = false;
+        boolean ready = false;
+
+        HostQueue(String host) {
+            this.host = host;
+        }
+    }
+
+    private final Map<String, HostQueue> hosts = new HashMap<>();
+    private final PriorityQueue<HostQueue> readyHosts =
+            new PriorityQueue<>((a, b) -> Long.compare(a.nextFetchAt, b.nextFetchAt));
+    private int queuedURLs = 0;
+    private int leases = 0;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // null keeps the whole frontier in memory
+    private final FrontierLog backlog;
+    // Marks of the URLs read from the log and not handed out yet, by when they were read
+    private final TreeMap<Long, FrontierLog.Mark> held = new TreeMap<>();
+    private final int maxInMemoryURLs;
+    private final int maxHostURLs;
+    private long prunedAt = 0;
+
+    public HostFrontier() {
+        this(null);
+    }
+
+    public HostFrontier(FrontierLog backlog) {
+        this(backlog, MAX_IN_MEMORY_URLS, MAX_HOST_URLS);
+    }
+
+    HostFrontier(FrontierLog backlog, int maxInMemoryURLs, int maxHostURLs) {
+        this.backlog = backlog;
+        this.maxInMemoryURLs = maxInMemoryURLs;
+        this.maxHostURLs = maxHostURLs;
+    }
+
+    // Returns false for URLs without a host, which can never be fetched
+    public boolean add(String url) {
+        String host = hostOf(url);
+        if (host == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            if (backlog == null) {
+                enqueue(url, host, null);
+                return true;
+            }
+            try {
+                backlog.append(url);
+            } catch (IOException e) {
+                System.out.println("[ERROR] Could not append to the frontier log: " + e.getMessage());
+                return false;
+            }
+            refill();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(String url, String host, FrontierLog.Mark mark) {
+        HostQueue queue = hosts.computeIfAbsent(host, HostQueue::new);
+        queue.urls.add(url);
+        if (mark != null) {
+            queue.marks.add(mark);
+            held.put(mark.ordinal, mark);
+        }
+        queuedURLs++;
+        if (!queue.leased && !queue.ready) {
+            queue.ready = true;
+            readyHosts.add(queue);
+            changed.signalAll();
+        }
+    }
+
+    // Tops the in-memory window up from the log
+    private void refill() {
+        if (backlog == null) {
+            return;
+        }
+        try {
+            int deferred = 0;
+            while (queuedURLs < maxInMemoryURLs) {
+                FrontierLog.Mark mark = backlog.mark();
+                String url = backlog.poll();
+                if (url == null) {
+                    break;
+                }
+                String host = hostOf(url);
+                if (host == null) {
+                    continue;
+                }
+                HostQueue queue = hosts.get(host);
+                if (queue != null && queue.urls.size() >= maxHostURLs) {
+                    // Appended again before the commit can pass it, so it is not lost
+                    backlog.append(url);
+                    if (++deferred >= MAX_DEFERRED_PER_REFILL) {
+                        break;
+                    }
+                    continue;
+                }
+                enqueue(url, host, mark);
+            }
+        } catch (IOException e) {
+            System.out.println("[ERROR] Could not read the frontier log: " + e.getMessage());
+        }
+    }
+
+    // Moves the log's commit up to the oldest URL still held, or to its read position when
+    // nothing is
+    private void commit() {
+        try {
+            backlog.commit(held.isEmpty() ? backlog.mark() : held.firstEntry().getValue());
+        } catch (IOException e) {
+            System.out.println("[ERROR] Could not commit the frontier log: " + e.getMessage());
+        }
+    }
+
+    // Blocks until some host may be fetched and hands out its next URL, or returns null after
+    // maxWaitMillis, or as soon as nothing is queued and no lease is out, since then no new
+    // URLs can arrive.
+    public Lease next(long maxWaitMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            long deadline = System.currentTimeMillis() + maxWaitMillis;
+            while (true) {
+                refill();
+                long now = System.currentTimeMillis();
+                HostQueue head = readyHosts.peek();
+                if (head != null && head.nextFetchAt <= now) {
+                    readyHosts.poll();
+                    head.ready = false;
+                    head.leased = true;
+                    leases++;
+                    queuedURLs--;
+                    Lease lease = new Lease(head.host, head.urls.poll());
+                    FrontierLog.Mark mark = head.marks.poll();
+                    if (mark != null) {
+                        held.remove(mark.ordinal);
+                        commit();
+                    }
+                    return lease;
+                }
+                if (isExhausted() || now >= deadline) {
+                    return null;
+                }
+                long wake = head == null ? deadline : Math.min(deadline, head.nextFetchAt);
+                changed.await(Math.max(1, wake - now), TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Ends a lease; the host becomes ready again one delay after now
+    public void release(Lease lease) {
+        lock.lock();
+        try {
+            HostQueue queue = hosts.get(lease.host);
+            queue.leased = false;
+            leases--;
+            long now = System.currentTimeMillis();
+            queue.nextFetchAt = now + queue.delayMillis;
+            if (!queue.urls.isEmpty()) {
+                queue.ready = true;
+                readyHosts.add(queue);
+            }
+            pruneIdleHosts(now);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Drops the hosts with nothing queued once their delay is over; a host that comes back
+    // starts with the default delay until its next fetch applies the robots.txt one again
+    private void pruneIdleHosts(long now) {
+        if (now - prunedAt < PRUNE_INTERVAL_MILLIS) {
+            return;
+        }
+        prunedAt = now;
+        hosts.values().removeIf(queue -> queue.urls.isEmpty() && !queue.leased && queue.nextFetchAt <= now);
+    }
+
+    // Applies a robots.txt Crawl-delay (in millis, negative for none) from the next release on
+    public void setCrawlDelay(String host, long crawlDelayMillis) {
+        lock.lock();
+        try {
+            HostQueue queue = hosts.get(host);
+            if (queue != null) {
+                queue.delayMillis = crawlDelayMillis < 0 ? DEFAULT_DELAY_MILLIS
+                        : Math.min(crawlDelayMillis, MAX_DELAY_MILLIS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isExhausted() {
+        lock.lock();
+        try {
+            return queuedURLs == 0 && leases == 0 && (backlog == null || backlog.isEmpty());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long size() {
+        lock.lock();
+        try {
+            return queuedURLs + (backlog == null ? 0 : backlog.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int hostCount() {
+        lock.lock();
+        try {
+            return hosts.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Writes the URLs still held in memory back to the log and closes it, so the next run
+    // resumes with them
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (backlog == null) {
+                return;
+            }
+            for (HostQueue queue : hosts.values()) {
+                for (String url : queue.urls) {
+                    backlog.append(url);
+                }
+                queue.urls.clear();
+                queue.marks.clear();
+            }
+            readyHosts.clear();
+            queuedURLs = 0;
+            held.clear();
+            commit();
+            backlog.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host == null ? null : host.toLowerCase();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
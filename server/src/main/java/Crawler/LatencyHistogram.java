@@ -0,0 +1,79 @@
+package Crawler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Latencies in microseconds, counted into log-linear buckets the way an HDR histogram does:
+// each power of two is cut into SUB_BUCKETS equal parts, so any quantile comes back within
+// 1/SUB_BUCKETS (about 6%) of the true value whatever its magnitude, in a fixed 3 KB. Recording
+// is one increment and can run from any number of threads without a lock.
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // Up to 2^27 us, a little over two minutes; anything slower lands in the last bucket
+    private static final int MAX_BITS = 27;
+    private static final long MAX_MICROS = (1L << MAX_BITS) - 1;
+    private static final int BUCKETS = (MAX_BITS - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(bucketOf(Math.min(micros, MAX_MICROS)));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        maxMicros.accumulateAndGet(micros, Math::max);
+    }
+
+    // Values below SUB_BUCKETS get a bucket each; above, the SUB_BITS bits after the leading
+    // one pick one of SUB_BUCKETS buckets within the value's power of two
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (micros >>> shift) - SUB_BUCKETS;
+    }
+
+    // The highest value a bucket holds
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return ((long) (bucket % SUB_BUCKETS + SUB_BUCKETS + 1) << shift) - 1;
+    }
+
+    long count() {
+        return count.get();
+    }
+
+    long totalMicros() {
+        return totalMicros.get();
+    }
+
+    long maxMicros() {
+        return maxMicros.get();
+    }
+
+    // The smallest bucket bound at or above q of the recorded values, never past the maximum
+    long quantileMicros(double q) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+}
@@ -0,0 +1,190 @@
+package Crawler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.bson.Document;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndDeleteOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+
+// Carries links between shards. A link found on a page whose host another shard owns is
+// buffered per target shard and sent as one batch once BATCH_SIZE have gathered or every
+// FLUSH_MILLIS. A receiver thread takes the batches addressed to this shard and hands each
+// URL over, to be deduplicated and queued like a link found here. Batches sent to a shard
+// that is not running wait in the transport until it starts.
+public class LinkExchange implements AutoCloseable {
+
+    private static final int BATCH_SIZE = Integer.getInteger("crawler.exchangeBatch", 500);
+    private static final long FLUSH_MILLIS = Long.getLong("crawler.exchangeFlushMs", 1000);
+    private static final long POLL_MILLIS = 200;
+
+    // Where batches travel; each batch is received by one shard, once
+    public interface Transport {
+        void send(int shard, List<String> urls);
+
+        // The oldest batch waiting for shard, null when there is none
+        List<String> receive(int shard);
+    }
+
+    private final Shards shards;
+    private final Transport transport;
+    private final List<List<String>> outgoing = new ArrayList<>();
+    private final ScheduledExecutorService flusher;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private volatile long lastReceivedAt = System.currentTimeMillis();
+    private volatile boolean closed;
+    private Thread receiver;
+
+    public LinkExchange(Shards shards, Transport transport) {
+        this.shards = shards;
+        this.transport = transport;
+        for (int i = 0; i < shards.count; i++) {
+            outgoing.add(new ArrayList<>());
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "link-exchange-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushAll, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Batches are documents {shard, urls} in exchange, each claimed with a findOneAndDelete,
+    // so several processes can receive from one collection without locking
+    public static Transport mongo(MongoCollection<Document> exchange) {
+        exchange.createIndex(Indexes.ascending("shard", "_id"));
+        return new Transport() {
+            @Override
+            public void send(int shard, List<String> urls) {
+                exchange.insertOne(new Document("shard", shard).append("urls", urls));
+            }
+
+            @Override
+            public List<String> receive(int shard) {
+                Document batch = exchange.findOneAndDelete(Filters.eq("shard", shard),
+                        new FindOneAndDeleteOptions().sort(Sorts.ascending("_id")));
+                return batch == null ? null : batch.getList("urls", String.class);
+            }
+        };
+    }
+
+    // Starts taking this shard's batches, handing their URLs to sink from one thread
+    public void start(Consumer<String> sink) {
+        receiver = Thread.ofPlatform().daemon(true).name("link-exchange-receive").start(() -> receive(sink));
+    }
+
+    // Sends url to the shard that owns its host and returns true, or returns false when that
+    // shard is this one
+    public boolean route(String url) {
+        int shard = shards.shardOfUrl(url);
+        if (shard == shards.index) {
+            return false;
+        }
+        List<String> full = null;
+        List<String> batch = outgoing.get(shard);
+        synchronized (batch) {
+            batch.add(url);
+            if (batch.size() >= BATCH_SIZE) {
+                full = new ArrayList<>(batch);
+                batch.clear();
+            }
+        }
+        if (full != null) {
+            send(shard, full);
+        }
+        return true;
+    }
+
+    private void flushAll() {
+        for (int shard = 0; shard < outgoing.size(); shard++) {
+            List<String> batch = outgoing.get(shard);
+            List<String> urls;
+            synchronized (batch) {
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                urls = new ArrayList<>(batch);
+                batch.clear();
+            }
+            send(shard, urls);
+        }
+    }
+
+    private void send(int shard, List<String> urls) {
+        try {
+            transport.send(shard, urls);
+            sent.addAndGet(urls.size());
+        } catch (Exception e) {
+            System.out.println("[ERROR] Sending " + urls.size() + " links to shard " + shard + " failed: "
+                    + e.getMessage());
+        }
+    }
+
+    private void receive(Consumer<String> sink) {
+        while (!closed) {
+            List<String> urls;
+            try {
+                urls = transport.receive(shards.index);
+            } catch (Exception e) {
+                System.out.println("[ERROR] Receiving links for shard " + shards.index + " failed: " + e.getMessage());
+                urls = null;
+            }
+            if (urls == null) {
+                try {
+                    Thread.sleep(POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+            lastReceivedAt = System.currentTimeMillis();
+            received.addAndGet(urls.size());
+            for (String url : urls) {
+                // Sent before the shard count changed: pass it on to the shard that owns it now
+                if (!route(url)) {
+                    sink.accept(url);
+                }
+            }
+        }
+    }
+
+    // How long since the last batch for this shard came in, or since it was created
+    public long idleMillis() {
+        return System.currentTimeMillis() - lastReceivedAt;
+    }
+
+    public String metrics() {
+        return "exchange shard=" + shards.index + "/" + shards.count + " sent=" + sent.get()
+                + " received=" + received.get();
+    }
+
+    // Stops receiving and sends what is still buffered
+    @Override
+    public void close() {
+        boolean interrupted = Thread.interrupted();
+        closed = true;
+        try {
+            if (receiver != null) {
+                receiver.join();
+            }
+            flusher.shutdown();
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        flushAll();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
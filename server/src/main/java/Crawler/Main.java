@@ -1,16 +1,13 @@
 package Crawler;
 
+import java.time.Duration;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-import java.util.Scanner;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Pattern;
 
 import org.bson.Document;
 
@@ -18,23 +15,58 @@ import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReplaceOptions;
 
+import Indexer.StreamingIndexer;
+import db.DBManager;
+import db.PageStore;
 import ranker.Ranker;
 
 public class Main {
-    public static void main(String[] args) {
-        System.out.println("Starting web crawler, how many crawlers do you want to run?");
-        System.out.println("Please enter a number between 1 and 20");
-        Scanner scanner = new Scanner(System.in);
-        int numCrawlers = scanner.nextInt();
-        scanner.close();
+    private static final int DEFAULT_CRAWLERS = Integer.getInteger("crawler.workers", 512);
+    private static final Duration FETCH_TIMEOUT = Duration.ofSeconds(10);
+    // Seen sets, the frontier log and other crawler state files live here
+    static final Path DATA_DIR = Path.of(System.getProperty("crawler.dataDir", "./crawler-data"));
+    private static final int URL_SET_CAPACITY = Integer.getInteger("crawler.urlSetCapacity", 1 << 24);
+    private static final int PAGE_SET_CAPACITY = Integer.getInteger("crawler.pageSetCapacity", 1 << 22);
+    // Most pages revisited in one run, the most overdue first
+    private static final int REVISIT_LIMIT = Integer.getInteger("crawler.revisitLimit", 6000);
+    // Index pages in this process as they are stored instead of leaving them to the next
+    // indexer run
+    private static final boolean STREAM_INDEX = Boolean.getBoolean("crawler.streamIndex");
+
+    public static void main(String[] args) throws IOException {
+        // Crawlers are virtual threads blocked on the network most of the time, so there can be
+        // many more of them than cores; the per-host politeness delay is what limits each site
+        int numCrawlers = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CRAWLERS;
+        // One of crawler.shards processes, each crawling the hosts that hash to it with its own
+        // state files, and sharing the page budget of the run named crawler.runId
+        Shards shards = Shards.fromProperties();
+        String runId = System.getProperty("crawler.runId");
+        if (shards.isSharded() && runId == null) {
+            System.out.println("[ERROR] A sharded crawl needs -Dcrawler.runId, the same on every shard");
+            return;
+        }
+        Path dataDir = shards.isSharded() ? DATA_DIR.resolve("shard-" + shards.index) : DATA_DIR;
+        System.out.println("Starting web crawler with " + numCrawlers + " crawlers"
+                + (shards.isSharded() ? " as shard " + shards.index + " of " + shards.count : ""));
         List<String> seedURLs = new ArrayList<>();
-        Queue<String> urlFrontier = new LinkedList<>();
-        Set<String> visitedURLs = new HashSet<>();
-        Set<String> visitedDocs = new HashSet<>();
-        Set<String> crawledURLs = new HashSet<>();
+        // URLs waiting to be crawled are kept in an append-only log, so a restart resumes the
+        // frontier where it stopped instead of rebuilding it
+        FrontierLog backlog = FrontierLog.open(dataDir.resolve("frontier"));
+        HostFrontier frontier = new HostFrontier(backlog);
+        // The log is committed as URLs are handed out, and forced to disk on Ctrl-C as well
+        Runtime.getRuntime().addShutdownHook(new Thread(backlog::flush, "frontier-flush"));
+        PageFetcher fetcher = new PageFetcher(FETCH_TIMEOUT);
+        // Off-heap and persisted, so heap use stays flat as the crawl grows and a restart does not
+        // rebuild them from Mongo
+        FingerprintSet visitedURLs = FingerprintSet.open(dataDir.resolve("visited-urls.fp"), URL_SET_CAPACITY);
+        NearDuplicateIndex nearDuplicates = NearDuplicateIndex.open(dataDir.resolve("page-simhashes.bin"));
+        FingerprintSet crawledURLs = FingerprintSet.open(dataDir.resolve("crawled-urls.fp"), PAGE_SET_CAPACITY);
         AtomicInteger pagesCrawled = new AtomicInteger(0);
-        Map<String, List<Pattern>> unAllowedURLs = new HashMap<>();
+        RobotsCache robots = RobotsCache.open(dataDir.resolve("robots.cache"), fetcher);
         MongoClient mongoClient = MongoClients.create("mongodb://localhost:27017");
 
         // Access the database (it will create it if it doesn't exist)
@@ -46,23 +78,47 @@ public class Main {
         MongoCollection<org.bson.Document> URLsCollection = database.getCollection("visitedURLs");
         MongoCollection<org.bson.Document> visitedDocsCollection =
                 database.getCollection("hashedDocs");
+        // Revisits upsert their fingerprint by url
+        visitedDocsCollection.createIndex(Indexes.ascending("url"));
         MongoCollection<org.bson.Document> crawledURLsCollection =
                 database.getCollection("crawledURLs");
         MongoCollection<org.bson.Document> URLsListCollection = database.getCollection("URLsList");
 
-        for (org.bson.Document url : URLsCollection.find()) {
-            String urlString = url.getString("url");
-            visitedURLs.add(urlString);
-            urlFrontier.add(urlString);
+        // The sets are only filled from Mongo when their files are new, e.g. on the first run
+        // after upgrading from the in-memory sets
+        if (crawledURLs.size() == 0) {
+            for (org.bson.Document url : crawledURLsCollection.find()) {
+                String urlString = url.getString("url");
+                if (shards.ownsUrl(urlString)) {
+                    crawledURLs.add(urlString);
+                }
+            }
         }
-        for (org.bson.Document url : crawledURLsCollection.find()) {
-            String urlString = url.getString("url");
-            crawledURLs.add(urlString);
+        // visitedURLs in Mongo is what older versions kept instead of the frontier log; it is
+        // read once to carry the URLs that were never crawled over into a new log
+        if (backlog.isNew() || visitedURLs.size() == 0) {
+            boolean loadVisited = visitedURLs.size() == 0;
+            for (org.bson.Document url : URLsCollection.find()) {
+                String urlString = url.getString("url");
+                if (!shards.ownsUrl(urlString)) {
+                    continue;
+                }
+                if (loadVisited) {
+                    visitedURLs.add(urlString);
+                }
+                if (backlog.isNew() && !crawledURLs.contains(urlString)) {
+                    frontier.add(urlString);
+                }
+            }
         }
-        for (org.bson.Document url : visitedDocsCollection.find()) {
-            String doc = url.getString("doc");
-            visitedDocs.add(doc);
+        // Entries from before SimHash hold a SHA-256 under "doc" and are skipped
+        if (nearDuplicates.size() == 0) {
+            for (org.bson.Document page : visitedDocsCollection.find(Filters.exists("simhash"))) {
+                nearDuplicates.add(page.getLong("simhash"));
+            }
         }
+        System.out.println("[INFO] Seen sets: " + visitedURLs.size() + " URLs, " + crawledURLs.size()
+                + " crawled, " + nearDuplicates.size() + " page fingerprints");
 
 
 
@@ -92,27 +148,63 @@ public class Main {
         seedURLs.add("https://www.reddit.com");
         seedURLs.add("https://www.medium.com");
 
-
-        try {
+        // Seeds go in before any worker starts, an empty frontier tells workers to stop
+        for (String url : seedURLs) {
+            try {
+                url = URLNormalizer.normalizeToCompactString(url);
+                if (shards.ownsUrl(url) && visitedURLs.add(url)) {
+                    frontier.add(url);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        // Pages already crawled whose next visit is due go back in the frontier
+        Revisits revisits = Revisits.load(docsCollection, REVISIT_LIMIT, shards::ownsUrl);
+        for (String url : revisits.urls()) {
+            frontier.add(url);
+        }
+        System.out.println("[INFO] " + revisits.size() + " pages are due for a revisit");
+        System.out.println("[INFO] Frontier holds " + frontier.size() + " URLs across "
+                + frontier.hostCount() + " hosts" + (backlog.isNew() ? "" : ", resumed from the log"));
+
+        DBManager indexDb = STREAM_INDEX ? new DBManager() : null;
+        StreamingIndexer indexer = STREAM_INDEX ? new StreamingIndexer(indexDb) : null;
+        // Each shard appends to segments of its own in the shared store
+        try (PageStore pages = PageStore.openWriter(PageStore.DIR,
+                shards.isSharded() ? "shard-" + shards.index : "crawler")) {
             long startTime = System.currentTimeMillis();
-            List<Thread> threads = new ArrayList<>(10);
-            for (int i = 0; i < numCrawlers; i++) {
-                Crawler crawler = new Crawler(seedURLs, i, visitedURLs, pagesCrawled, urlFrontier,
-                        unAllowedURLs, visitedDocs, crawledURLs, docsCollection, URLsCollection,
-                        visitedDocsCollection, crawledURLsCollection, URLsListCollection);
-                threads.add(new Thread(crawler));
-                threads.get(i).start();
+            Crawler crawler = new Crawler(visitedURLs, pagesCrawled, frontier, fetcher,
+                    robots, nearDuplicates, crawledURLs, revisits, docsCollection, visitedDocsCollection,
+                    crawledURLsCollection, URLsListCollection, pages);
+            if (indexer != null) {
+                crawler.handOffTo(indexer::add);
             }
-            for (int i = 0; i < numCrawlers; i++) {
-                threads.get(i).join();
-                System.out.println("Thread " + i + " finished");
+            if (shards.isSharded()) {
+                crawler.shard(new LinkExchange(shards, LinkExchange.mongo(database.getCollection("crawlExchange"))),
+                        PageBudget.shared(database.getCollection("crawlBudgets"), runId, Crawler.MAX_PAGES));
             }
+            crawler.crawl(numCrawlers);
             long endTime = System.currentTimeMillis();
             System.out.println("Crawlers finished in " + (endTime - startTime) + "ms");
         } catch (Exception e) {
             e.printStackTrace();
         }
-
+        if (indexer != null) {
+            indexer.close();
+            indexDb.close();
+        }
+        frontier.close();
+        robots.save();
+        visitedURLs.close();
+        nearDuplicates.close();
+        crawledURLs.close();
+
+        // The link graph is shared; one shard ranks it, with whatever the others have stored by then
+        if (shards.index != 0) {
+            mongoClient.close();
+            return;
+        }
         Map<String, List<String>> URLGraph = new HashMap<>();
         MongoCollection<org.bson.Document> collection = database.getCollection("URLsList");
 
@@ -150,13 +242,32 @@ public class Main {
         MongoCollection<org.bson.Document> rankCollection = database.getCollection("pageRanks");
 
 
+        long version = System.currentTimeMillis();
+        // Ranks are stored by docId, so a server loading them reads only pageRanks instead of
+        // joining every crawled document's url; linked pages that were never crawled have no
+        // document and are only counted
         List<org.bson.Document> documents = new ArrayList<>();
-        for (Map.Entry<String, Double> entry : pageRank.entrySet()) {
-            Document doc = new Document("url", entry.getKey()).append("rank", entry.getValue());
-            documents.add(doc);
+        for (org.bson.Document doc : docsCollection.find().projection(new Document("_id", 1).append("url", 1))
+                .batchSize(1000)) {
+            Double rank = doc.getString("url") != null ? pageRank.get(doc.getString("url")) : null;
+            if (rank != null) {
+                documents.add(new Document("doc", doc.getObjectId("_id").toString()).append("rank", rank)
+                        .append("run", version));
+            }
         }
 
-        rankCollection.insertMany(documents);
+        // The new run is written next to the previous one and only then made the latest, so a
+        // server loading ranks meanwhile still finds the whole previous run; then the old
+        // runs go
+        rankCollection.createIndex(Indexes.ascending("run"));
+        if (!documents.isEmpty()) {
+            rankCollection.insertMany(documents);
+        }
+        database.getCollection("pageRankRuns").replaceOne(new Document("_id", "latest"),
+                new Document("_id", "latest").append("version", version)
+                        .append("count", pageRank.size()).append("docs", documents.size()),
+                new ReplaceOptions().upsert(true));
+        rankCollection.deleteMany(Filters.ne("run", version));
 
         long endTimeRanking = System.currentTimeMillis();
 
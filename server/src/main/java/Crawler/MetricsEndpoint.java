@@ -0,0 +1,67 @@
+package Crawler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Serves the crawler's metrics at http://127.0.0.1:<port>/metrics in Prometheus' text format,
+// from the JDK's built-in HTTP server on a single thread. /metrics?hosts=N lists the N hosts
+// with the slowest p99 instead of DEFAULT_HOSTS. Bound to the loopback interface only.
+final class MetricsEndpoint {
+
+    private static final int DEFAULT_HOSTS = 20;
+
+    private MetricsEndpoint() {
+    }
+
+    // writer appends the metrics for that many hosts
+    static HttpServer start(int port, BiConsumer<StringBuilder, Integer> writer) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            try (exchange) {
+                if (!exchange.getRequestMethod().equals("GET")) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                StringBuilder out = new StringBuilder(16 * 1024);
+                writer.accept(out, hostsParameter(exchange));
+                byte[] body = out.toString().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream response = exchange.getResponseBody()) {
+                    response.write(body);
+                }
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "crawler-metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        return server;
+    }
+
+    private static int hostsParameter(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                if (param.startsWith("hosts=")) {
+                    try {
+                        return Math.max(0, Integer.parseInt(param.substring("hosts=".length())));
+                    } catch (NumberFormatException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        return DEFAULT_HOSTS;
+    }
+}
@@ -0,0 +1,118 @@
+package Crawler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// SimHash fingerprints of the pages crawled so far, answering "is there one within
+// MAX_DISTANCE bits of this?". The 64 bits are cut into MAX_DISTANCE + 1 bands of 16; two
+// fingerprints at most MAX_DISTANCE bits apart agree exactly on at least one band, so each
+// fingerprint is filed under each of its band values and a lookup only compares against the
+// buckets its own bands land in rather than the whole set.
+//
+// Fingerprints are appended to a file as they are added and read back on open.
+public class NearDuplicateIndex implements AutoCloseable {
+
+    public static final int MAX_DISTANCE = 3;
+    private static final int BANDS = MAX_DISTANCE + 1;
+    private static final int BAND_BITS = SimHash.BITS / BANDS;
+    private static final int BUCKETS = 1 << BAND_BITS;
+
+    private final FileChannel file;
+    // bucket band * BUCKETS + band value holds fingerprints[0, sizes[bucket])
+    private final long[][] buckets = new long[BANDS * BUCKETS][];
+    private final int[] sizes = new int[BANDS * BUCKETS];
+    private final ByteBuffer record = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.nativeOrder());
+    private long count = 0;
+
+    public static NearDuplicateIndex open(Path path) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        return new NearDuplicateIndex(path);
+    }
+
+    private NearDuplicateIndex(Path path) throws IOException {
+        this.file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        // A torn last record from a crash is dropped
+        long size = file.size() - file.size() % Long.BYTES;
+        ByteBuffer existing = ByteBuffer.allocate(64 * 1024).order(ByteOrder.nativeOrder());
+        long position = 0;
+        while (position < size) {
+            existing.clear().limit((int) Math.min(existing.capacity(), size - position));
+            while (existing.hasRemaining()) {
+                position += file.read(existing, position);
+            }
+            existing.flip();
+            while (existing.hasRemaining()) {
+                insert(existing.getLong());
+            }
+        }
+        file.position(size);
+    }
+
+    // Adds the fingerprint unless one within MAX_DISTANCE bits is already there; true if added
+    public synchronized boolean add(long fingerprint) throws IOException {
+        if (findNear(fingerprint)) {
+            return false;
+        }
+        insert(fingerprint);
+        record.clear();
+        record.putLong(fingerprint).flip();
+        while (record.hasRemaining()) {
+            file.write(record);
+        }
+        return true;
+    }
+
+    public synchronized boolean containsNear(long fingerprint) {
+        return findNear(fingerprint);
+    }
+
+    public synchronized long size() {
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        file.force(false);
+        file.close();
+    }
+
+    private boolean findNear(long fingerprint) {
+        for (int band = 0; band < BANDS; band++) {
+            int bucket = bucket(fingerprint, band);
+            long[] entries = buckets[bucket];
+            for (int i = 0, n = sizes[bucket]; i < n; i++) {
+                if (SimHash.distance(entries[i], fingerprint) <= MAX_DISTANCE) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void insert(long fingerprint) {
+        for (int band = 0; band < BANDS; band++) {
+            int bucket = bucket(fingerprint, band);
+            long[] entries = buckets[bucket];
+            if (entries == null) {
+                entries = buckets[bucket] = new long[2];
+            } else if (sizes[bucket] == entries.length) {
+                entries = buckets[bucket] = Arrays.copyOf(entries, entries.length * 2);
+            }
+            entries[sizes[bucket]++] = fingerprint;
+        }
+        count++;
+    }
+
+    private static int bucket(long fingerprint, int band) {
+        return band * BUCKETS + (int) ((fingerprint >>> (band * BAND_BITS)) & (BUCKETS - 1));
+    }
+}
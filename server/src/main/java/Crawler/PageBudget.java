@@ -0,0 +1,136 @@
+package Crawler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntUnaryOperator;
+
+import org.bson.Document;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+
+// How many pages a crawl may still store. Alone, a process counts them itself. Sharded, the
+// processes share one budget without a global lock: each leases pages in chunks of
+// crawler.budgetLease with a single $inc on a counter document, then hands them out locally,
+// so the counter is touched once per chunk rather than once per page. Pages leased by a shard
+// that runs out of URLs are not given back, which can leave up to a lease per shard uncrawled.
+public abstract class PageBudget {
+
+    private static final int LEASE = Integer.getInteger("crawler.budgetLease", 25);
+    // How often isSpent() asks the counter again
+    private static final long SPENT_CHECK_MILLIS = 1000;
+
+    // One more page may be stored; false once the budget is used up
+    public abstract boolean take();
+
+    // take() has failed, nothing more will be stored here
+    public abstract boolean isExhausted();
+
+    // No shard can lease any more pages, though some may still hold a lease
+    public abstract boolean isSpent();
+
+    public static PageBudget local(int maxPages) {
+        return new PageBudget() {
+            private final AtomicInteger taken = new AtomicInteger();
+
+            @Override
+            public boolean take() {
+                return taken.incrementAndGet() <= maxPages;
+            }
+
+            @Override
+            public boolean isExhausted() {
+                return taken.get() >= maxPages;
+            }
+
+            @Override
+            public boolean isSpent() {
+                return isExhausted();
+            }
+        };
+    }
+
+    // The run's counter is a document {_id: runId, granted: n} in budgets; a new runId starts
+    // a new budget
+    public static PageBudget shared(MongoCollection<Document> budgets, String runId, int maxPages) {
+        return leased(maxPages, LEASE, chunk -> budgets.findOneAndUpdate(Filters.eq("_id", runId),
+                Updates.inc("granted", chunk),
+                new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER))
+                .getInteger("granted"));
+    }
+
+    // grant adds its argument to the shared counter and returns the new total
+    static PageBudget leased(int maxPages, int lease, IntUnaryOperator grant) {
+        return new Leased(maxPages, lease, grant);
+    }
+
+    private static final class Leased extends PageBudget {
+        private final int maxPages;
+        private final int lease;
+        private final IntUnaryOperator grant;
+        private final AtomicInteger remaining = new AtomicInteger();
+        private volatile boolean exhausted;
+        private volatile boolean spent;
+        private long spentCheckedAt;
+
+        Leased(int maxPages, int lease, IntUnaryOperator grant) {
+            this.maxPages = maxPages;
+            this.lease = lease;
+            this.grant = grant;
+        }
+
+        @Override
+        public boolean take() {
+            while (true) {
+                int left = remaining.get();
+                if (left > 0) {
+                    if (remaining.compareAndSet(left, left - 1)) {
+                        return true;
+                    }
+                } else if (!renew()) {
+                    return false;
+                }
+            }
+        }
+
+        // Only one thread leases at a time; the others find the new lease when it returns
+        private synchronized boolean renew() {
+            if (remaining.get() > 0) {
+                return true;
+            }
+            if (exhausted) {
+                return false;
+            }
+            int granted = grant.applyAsInt(lease);
+            // Counted past maxPages by other shards' failed leases too, which is harmless
+            int mine = Math.min(lease, maxPages - (granted - lease));
+            if (mine <= 0) {
+                exhausted = true;
+                spent = true;
+                return false;
+            }
+            if (granted >= maxPages) {
+                spent = true;
+            }
+            remaining.addAndGet(mine);
+            return true;
+        }
+
+        @Override
+        public boolean isExhausted() {
+            return exhausted;
+        }
+
+        @Override
+        public synchronized boolean isSpent() {
+            long now = System.currentTimeMillis();
+            if (!spent && now - spentCheckedAt >= SPENT_CHECK_MILLIS) {
+                spentCheckedAt = now;
+                spent = grant.applyAsInt(0) >= maxPages;
+            }
+            return spent;
+        }
+    }
+}
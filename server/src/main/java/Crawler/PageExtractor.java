@@ -0,0 +1,187 @@
+package Crawler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsoup.internal.StringUtil;
+import org.jsoup.nodes.CDataNode;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+// Everything the crawler keeps from a page, collected in one walk over the DOM instead of a
+// select() per tag plus a text() per match and one for the body. While inside an h1-h6, p or
+// the body, each text node is appended to every such element it sits in, following the same
+// spacing rules as jsoup's Element.text(), so the output is what those calls returned.
+public final class PageExtractor {
+
+    public static final class Page {
+        public final String title;
+        public final List<String> h1s;
+        public final List<String> h2s;
+        public final List<String> h3s;
+        public final List<String> h456s;
+        public final List<String> ps;
+        public final List<String> links;
+        public final String bodyText;
+
+        private Page(Visitor visitor) {
+            // Document.title() normalises whitespace once more
+            this.title = visitor.titles.isEmpty() ? "" : StringUtil.normaliseWhitespace(visitor.titles.get(0)).trim();
+            this.bodyText = visitor.bodies.isEmpty() ? "" : visitor.bodies.get(0);
+            this.h1s = visitor.h1s;
+            this.h2s = visitor.h2s;
+            this.h3s = visitor.h3s;
+            this.h456s = visitor.h456s;
+            this.ps = visitor.ps;
+            this.links = visitor.links;
+        }
+
+        // SimHash over the title and body words, what doc.text() gave
+        public long fingerprint() {
+            return SimHash.fingerprint(title + ' ' + bodyText);
+        }
+    }
+
+    private PageExtractor() {
+    }
+
+    public static Page extract(org.jsoup.nodes.Document doc) {
+        Visitor visitor = new Visitor(doc);
+        NodeTraversor.traverse(visitor, doc);
+        return new Page(visitor);
+    }
+
+    // Text of one element as Element.text() builds it
+    private static final class Accumulator {
+        final Element root;
+        final List<String> target;
+        // Reserved when the element opens, so the list keeps document order like select()
+        final int slot;
+        final StringBuilder text = new StringBuilder();
+
+        Accumulator(Element root, List<String> target) {
+            this.root = root;
+            this.target = target;
+            this.slot = target.size();
+            target.add(null);
+        }
+
+        void head(Node node) {
+            if (node instanceof TextNode textNode) {
+                String whole = textNode.getWholeText();
+                if (preservesWhitespace(textNode.parent()) || textNode instanceof CDataNode) {
+                    text.append(whole);
+                } else {
+                    StringUtil.appendNormalisedWhitespace(text, whole, endsWithSpace());
+                }
+            } else if (node instanceof Element element) {
+                if (text.length() > 0 && (element.isBlock() || element.nameIs("br")) && !endsWithSpace()) {
+                    text.append(' ');
+                }
+            }
+        }
+
+        void tail(Node node) {
+            if (node instanceof Element element && element.isBlock()) {
+                Node next = node.nextSibling();
+                if ((next instanceof TextNode || next instanceof Element sibling && !sibling.tag().formatAsBlock())
+                        && !endsWithSpace()) {
+                    text.append(' ');
+                }
+            }
+        }
+
+        private boolean endsWithSpace() {
+            return text.length() != 0 && text.charAt(text.length() - 1) == ' ';
+        }
+
+        // Element.preserveWhitespace: this element or one of five ancestors is a <pre> etc.
+        private static boolean preservesWhitespace(Node node) {
+            if (node instanceof Element element) {
+                for (int i = 0; i < 6 && element != null; i++) {
+                    if (element.tag().preserveWhitespace()) {
+                        return true;
+                    }
+                    element = element.parent();
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Visitor implements NodeVisitor {
+        final Element html;
+        final List<String> h1s = new ArrayList<>();
+        final List<String> h2s = new ArrayList<>();
+        final List<String> h3s = new ArrayList<>();
+        final List<String> h456s = new ArrayList<>();
+        final List<String> ps = new ArrayList<>();
+        final List<String> links = new ArrayList<>();
+        final List<String> titles = new ArrayList<>(1);
+        final List<String> bodies = new ArrayList<>(1);
+        // Innermost last; elements nest, so they close in reverse order
+        final List<Accumulator> open = new ArrayList<>();
+        Element head;
+        boolean inHead;
+
+        Visitor(org.jsoup.nodes.Document doc) {
+            this.html = doc.firstElementChild();
+        }
+
+        @Override
+        public void head(Node node, int depth) {
+            if (node instanceof Element element) {
+                List<String> target = targetOf(element);
+                if (target != null) {
+                    open.add(new Accumulator(element, target));
+                }
+                if (element.nameIs("a") && element.hasAttr("href")) {
+                    links.add(element.absUrl("href"));
+                }
+            }
+            for (int i = 0; i < open.size(); i++) {
+                open.get(i).head(node);
+            }
+        }
+
+        @Override
+        public void tail(Node node, int depth) {
+            for (int i = 0; i < open.size(); i++) {
+                open.get(i).tail(node);
+            }
+            if (!open.isEmpty() && open.get(open.size() - 1).root == node) {
+                Accumulator done = open.remove(open.size() - 1);
+                done.target.set(done.slot, done.text.toString().trim());
+            }
+            if (node == head) {
+                inHead = false;
+            }
+        }
+
+        private List<String> targetOf(Element element) {
+            switch (element.normalName()) {
+                case "h1": return h1s;
+                case "h2": return h2s;
+                case "h3": return h3s;
+                case "h4":
+                case "h5":
+                case "h6": return h456s;
+                case "p": return ps;
+                case "head":
+                    if (head == null && element.parent() == html) {
+                        head = element;
+                        inHead = true;
+                    }
+                    return null;
+                case "title":
+                    return inHead && titles.isEmpty() ? titles : null;
+                case "body":
+                    return element.parent() == html && bodies.isEmpty() ? bodies : null;
+                default: return null;
+            }
+        }
+    }
+}
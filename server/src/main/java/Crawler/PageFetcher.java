@@ -0,0 +1,277 @@
+package Crawler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jsoup.Jsoup;
+
+// Downloads pages over one shared java.net.http.HttpClient, so connections are pooled and
+// reused across workers (and multiplexed where the server speaks HTTP/2). fetch blocks the
+// calling thread, which is meant to be a virtual thread: a blocked virtual thread costs a few
+// hundred bytes, so thousands of fetches can be in flight. The bytes are parsed by jsoup
+// exactly as before.
+//
+// Bodies are streamed into a BoundedBody, so no page holds more than MAX_PAGE_BYTES of heap.
+// fetchHtml looks at the headers first and drops a response whose Content-Type is not HTML
+// or whose Content-Length is over the cap without reading any of its body; a page that turns
+// out larger while streaming is cut off at the cap and dropped. The whole download, headers
+// and body, has to finish within twice the timeout.
+public class PageFetcher {
+
+    public static final String USER_AGENT = "Mozilla/5.0 (compatible; MiniCrawler/1.0)";
+    static final int MAX_PAGE_BYTES = Integer.getInteger("crawler.maxPageKb", 2048) << 10;
+
+    // The charset of a <meta charset> or http-equiv Content-Type tag, as the HTML prescan finds it
+    private static final Pattern META_CHARSET = Pattern.compile(
+            "<meta[^>]+charset\\s*=\\s*[\"']?\\s*([a-z0-9_:.+-]+)", Pattern.CASE_INSENSITIVE);
+    private static final int SNIFF_BYTES = 1024;
+
+    public static class Page {
+        public final String url;
+        public final int status;
+        public final String contentType;
+        public final byte[] body;
+        // Validators for a conditional GET on the next visit, null when the server sent none
+        public final String etag;
+        public final String lastModified;
+        // The body went past the byte limit; body holds only what came before it
+        public final boolean truncated;
+
+        Page(String url, int status, String contentType, byte[] body, String etag, String lastModified,
+                boolean truncated) {
+            this.url = url;
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.truncated = truncated;
+        }
+
+        public boolean isNotModified() {
+            return status == 304;
+        }
+
+        public boolean isHtml() {
+            return PageFetcher.isHtml(contentType);
+        }
+
+        // The charset parameter of Content-Type, else a byte order mark or a <meta> charset in
+        // the first kilobyte, else null for jsoup's default. Found here, jsoup never has to
+        // decode the page as UTF-8 first and parse it again once it meets the <meta> tag.
+        public String charset() {
+            for (String param : contentType.split(";")) {
+                param = param.trim();
+                if (param.toLowerCase().startsWith("charset=")) {
+                    return param.substring("charset=".length()).replace("\"", "").trim();
+                }
+            }
+            return sniffCharset(body);
+        }
+    }
+
+    static boolean isHtml(String contentType) {
+        String type = contentType.toLowerCase();
+        return type.isEmpty() || type.startsWith("text/html") || type.startsWith("application/xhtml+xml");
+    }
+
+    static String sniffCharset(byte[] body) {
+        if (body.length >= 3 && (body[0] & 0xff) == 0xef && (body[1] & 0xff) == 0xbb && (body[2] & 0xff) == 0xbf) {
+            return "UTF-8";
+        }
+        if (body.length >= 2 && (body[0] & 0xff) == 0xfe && (body[1] & 0xff) == 0xff) {
+            return "UTF-16BE";
+        }
+        if (body.length >= 2 && (body[0] & 0xff) == 0xff && (body[1] & 0xff) == 0xfe) {
+            return "UTF-16LE";
+        }
+        Matcher meta = META_CHARSET.matcher(
+                new String(body, 0, Math.min(body.length, SNIFF_BYTES), StandardCharsets.ISO_8859_1));
+        if (!meta.find()) {
+            return null;
+        }
+        String name = meta.group(1);
+        try {
+            if (!Charset.isSupported(name)) {
+                return null;
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        // The bytes were readable as ASCII, so a page claiming UTF-16 is really UTF-8
+        return name.toLowerCase().startsWith("utf-16") ? "UTF-8" : name;
+    }
+
+    private final HttpClient client;
+    private final Duration timeout;
+    private volatile CrawlMetrics metrics;
+
+    public PageFetcher(Duration timeout) {
+        this.timeout = timeout;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(timeout)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    // Every request from now on is counted in metrics, with its status, size and latency
+    public void recordTo(CrawlMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Page fetch(String url) throws IOException, InterruptedException {
+        return fetch(url, MAX_PAGE_BYTES);
+    }
+
+    // Any response, its body cut to maxBytes
+    public Page fetch(String url, int maxBytes) throws IOException, InterruptedException {
+        return fetch(url, null, null, maxBytes, false);
+    }
+
+    // With validators from an earlier visit the server may answer 304 Not Modified, an empty
+    // Page for which isNotModified() is true. With htmlOnly, a successful response that is
+    // not HTML or declares more than maxBytes comes back with an empty body, never read.
+    private Page fetch(String url, String etag, String lastModified, int maxBytes, boolean htmlOnly)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(timeout)
+                .header("User-Agent", USER_AGENT)
+                .header("Accept", "text/html,application/xhtml+xml;q=0.9,*/*;q=0.1")
+                .header("Accept-Encoding", "gzip, deflate")
+                .GET();
+        if (etag != null) {
+            request.header("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            request.header("If-Modified-Since", lastModified);
+        }
+        HttpResponse.BodyHandler<BoundedBody> handler = info -> {
+            long length = info.headers().firstValueAsLong("Content-Length").orElse(-1);
+            if (htmlOnly && info.statusCode() >= 400) {
+                return BoundedBody.skipped(false);
+            }
+            if (htmlOnly && info.statusCode() < 300) {
+                if (!isHtml(info.headers().firstValue("Content-Type").orElse(""))) {
+                    return BoundedBody.skipped(false);
+                }
+                if (length > maxBytes) {
+                    return BoundedBody.skipped(true);
+                }
+            }
+            return BoundedBody.upTo(maxBytes, length);
+        };
+        HttpRequest built = request.build();
+        long start = System.nanoTime();
+        HttpResponse<BoundedBody> response;
+        try {
+            response = send(built, handler);
+        } catch (IOException e) {
+            CrawlMetrics recorder = metrics;
+            if (recorder != null) {
+                recorder.recordError(built.uri().getHost(), e instanceof HttpTimeoutException,
+                        System.nanoTime() - start);
+            }
+            throw e;
+        }
+        BoundedBody body = response.body();
+        CrawlMetrics recorder = metrics;
+        if (recorder != null) {
+            recorder.recordResponse(built.uri().getHost(), response.statusCode(), body.length(),
+                    System.nanoTime() - start);
+        }
+        body.decode(response.headers().firstValue("Content-Encoding").orElse(null));
+        return new Page(response.uri().toString(), response.statusCode(),
+                response.headers().firstValue("Content-Type").orElse(""), body.bytes(),
+                response.headers().firstValue("ETag").orElse(null),
+                response.headers().firstValue("Last-Modified").orElse(null), body.isTruncated());
+    }
+
+    // The request timeout only covers the wait for headers; a server trickling out the body
+    // is cut off here
+    private HttpResponse<BoundedBody> send(HttpRequest request, HttpResponse.BodyHandler<BoundedBody> handler)
+            throws IOException, InterruptedException {
+        CompletableFuture<HttpResponse<BoundedBody>> response = client.sendAsync(request, handler);
+        try {
+            return response.get(2 * timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            response.cancel(true);
+            throw new HttpTimeoutException("Body not received within " + 2 * timeout.toMillis() + " ms");
+        } catch (InterruptedException e) {
+            response.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // The page, or null when it cannot be fetched or is not HTML
+    public Page fetchHtml(String url) {
+        return fetchHtml(url, null, null);
+    }
+
+    public Page fetchHtml(String url, String etag, String lastModified) {
+        try {
+            Page page = fetch(url, etag, lastModified, MAX_PAGE_BYTES, true);
+            if (page.isNotModified()) {
+                return page;
+            }
+            if (page.status >= 400) {
+                System.out.println("HTTP error " + page.status + " for URL: " + url);
+                return null;
+            }
+            if (!page.isHtml()) {
+                System.out.println("Skipping non-HTML " + page.contentType + " at URL: " + url);
+                return null;
+            }
+            if (page.truncated) {
+                System.out.println("Skipping page over " + (MAX_PAGE_BYTES >> 10) + " KB at URL: " + url);
+                return null;
+            }
+            return page;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            System.out.println("Error downloading " + url + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Links in the parsed page resolve against the URL after redirects
+    public static org.jsoup.nodes.Document parse(Page page) throws IOException {
+        return Jsoup.parse(new ByteArrayInputStream(page.body), page.charset(), page.url);
+    }
+
+    public org.jsoup.nodes.Document fetchDocument(String url) {
+        Page page = fetchHtml(url);
+        if (page == null) {
+            return null;
+        }
+        try {
+            return parse(page);
+        } catch (Exception e) {
+            System.out.println("Error parsing " + url + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package Crawler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+
+// Pages due for another visit. Every stored page carries its ETag/Last-Modified, its SimHash
+// and a visit history (visits since the first fetch, how many of them found it changed), and
+// a nextVisitAt picked from the page's estimated change rate. A run loads the pages that are
+// due, fetches them with If-None-Match/If-Modified-Since, and only pages that come back
+// changed are rewritten with isIndexed=false; the rest just get a later nextVisitAt.
+public class Revisits {
+
+    static final long MIN_INTERVAL_MILLIS = 60 * 60_000L;
+    static final long MAX_INTERVAL_MILLIS = 30 * 24 * 60 * 60_000L;
+    static final long FIRST_INTERVAL_MILLIS = Long.getLong("crawler.revisitFirstHours", 24) * 60 * 60_000L;
+
+    // What the last visit stored about a page
+    public static final class Visit {
+        public final ObjectId docId;
+        public final String etag;
+        public final String lastModified;
+        // null for pages stored before SimHash, which always count as changed
+        public final Long simhash;
+        public final int visits;
+        public final int changes;
+        public final long firstFetchedAt;
+
+        Visit(ObjectId docId, String etag, String lastModified, Long simhash, int visits, int changes,
+                long firstFetchedAt) {
+            this.docId = docId;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.simhash = simhash;
+            this.visits = visits;
+            this.changes = changes;
+            this.firstFetchedAt = firstFetchedAt;
+        }
+    }
+
+    private final Map<String, Visit> due = new ConcurrentHashMap<>();
+
+    // Up to limit pages whose nextVisitAt has passed, most overdue first. Pages stored before
+    // revisiting existed have no schedule and are due now.
+    public static Revisits load(MongoCollection<org.bson.Document> docsCollection, int limit) {
+        return load(docsCollection, limit, url -> true);
+    }
+
+    // Only pages whose URL owns accepts, e.g. those on this shard's hosts
+    public static Revisits load(MongoCollection<org.bson.Document> docsCollection, int limit,
+            Predicate<String> owns) {
+        docsCollection.createIndex(Indexes.ascending("nextVisitAt"));
+        Revisits revisits = new Revisits();
+        long now = System.currentTimeMillis();
+        // Read until limit pages are accepted, the others on the way are skipped
+        try (MongoCursor<org.bson.Document> cursor = docsCollection
+                .find(Filters.or(Filters.lte("nextVisitAt", new Date(now)), Filters.exists("nextVisitAt", false)))
+                .projection(Projections.include("url", "etag", "lastModified", "simhash", "visits", "changes",
+                        "firstFetchedAt"))
+                .sort(Sorts.ascending("nextVisitAt"))
+                .iterator()) {
+            while (revisits.due.size() < limit && cursor.hasNext()) {
+                org.bson.Document doc = cursor.next();
+                String url = doc.getString("url");
+                if (url == null || !owns.test(url)) {
+                    continue;
+                }
+                Date first = doc.getDate("firstFetchedAt");
+                revisits.due.put(url, new Visit(doc.getObjectId("_id"), doc.getString("etag"),
+                        doc.getString("lastModified"), doc.getLong("simhash"), doc.getInteger("visits", 0),
+                        doc.getInteger("changes", 0), first == null ? now - FIRST_INTERVAL_MILLIS : first.getTime()));
+            }
+        }
+        return revisits;
+    }
+
+    public Collection<String> urls() {
+        return new ArrayList<>(due.keySet());
+    }
+
+    public int size() {
+        return due.size();
+    }
+
+    // The stored visit if url is due, removed so the page is revisited once per run
+    public Visit take(String url) {
+        return due.remove(url);
+    }
+
+    // Validator and schedule fields for a page fetched now; previous is null on the first fetch
+    public static org.bson.Document schedule(Visit previous, boolean changed, String etag, String lastModified,
+            Long simhash, long now) {
+        int visits = previous == null ? 0 : previous.visits + 1;
+        int changes = previous == null ? 0 : previous.changes + (changed ? 1 : 0);
+        long firstFetchedAt = previous == null ? now : previous.firstFetchedAt;
+        long interval = nextInterval(visits, changes, now - firstFetchedAt);
+        return new org.bson.Document("etag", etag)
+                .append("lastModified", lastModified)
+                .append("simhash", simhash)
+                .append("visits", visits)
+                .append("changes", changes)
+                .append("firstFetchedAt", new Date(firstFetchedAt))
+                .append("fetchedAt", new Date(now))
+                .append("nextVisitAt", new Date(now + interval));
+    }
+
+    // Cho and Garcia-Molina's estimator of a Poisson change rate from `changes` changes seen
+    // in `visits` visits an average gap apart; the next visit is one expected change away.
+    // A page never seen changing has its gap doubled instead.
+    static long nextInterval(int visits, int changes, long observedMillis) {
+        if (visits == 0) {
+            return FIRST_INTERVAL_MILLIS;
+        }
+        double meanGap = Math.max(observedMillis, 1) / (double) visits;
+        double interval;
+        if (changes == 0) {
+            interval = 2 * meanGap;
+        } else {
+            double rate = -Math.log((visits - changes + 0.5) / (visits + 0.5)) / meanGap;
+            interval = 1 / rate;
+        }
+        return (long) Math.max(MIN_INTERVAL_MILLIS, Math.min(MAX_INTERVAL_MILLIS, interval));
+    }
+}
@@ -1,72 +1,77 @@
 package Crawler;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.URI;
-import java.net.URL;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Pattern;
 
 public class RobotParser {
 
-    public static List<Pattern> parse(String urlStr) {
-        List<Pattern> disallowedPatterns = new ArrayList<>();
+    // RFC 9309 asks parsers to read at least 500 KiB; anything past this is ignored
+    private static final int MAX_ROBOTS_BYTES = 512 * 1024;
+    // Longer patterns are junk and would not fit the robots cache file
+    private static final int MAX_PATTERN_LENGTH = 2048;
 
-        try {
-            String robotsUrl = urlStr + "/robots.txt";
-            URL robotsFileURL = URI.create(robotsUrl).toURL();
-
-            var connection = robotsFileURL.openConnection();
-            connection.setConnectTimeout(3000); // 3s to connect
-            connection.setReadTimeout(3000); // 3s to read
-
-            BufferedReader in =
-                    new BufferedReader(new InputStreamReader(connection.getInputStream()));
-            String line;
-            boolean appliesToUs = false;
+    // The rules for base (scheme://host). A missing robots.txt (4xx) allows everything; a
+    // server error or network failure throws, so the caller can retry sooner.
+    public static RobotRules fetch(PageFetcher fetcher, String base) throws IOException, InterruptedException {
+        PageFetcher.Page page = fetcher.fetch(base + "/robots.txt", MAX_ROBOTS_BYTES);
+        if (page.status >= 500) {
+            throw new IOException("HTTP " + page.status + " for " + base + "/robots.txt");
+        }
+        if (page.status >= 400) {
+            return RobotRules.ALLOW_ALL;
+        }
+        return parse(new String(page.body, StandardCharsets.UTF_8), base);
+    }
 
-            while ((line = in.readLine()) != null) {
-                line = line.trim();
+    // Reads the group(s) for "*": consecutive User-agent lines open a group, which runs until
+    // the next User-agent line that follows a rule
+    public static RobotRules parse(String robotsTxt, String base) {
+        List<RobotRules.Rule> rules = new ArrayList<>();
+        long crawlDelayMillis = -1;
+        boolean readingAgents = false;
+        boolean appliesToUs = false;
 
-                if (line.toLowerCase().startsWith("user-agent:")) {
-                    String agent = line.substring("user-agent:".length()).trim();
-                    appliesToUs = agent.equals("*");
-                }
+        for (String line : robotsTxt.split("\r\n|\r|\n")) {
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String key = line.substring(0, colon).trim().toLowerCase();
+            String value = line.substring(colon + 1).trim();
 
-                if (appliesToUs && line.toLowerCase().startsWith("disallow:")) {
-                    String path = line.substring("disallow:".length()).trim();
-                    if (!path.isEmpty()) {
-                        String regex = convertToRegex(path);
-                        disallowedPatterns.add(Pattern.compile(regex));
-                    }
+            if (key.equals("user-agent")) {
+                if (!readingAgents) {
+                    appliesToUs = false;
+                    readingAgents = true;
                 }
+                appliesToUs |= value.equals("*");
+                continue;
+            }
+            readingAgents = false;
+            if (!appliesToUs) {
+                continue;
             }
 
-            in.close();
-        } catch (Exception e) {
-            System.out.println("robots.txt not found or failed to parse for: " + urlStr);
-        }
-        return disallowedPatterns;
-    }
-
-
-    private static String convertToRegex(String disallowPath) {
-        // Escape special regex characters
-        String regex = disallowPath.replaceAll("([.?+^$\\[\\]\\\\(){}|])", "\\\\$1");
-        regex = regex.replace("*", ".*");
-        if (!regex.startsWith("/")) {
-            regex = "/" + regex;
-        }
-        return ".*" + regex + ".*"; // match anywhere in the URL
-    }
-
-    public static boolean isDisallowed(String url, List<Pattern> disallowedPatterns) {
-        for (Pattern pattern : disallowedPatterns) {
-            if (pattern.matcher(url).find()) {
-                return true;
+            if (key.equals("allow") || key.equals("disallow")) {
+                // An empty Disallow allows everything, which is also what no rule does
+                if (!value.isEmpty() && value.length() <= MAX_PATTERN_LENGTH) {
+                    rules.add(new RobotRules.Rule(key.equals("allow"), value.startsWith("/")
+                            || value.startsWith("*") ? value : "/" + value));
+                }
+            } else if (key.equals("crawl-delay")) {
+                try {
+                    crawlDelayMillis = (long) (Double.parseDouble(value) * 1000);
+                } catch (NumberFormatException e) {
+                    System.out.println("Ignoring bad Crawl-delay '" + value + "' for: " + base);
+                }
             }
         }
-        return false;
+        return new RobotRules(rules, crawlDelayMillis);
     }
 }
@@ -0,0 +1,162 @@
+package Crawler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// What a host's robots.txt says about us: its Allow/Disallow rules and the requested delay
+// between fetches (-1 when robots.txt does not set one).
+//
+// Rules match from the start of the URL's path and query. As in RFC 9309 the longest
+// matching rule decides and Allow wins a tie. Plain rules are compiled into a trie, so
+// checking a URL walks its path once however many rules there are; the few rules with a
+// '*' or '$' are matched as globs.
+public class RobotRules {
+
+    public static final RobotRules ALLOW_ALL = new RobotRules(List.of(), -1);
+
+    public static final class Rule {
+        public final boolean allow;
+        public final String pattern;
+
+        public Rule(boolean allow, String pattern) {
+            this.allow = allow;
+            this.pattern = pattern;
+        }
+    }
+
+    private static final byte NONE = 0;
+    private static final byte ALLOW = 1;
+    private static final byte DISALLOW = 2;
+
+    private static final class Node {
+        char[] labels = new char[0];
+        Node[] children = new Node[0];
+        byte verdict = NONE;
+
+        Node child(char c) {
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node addChild(char c) {
+            Node child = child(c);
+            if (child == null) {
+                child = new Node();
+                labels = Arrays.copyOf(labels, labels.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                labels[labels.length - 1] = c;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+
+    private final List<Rule> rules;
+    private final long crawlDelayMillis;
+    private final Node trie = new Node();
+    private final List<Rule> globs = new ArrayList<>();
+
+    public RobotRules(List<Rule> rules, long crawlDelayMillis) {
+        this.rules = rules;
+        this.crawlDelayMillis = crawlDelayMillis;
+        for (Rule rule : rules) {
+            if (rule.pattern.indexOf('*') >= 0 || rule.pattern.endsWith("$")) {
+                globs.add(rule);
+                continue;
+            }
+            Node node = trie;
+            for (int i = 0; i < rule.pattern.length(); i++) {
+                node = node.addChild(rule.pattern.charAt(i));
+            }
+            if (node.verdict != ALLOW) {
+                node.verdict = rule.allow ? ALLOW : DISALLOW;
+            }
+        }
+    }
+
+    public boolean isDisallowed(String url) {
+        String path = pathOf(url);
+        int bestLength = -1;
+        boolean allowed = true;
+
+        Node node = trie;
+        for (int i = 0; node != null; i++) {
+            if (node.verdict != NONE) {
+                bestLength = i;
+                allowed = node.verdict == ALLOW;
+            }
+            if (i == path.length()) {
+                break;
+            }
+            node = node.child(path.charAt(i));
+        }
+        for (Rule rule : globs) {
+            int length = rule.pattern.length();
+            if (length < bestLength || (length == bestLength && (allowed || !rule.allow))) {
+                continue; // could not change the outcome
+            }
+            if (globMatches(rule.pattern, path)) {
+                bestLength = length;
+                allowed = rule.allow;
+            }
+        }
+        return !allowed;
+    }
+
+    public long getCrawlDelayMillis() {
+        return crawlDelayMillis;
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    // Path and query of an absolute URL, "/" when it has no path
+    static String pathOf(String url) {
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+        int slash = url.indexOf('/', start);
+        int query = url.indexOf('?', start);
+        int from = slash < 0 ? query : query < 0 ? slash : Math.min(slash, query);
+        int fragment = url.indexOf('#', start);
+        int end = fragment < 0 ? url.length() : fragment;
+        if (from < 0 || from >= end) {
+            return "/";
+        }
+        String path = url.substring(from, end);
+        return path.charAt(0) == '/' ? path : "/" + path;
+    }
+
+    // '*' matches any run of characters, a trailing '$' anchors the end; otherwise the
+    // pattern only has to match a prefix of the path
+    static boolean globMatches(String pattern, String path) {
+        boolean anchored = pattern.endsWith("$");
+        int patternEnd = anchored ? pattern.length() - 1 : pattern.length();
+        int p = 0;
+        int s = 0;
+        int star = -1;
+        int starMatch = 0;
+        while (true) {
+            if (p == patternEnd && (!anchored || s == path.length())) {
+                return true;
+            }
+            if (p < patternEnd && pattern.charAt(p) == '*') {
+                star = p++;
+                starMatch = s;
+            } else if (p < patternEnd && s < path.length() && pattern.charAt(p) == path.charAt(s)) {
+                p++;
+                s++;
+            } else if (star >= 0 && starMatch < path.length()) {
+                p = star + 1;
+                s = ++starMatch;
+            } else {
+                return false;
+            }
+        }
+    }
+}
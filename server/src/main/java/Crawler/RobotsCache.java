@@ -0,0 +1,153 @@
+package Crawler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+// robots.txt rules per host (keyed by scheme://host), kept for TTL_MILLIS. The first thread
+// to ask for a host loads its robots.txt and any other thread asking for the same host waits
+// on that load instead of starting another; threads working on other hosts never wait.
+// Failed loads count as allow-all and are retried after RETRY_MILLIS. The cache is saved to
+// a file so a restart does not fetch every robots.txt again.
+public class RobotsCache {
+
+    private static final long TTL_MILLIS = Long.getLong("crawler.robotsTtlHours", 24) * 3_600_000;
+    private static final long RETRY_MILLIS = 30 * 60_000;
+    private static final int MAGIC = 0x524f4231; // "ROB1"
+
+    public interface Loader {
+        RobotRules load(String base) throws Exception;
+    }
+
+    private static final class Entry {
+        final RobotRules rules;
+        final long expiresAt;
+
+        Entry(RobotRules rules, long expiresAt) {
+            this.rules = rules;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Map<String, CompletableFuture<Entry>> entries = new ConcurrentHashMap<>();
+    private final Loader loader;
+    private final Path file;
+    private final long ttlMillis;
+
+    public static RobotsCache open(Path file, PageFetcher fetcher) throws IOException {
+        return new RobotsCache(file, base -> RobotParser.fetch(fetcher, base), TTL_MILLIS);
+    }
+
+    RobotsCache(Path file, Loader loader, long ttlMillis) throws IOException {
+        this.file = file;
+        this.loader = loader;
+        this.ttlMillis = ttlMillis;
+        if (Files.exists(file)) {
+            load();
+        }
+    }
+
+    public RobotRules get(String base) throws InterruptedException {
+        while (true) {
+            CompletableFuture<Entry> current = entries.get(base);
+            if (current != null && !(current.isDone() && current.join().expiresAt <= System.currentTimeMillis())) {
+                try {
+                    return current.get().rules;
+                } catch (ExecutionException e) {
+                    return RobotRules.ALLOW_ALL; // not reached, futures are only completed normally
+                }
+            }
+            CompletableFuture<Entry> mine = new CompletableFuture<>();
+            boolean won = current == null ? entries.putIfAbsent(base, mine) == null
+                    : entries.replace(base, current, mine);
+            if (won) {
+                Entry entry = fetchRules(base);
+                mine.complete(entry);
+                return entry.rules;
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private Entry fetchRules(String base) {
+        try {
+            return new Entry(loader.load(base), System.currentTimeMillis() + ttlMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.out.println("robots.txt not found or failed to parse for: " + base);
+        }
+        return new Entry(RobotRules.ALLOW_ALL, System.currentTimeMillis() + Math.min(RETRY_MILLIS, ttlMillis));
+    }
+
+    // Writes the loaded, unexpired entries; the file is replaced in one move so a crash
+    // mid-save leaves the previous one
+    public void save() throws IOException {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Entry>> live = new ArrayList<>();
+        for (Map.Entry<String, CompletableFuture<Entry>> e : entries.entrySet()) {
+            if (e.getValue().isDone() && e.getValue().join().expiresAt > now) {
+                live.add(Map.entry(e.getKey(), e.getValue().join()));
+            }
+        }
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(live.size());
+            for (Map.Entry<String, Entry> e : live) {
+                RobotRules rules = e.getValue().rules;
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().expiresAt);
+                out.writeLong(rules.getCrawlDelayMillis());
+                out.writeInt(rules.getRules().size());
+                for (RobotRules.Rule rule : rules.getRules()) {
+                    out.writeBoolean(rule.allow);
+                    out.writeUTF(rule.pattern);
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() throws IOException {
+        long now = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                System.out.println("[WARNING] Ignoring unreadable robots cache " + file);
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String base = in.readUTF();
+                long expiresAt = in.readLong();
+                long crawlDelayMillis = in.readLong();
+                int ruleCount = in.readInt();
+                List<RobotRules.Rule> rules = new ArrayList<>(ruleCount);
+                for (int r = 0; r < ruleCount; r++) {
+                    rules.add(new RobotRules.Rule(in.readBoolean(), in.readUTF()));
+                }
+                if (expiresAt > now) {
+                    entries.put(base, CompletableFuture.completedFuture(
+                            new Entry(new RobotRules(rules, crawlDelayMillis), expiresAt)));
+                }
+            }
+        }
+    }
+}
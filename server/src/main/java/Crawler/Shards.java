@@ -0,0 +1,68 @@
+package Crawler;
+
+// Which crawler process owns which hosts when the crawl is split over crawler.shards processes,
+// this one being number crawler.shard. A host belongs to the shard its fingerprint hashes to,
+// so every process agrees on the owner without asking anyone, and each host's URLs, politeness
+// delay, robots.txt and seen sets live in exactly one process. With one shard, the default,
+// this process owns everything.
+public final class Shards {
+
+    public final int index;
+    public final int count;
+
+    public Shards(int index, int count) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Shard " + index + " of " + count);
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    public static Shards fromProperties() {
+        return new Shards(Integer.getInteger("crawler.shard", 0), Integer.getInteger("crawler.shards", 1));
+    }
+
+    public boolean isSharded() {
+        return count > 1;
+    }
+
+    public int shardOf(String host) {
+        return (int) Long.remainderUnsigned(FingerprintSet.fingerprint(host), count);
+    }
+
+    // URLs without a host stay here, and go no further than the frontier
+    public int shardOfUrl(String url) {
+        String host = hostOf(url);
+        return host == null ? index : shardOf(host);
+    }
+
+    public boolean ownsUrl(String url) {
+        return count == 1 || shardOfUrl(url) == index;
+    }
+
+    // The host of a normalized URL, lowercased by the normalizer already; a plain scan instead
+    // of parsing a URI, since every discovered link goes through here
+    static String hostOf(String url) {
+        int start = url == null ? -1 : url.indexOf("://");
+        if (start < 0) {
+            return null;
+        }
+        start += 3;
+        int end = start;
+        while (end < url.length()) {
+            char c = url.charAt(end);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+            if (c == '@') {
+                start = end + 1;
+            }
+            end++;
+        }
+        int port = url.lastIndexOf(':', end - 1);
+        if (port >= start && url.charAt(end - 1) != ']') {
+            end = port;
+        }
+        return start == end ? null : url.substring(start, end).toLowerCase();
+    }
+}
@@ -0,0 +1,91 @@
+package Crawler;
+
+import processor.TermScanner;
+
+// 64-bit SimHash of a page's text. Every shingle of SHINGLE_WORDS consecutive words is hashed
+// to 64 bits and votes +1/-1 on each bit; the fingerprint keeps the sign of each vote. Pages
+// that share most of their shingles get fingerprints a few bits apart, so a changed timestamp,
+// ad slot or token moves the fingerprint by a bit or two instead of making it unrelated the
+// way a hash of the HTML does.
+public final class SimHash {
+
+    public static final int BITS = 64;
+    private static final int SHINGLE_WORDS = 3;
+    // The fingerprint of a text without a single word, and of no other text: pages like that,
+    // all script or images, have nothing to compare and are not duplicates of each other
+    public static final long EMPTY = 0;
+
+    private SimHash() {
+    }
+
+    public static long fingerprint(CharSequence text) {
+        Votes votes = new Votes();
+        new TermScanner().scan(text, votes);
+        return votes.fingerprint();
+    }
+
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    private static final class Votes implements TermScanner.WordSink {
+        private final int[] votes = new int[BITS];
+        // Hashes of the last SHINGLE_WORDS words, as a ring
+        private final long[] window = new long[SHINGLE_WORDS];
+        private int words = 0;
+
+        @Override
+        public void word(char[] buffer, int length, int position) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < length; i++) {
+                h ^= buffer[i];
+                h *= 0x100000001b3L;
+            }
+            window[words % SHINGLE_WORDS] = h;
+            words++;
+            if (words >= SHINGLE_WORDS) {
+                vote(shingle(words));
+            }
+        }
+
+        // The shingle ending at the words-th word, in word order so "a b c" and "c b a" differ
+        private long shingle(int end) {
+            long h = 0;
+            for (int i = Math.max(0, end - SHINGLE_WORDS); i < end; i++) {
+                h = Long.rotateLeft(h, 21) ^ window[i % SHINGLE_WORDS];
+            }
+            return mix(h);
+        }
+
+        private void vote(long shingle) {
+            for (int bit = 0; bit < BITS; bit++) {
+                votes[bit] += (int) ((shingle >>> bit) & 1) * 2 - 1;
+            }
+        }
+
+        long fingerprint() {
+            // Texts shorter than a shingle are one shingle
+            if (words > 0 && words < SHINGLE_WORDS) {
+                vote(shingle(words));
+            }
+            long fingerprint = 0;
+            for (int bit = 0; bit < BITS; bit++) {
+                if (votes[bit] > 0) {
+                    fingerprint |= 1L << bit;
+                }
+            }
+            // A text whose votes all came out non-positive is one bit away from EMPTY
+            return fingerprint == EMPTY && words > 0 ? 1 : fingerprint;
+        }
+    }
+
+    // murmur3 finalizer
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
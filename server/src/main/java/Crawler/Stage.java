@@ -0,0 +1,127 @@
+package Crawler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One stage of the crawl pipeline: a bounded input queue drained by its own fixed set of
+// workers. submit blocks while the queue is full, so a stage that falls behind pushes back on
+// the stage feeding it instead of letting work pile up in memory. I/O stages run on virtual
+// threads, CPU stages on as many platform threads as there are cores to spare.
+public class Stage<T> {
+
+    public interface Handler<T> {
+        void handle(T item) throws Exception;
+    }
+
+    private final String name;
+    private final int capacity;
+    private final BlockingQueue<T> queue;
+    private final Handler<T> handler;
+    private final List<Thread> workers = new ArrayList<>();
+    private final AtomicInteger busy = new AtomicInteger();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private volatile boolean closed = false;
+
+    public Stage(String name, int capacity, int workerCount, boolean virtual, Handler<T> handler) {
+        this.name = name;
+        this.capacity = capacity;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.handler = handler;
+        Thread.Builder builder = virtual ? Thread.ofVirtual() : Thread.ofPlatform().daemon(true);
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(builder.name(name + "-" + i).unstarted(this::work));
+        }
+    }
+
+    public void start() {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    public void submit(T item) throws InterruptedException {
+        queue.put(item);
+    }
+
+    // Lets the workers finish everything already submitted, then waits for them to exit
+    public void close() throws InterruptedException {
+        closed = true;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    private void work() {
+        while (!closed || !queue.isEmpty()) {
+            T item;
+            try {
+                item = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (item == null) {
+                continue;
+            }
+            busy.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                handler.handle(item);
+                processed.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                System.out.println("[ERROR] " + name + " stage: " + e.getMessage());
+            } finally {
+                busyNanos.addAndGet(System.nanoTime() - start);
+                busy.decrementAndGet();
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    public int busyWorkers() {
+        return busy.get();
+    }
+
+    public long processedCount() {
+        return processed.get();
+    }
+
+    public long failedCount() {
+        return failed.get();
+    }
+
+    // Time the workers spent handling items, summed over all of them
+    public long busyNanos() {
+        return busyNanos.get();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    // e.g. "parse queue=12/256 busy=4/4 done=1032 failed=0 avg=3.1ms"
+    public String metrics() {
+        long done = processed.get() + failed.get();
+        double avgMillis = done == 0 ? 0 : busyNanos.get() / 1e6 / done;
+        return String.format("%s queue=%d/%d busy=%d/%d done=%d failed=%d avg=%.1fms", name, queue.size(),
+                capacity, busy.get(), workers.size(), processed.get(), failed.get(), avgMillis);
+    }
+}
@@ -8,11 +8,362 @@ import java.util.List;
 
 public class URLNormalizer {
 
+    private static final String[] INDEX_FILES =
+            {"/index.html", "/index.htm", "/index.php", "/default.html", "/default.htm"};
+
+    // Characters java.net.URI takes unescaped in a path, and in a query or fragment
+    private static final boolean[] PATH_CHARS = asciiSet("-_.!~*'():@&=+$,;/");
+    private static final boolean[] QUERY_CHARS = asciiSet("-_.!~*'();/?:@&=+$,[]");
+
     public static String normalizeToCompactString(String url) throws URISyntaxException {
         if (url == null || url.isEmpty()) {
             return "";
         }
+        String normalized = normalizeFast(url);
+        return normalized != null ? normalized : normalizeWithUri(url);
+    }
+
+    // One pass over an absolute http(s) URL with a plain host name and ASCII path and query,
+    // which is nearly every link a page yields, giving what normalizeWithUri would. The path
+    // is decoded, trimmed and its dot segments resolved in place in the output buffer, and the
+    // query parameters are sorted by their offsets. Anything else (other schemes, user info, IP
+    // addresses, a non-ASCII or control character, a malformed escape) returns null and goes
+    // through java.net.URI, whose quirks are the reference.
+    static String normalizeFast(String url) {
+        int n = url.length();
+        boolean https;
+        int start;
+        if (url.regionMatches(true, 0, "http://", 0, 7)) {
+            https = false;
+            start = 7;
+        } else if (url.regionMatches(true, 0, "https://", 0, 8)) {
+            https = true;
+            start = 8;
+        } else {
+            return null;
+        }
+
+        int authorityEnd = start;
+        while (authorityEnd < n && "/?#".indexOf(url.charAt(authorityEnd)) < 0) {
+            authorityEnd++;
+        }
+        int hostEnd = url.indexOf(':', start);
+        if (hostEnd < 0 || hostEnd > authorityEnd) {
+            hostEnd = authorityEnd;
+        }
+        if (!isHostName(url, start, hostEnd)) {
+            return null;
+        }
+        int port = -1;
+        if (hostEnd < authorityEnd) {
+            int digits = authorityEnd - hostEnd - 1;
+            if (digits < 1 || digits > 5) {
+                return null;
+            }
+            port = 0;
+            for (int i = hostEnd + 1; i < authorityEnd; i++) {
+                char c = url.charAt(i);
+                if (c < '0' || c > '9') {
+                    return null;
+                }
+                port = port * 10 + (c - '0');
+            }
+            if (port == (https ? 443 : 80)) {
+                port = -1;
+            }
+        }
+
+        int pathEnd = authorityEnd;
+        while (pathEnd < n && url.charAt(pathEnd) != '?' && url.charAt(pathEnd) != '#') {
+            pathEnd++;
+        }
+        int queryEnd = pathEnd;
+        while (queryEnd < n && url.charAt(queryEnd) != '#') {
+            queryEnd++;
+        }
+        // The fragment is dropped, but URI would have rejected the URL over a bad one
+        if (queryEnd < n && !isValid(url, queryEnd + 1, n, QUERY_CHARS)) {
+            return null;
+        }
+
+        StringBuilder out = new StringBuilder(n + 1);
+        out.append(https ? "https://" : "http://");
+        int hostStart = url.regionMatches(true, start, "www.", 0, 4) ? start + 4 : start;
+        for (int i = hostStart; i < hostEnd; i++) {
+            char c = url.charAt(i);
+            out.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+        }
+        if (port != -1) {
+            out.append(':').append(port);
+        }
+        if (!appendPath(url, authorityEnd, pathEnd, out)) {
+            return null;
+        }
+        if (pathEnd < queryEnd && !appendQuery(url, pathEnd + 1, queryEnd, out)) {
+            return null;
+        }
+        return out.toString();
+    }
+
+    // A host name java.net.URI accepts as one: dot separated labels of letters, digits and
+    // inner hyphens, the last starting with a letter
+    private static boolean isHostName(String url, int start, int end) {
+        if (start == end) {
+            return false;
+        }
+        int labelStart = start;
+        for (int i = start; i <= end; i++) {
+            char c = i < end ? url.charAt(i) : '.';
+            if (c == '.') {
+                if (i == labelStart || url.charAt(i - 1) == '-') {
+                    return false;
+                }
+                labelStart = i + 1;
+            } else if (c == '-') {
+                if (i == labelStart) {
+                    return false;
+                }
+            } else if (!isAlphaNumeric(c)) {
+                return false;
+            }
+        }
+        int dot = url.lastIndexOf('.', end - 1);
+        char top = url.charAt(dot >= start ? dot + 1 : start);
+        return (top | 0x20) >= 'a' && (top | 0x20) <= 'z';
+    }
+
+    // The decoded path, with a trailing slash and an index file name removed and then empty,
+    // "." and ".." segments resolved, the same steps in the same order as normalizeWithUri
+    private static boolean appendPath(String url, int start, int end, StringBuilder out) {
+        int pathStart = out.length();
+        if (!appendDecoded(url, start, end, PATH_CHARS, out)) {
+            return false;
+        }
+        if (out.length() == pathStart) {
+            out.append('/');
+        }
+        if (out.length() - pathStart > 1 && out.charAt(out.length() - 1) == '/') {
+            out.setLength(out.length() - 1);
+        }
+        for (String indexFile : INDEX_FILES) {
+            int at = out.length() - indexFile.length();
+            if (at >= pathStart && out.indexOf(indexFile, at) == at) {
+                out.setLength(at);
+                if (at == pathStart) {
+                    out.append('/');
+                }
+                break;
+            }
+        }
+
+        // Segments are copied down over the ones they replace; the output is never longer
+        int pathEnd = out.length();
+        int read = pathStart;
+        int write = pathStart;
+        while (read < pathEnd) {
+            while (read < pathEnd && out.charAt(read) == '/') {
+                read++;
+            }
+            if (read == pathEnd) {
+                break;
+            }
+            int segment = read;
+            while (read < pathEnd && out.charAt(read) != '/') {
+                read++;
+            }
+            int length = read - segment;
+            if (length == 1 && out.charAt(segment) == '.') {
+                continue;
+            }
+            if (length == 2 && out.charAt(segment) == '.' && out.charAt(segment + 1) == '.') {
+                while (write > pathStart && out.charAt(write - 1) != '/') {
+                    write--;
+                }
+                if (write > pathStart) {
+                    write--;
+                }
+                continue;
+            }
+            out.setCharAt(write++, '/');
+            for (int i = segment; i < read; i++) {
+                out.setCharAt(write++, out.charAt(i));
+            }
+        }
+        if (write == pathStart) {
+            out.setCharAt(write++, '/');
+        }
+        out.setLength(write);
+        return true;
+    }
+
+    // "?" and the decoded query with its parameters sorted and a trailing "=" dropped from
+    // empty ones, or nothing when no parameters are left
+    private static boolean appendQuery(String url, int start, int end, StringBuilder out) {
+        StringBuilder decoded = new StringBuilder(end - start);
+        if (!appendDecoded(url, start, end, QUERY_CHARS, decoded)) {
+            return false;
+        }
+        int length = decoded.length();
+        if (length == 0) {
+            return true;
+        }
+        int count = 1;
+        for (int i = 0; i < length; i++) {
+            if (decoded.charAt(i) == '&') {
+                count++;
+            }
+        }
+        int[] starts = new int[count];
+        int[] ends = new int[count];
+        int param = 0;
+        starts[0] = 0;
+        for (int i = 0; i < length; i++) {
+            if (decoded.charAt(i) == '&') {
+                ends[param++] = i;
+                starts[param] = i + 1;
+            }
+        }
+        ends[param] = length;
+        // String.split drops trailing empty parameters
+        while (count > 0 && starts[count - 1] == ends[count - 1]) {
+            count--;
+        }
+        for (int i = 1; i < count; i++) {
+            int s = starts[i];
+            int e = ends[i];
+            int j = i - 1;
+            while (j >= 0 && compare(decoded, starts[j], ends[j], s, e) > 0) {
+                starts[j + 1] = starts[j];
+                ends[j + 1] = ends[j];
+                j--;
+            }
+            starts[j + 1] = s;
+            ends[j + 1] = e;
+        }
+
+        out.append('?');
+        int queryStart = out.length();
+        for (int i = 0; i < count; i++) {
+            // Empty parameters sort first and, joined into nothing, leave no separator
+            if (out.length() > queryStart) {
+                out.append('&');
+            }
+            out.append(decoded, starts[i], ends[i]);
+        }
+        int queryEnd = out.length();
+        if (queryEnd == queryStart) {
+            out.setLength(queryStart - 1);
+            return true;
+        }
+        boolean emptyValues = out.charAt(queryEnd - 1) == '=';
+        for (int i = queryStart; i < queryEnd - 1 && !emptyValues; i++) {
+            emptyValues = out.charAt(i) == '=' && out.charAt(i + 1) == '&';
+        }
+        if (emptyValues) {
+            // replaceAll("([^&=]+)=(?:&|$)", "$1&") then replaceAll("&$", ""), in place
+            int read = queryStart;
+            int write = queryStart;
+            while (read < queryEnd) {
+                char c = out.charAt(read);
+                if (c == '&' || c == '=') {
+                    out.setCharAt(write++, c);
+                    read++;
+                    continue;
+                }
+                int name = read;
+                while (read < queryEnd && out.charAt(read) != '&' && out.charAt(read) != '=') {
+                    read++;
+                }
+                for (int i = name; i < read; i++) {
+                    out.setCharAt(write++, out.charAt(i));
+                }
+                if (read < queryEnd && out.charAt(read) == '='
+                        && (read + 1 == queryEnd || out.charAt(read + 1) == '&')) {
+                    out.setCharAt(write++, '&');
+                    read = Math.min(read + 2, queryEnd);
+                }
+            }
+            if (write > queryStart && out.charAt(write - 1) == '&') {
+                write--;
+            }
+            out.setLength(write);
+        }
+        if (out.length() == queryStart) {
+            out.setLength(queryStart - 1);
+        }
+        return true;
+    }
+
+    // String.compareTo over two ranges of the same buffer
+    private static int compare(StringBuilder text, int aStart, int aEnd, int bStart, int bEnd) {
+        int length = Math.min(aEnd - aStart, bEnd - bStart);
+        for (int i = 0; i < length; i++) {
+            char a = text.charAt(aStart + i);
+            char b = text.charAt(bStart + i);
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return (aEnd - aStart) - (bEnd - bStart);
+    }
+
+    // Appends url[start, end) with %XX escapes decoded, as URI.getPath/getQuery return it.
+    // False for a character URI would reject, an escape it would reject or decode as UTF-8,
+    // or an escape of a control character.
+    private static boolean appendDecoded(String url, int start, int end, boolean[] allowed, StringBuilder out) {
+        for (int i = start; i < end; i++) {
+            char c = url.charAt(i);
+            if (c == '%') {
+                if (i + 2 >= end) {
+                    return false;
+                }
+                int high = Character.digit(url.charAt(i + 1), 16);
+                int low = Character.digit(url.charAt(i + 2), 16);
+                int decoded = high << 4 | low;
+                if (high < 0 || low < 0 || decoded < 0x20 || decoded >= 0x7f) {
+                    return false;
+                }
+                out.append((char) decoded);
+                i += 2;
+            } else if (c < 0x80 && (isAlphaNumeric(c) || allowed[c])) {
+                out.append(c);
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isValid(String url, int start, int end, boolean[] allowed) {
+        for (int i = start; i < end; i++) {
+            char c = url.charAt(i);
+            if (c == '%') {
+                if (i + 2 >= end || Character.digit(url.charAt(i + 1), 16) < 0
+                        || Character.digit(url.charAt(i + 2), 16) < 0) {
+                    return false;
+                }
+                i += 2;
+            } else if (c >= 0x80 || !(isAlphaNumeric(c) || allowed[c])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAlphaNumeric(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9';
+    }
+
+    private static boolean[] asciiSet(String chars) {
+        boolean[] set = new boolean[128];
+        for (int i = 0; i < chars.length(); i++) {
+            set[chars.charAt(i)] = true;
+        }
+        return set;
+    }
 
+    // The reference: parse with java.net.URI, then fix up the decoded parts with regexes
+    static String normalizeWithUri(String url) throws URISyntaxException {
         // Ensure URL has a scheme, assuming http if missing
         if (!url.contains("://")) {
             url = "http://" + url;
@@ -48,9 +399,7 @@ public class URLNormalizer {
             path = path.substring(0, path.length() - 1);
         }
 
-        String[] indexFiles =
-                {"/index.html", "/index.htm", "/index.php", "/default.html", "/default.htm"};
-        for (String indexFile : indexFiles) {
+        for (String indexFile : INDEX_FILES) {
             if (path.endsWith(indexFile)) {
                 path = path.substring(0, path.length() - indexFile.length());
                 if (path.isEmpty()) {
@@ -91,7 +440,7 @@ public class URLNormalizer {
             compactUrl.append("?").append(query);
         }
 
-        return compactUrl.toString().intern(); // using compact string
+        return compactUrl.toString();
     }
 
     private static String normalizePath(String path) {
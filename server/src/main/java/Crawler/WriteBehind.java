@@ -0,0 +1,289 @@
+package Crawler;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+// Write-behind buffer for the crawler's inserts. Documents are added to a per-collection
+// buffer and written by background threads as one unordered insertMany once BATCH_SIZE have
+// gathered or FLUSH_MILLIS have passed, so a page costs a share of a round trip instead of
+// several. Callers only wait when MAX_PENDING documents are buffered and not yet written,
+// which keeps memory bounded when Mongo falls behind. close() writes out everything added.
+// Update buffers work the same way and go out as one unordered bulkWrite. A buffer can have a
+// listener that is handed each batch once it is in Mongo, minus any documents that failed.
+public class WriteBehind implements AutoCloseable {
+
+    private static final int BATCH_SIZE = Integer.getInteger("crawler.writeBatch", 500);
+    private static final long FLUSH_MILLIS = Long.getLong("crawler.writeFlushMs", 1000);
+    private static final int MAX_PENDING = Integer.getInteger("crawler.writeMaxPending", 20_000);
+    // A batch that fails for a transient reason (Mongo unreachable, a timeout, a primary
+    // stepping down) is tried again after RETRY_MILLIS, doubling each time, before it counts
+    // as failed
+    private static final int WRITE_ATTEMPTS = Integer.getInteger("crawler.writeAttempts", 5);
+    private static final long RETRY_MILLIS = Long.getLong("crawler.writeRetryMs", 200);
+    private static final InsertManyOptions UNORDERED = new InsertManyOptions().ordered(false);
+
+    public class Buffer {
+        private final String name;
+        private final Consumer<List<org.bson.Document>> writer;
+        private volatile Consumer<List<org.bson.Document>> afterWrite;
+        private List<org.bson.Document> documents = new ArrayList<>();
+
+        Buffer(String name, Consumer<List<org.bson.Document>> writer) {
+            this.name = name;
+            this.writer = writer;
+        }
+
+        // Called on the writer thread, before the batch stops counting as pending, so a slow
+        // listener holds adders back like a slow Mongo does
+        public void afterWrite(Consumer<List<org.bson.Document>> listener) {
+            this.afterWrite = listener;
+        }
+
+        public void add(org.bson.Document document) throws InterruptedException {
+            pending.acquire();
+            List<org.bson.Document> full = null;
+            synchronized (this) {
+                documents.add(document);
+                if (documents.size() >= batchSize) {
+                    full = take();
+                }
+            }
+            if (full != null) {
+                submit(this, full);
+            }
+        }
+
+        private List<org.bson.Document> take() {
+            List<org.bson.Document> taken = documents;
+            documents = new ArrayList<>();
+            return taken;
+        }
+
+        private void flush() {
+            List<org.bson.Document> taken;
+            synchronized (this) {
+                if (documents.isEmpty()) {
+                    return;
+                }
+                taken = take();
+            }
+            submit(this, taken);
+        }
+    }
+
+    private final int batchSize;
+    private final int maxPending;
+    private final Semaphore pending;
+    private final List<Buffer> buffers = new CopyOnWriteArrayList<>();
+    private final ExecutorService writers = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService timer;
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong flushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+
+    public WriteBehind() {
+        this(BATCH_SIZE, FLUSH_MILLIS, MAX_PENDING);
+    }
+
+    WriteBehind(int batchSize, long flushMillis, int maxPending) {
+        this.batchSize = batchSize;
+        this.maxPending = maxPending;
+        this.pending = new Semaphore(maxPending);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(this::flushAll, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public Buffer buffer(MongoCollection<org.bson.Document> collection) {
+        return buffer(collection.getNamespace().getCollectionName(),
+                documents -> collection.insertMany(documents, UNORDERED));
+    }
+
+    // Each document added is {filter: ..., update: ...} for one updateOne
+    public Buffer updates(MongoCollection<org.bson.Document> collection) {
+        return updates(collection, " updates", new UpdateOptions());
+    }
+
+    // Like updates(), but a filter that matches nothing inserts the document instead
+    public Buffer upserts(MongoCollection<org.bson.Document> collection) {
+        return updates(collection, " upserts", new UpdateOptions().upsert(true));
+    }
+
+    private Buffer updates(MongoCollection<org.bson.Document> collection, String suffix, UpdateOptions options) {
+        return buffer(collection.getNamespace().getCollectionName() + suffix, documents -> {
+            List<WriteModel<org.bson.Document>> updates = new ArrayList<>(documents.size());
+            for (org.bson.Document document : documents) {
+                updates.add(new UpdateOneModel<>(document.get("filter", org.bson.Document.class),
+                        document.get("update", org.bson.Document.class), options));
+            }
+            collection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        });
+    }
+
+    Buffer buffer(String name, Consumer<List<org.bson.Document>> writer) {
+        Buffer buffer = new Buffer(name, writer);
+        buffers.add(buffer);
+        return buffer;
+    }
+
+    // Flushes whatever is buffered and waits until all of it has been written. Also runs when
+    // called from an interrupted thread, the interrupt is kept for the caller.
+    @Override
+    public void close() {
+        boolean interrupted = Thread.interrupted();
+        try {
+            timer.shutdown();
+            timer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        flushAll();
+        writers.close();
+        System.out.println("[INFO] " + metrics());
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String metrics() {
+        long count = flushes.get();
+        return "write pending=" + (maxPending - pending.availablePermits()) + " flushes=" + count
+                + " docs=" + written.get() + " failed=" + failed.get()
+                + " avgFlushMs=" + (count == 0 ? 0 : flushNanos.get() / count / 1_000_000)
+                + " maxFlushMs=" + maxFlushNanos.get() / 1_000_000;
+    }
+
+    long writtenCount() {
+        return written.get();
+    }
+
+    long failedCount() {
+        return failed.get();
+    }
+
+    int pendingCount() {
+        return maxPending - pending.availablePermits();
+    }
+
+    long flushCount() {
+        return flushes.get();
+    }
+
+    // Time spent in insertMany/bulkWrite calls, summed over the writer threads
+    long flushNanos() {
+        return flushNanos.get();
+    }
+
+    private void flushAll() {
+        for (Buffer buffer : buffers) {
+            buffer.flush();
+        }
+    }
+
+    private void submit(Buffer buffer, List<org.bson.Document> documents) {
+        writers.execute(() -> write(buffer, documents));
+    }
+
+    private void write(Buffer buffer, List<org.bson.Document> documents) {
+        long start = System.nanoTime();
+        List<org.bson.Document> done = null;
+        try {
+            writeWithRetries(buffer, documents);
+            written.addAndGet(documents.size());
+            done = documents;
+        } catch (MongoBulkWriteException e) {
+            // Unordered, so everything but the failed documents went in
+            int errors = e.getWriteErrors().size();
+            written.addAndGet(documents.size() - errors);
+            failed.addAndGet(errors);
+            System.out.println("[ERROR] " + errors + " of " + documents.size() + " writes to "
+                    + buffer.name + " failed: " + e.getMessage());
+            Set<Integer> failedAt = new HashSet<>();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                failedAt.add(error.getIndex());
+            }
+            done = new ArrayList<>(documents.size() - errors);
+            for (int i = 0; i < documents.size(); i++) {
+                if (!failedAt.contains(i)) {
+                    done.add(documents.get(i));
+                }
+            }
+        } catch (InterruptedException e) {
+            failed.addAndGet(documents.size());
+            System.out.println("[ERROR] Writing " + documents.size() + " documents to " + buffer.name
+                    + " was interrupted while waiting to retry");
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            failed.addAndGet(documents.size());
+            System.out.println("[ERROR] Writing " + documents.size() + " documents to " + buffer.name
+                    + " failed: " + e.getMessage());
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            flushes.incrementAndGet();
+            flushNanos.addAndGet(elapsed);
+            maxFlushNanos.accumulateAndGet(elapsed, Math::max);
+            Consumer<List<org.bson.Document>> listener = buffer.afterWrite;
+            if (listener != null && done != null && !done.isEmpty()) {
+                try {
+                    listener.accept(done);
+                } catch (Exception e) {
+                    System.out.println("[ERROR] Handing " + done.size() + " written documents on from "
+                            + buffer.name + " failed: " + e.getMessage());
+                }
+            }
+            pending.release(documents.size());
+        }
+    }
+
+    // Rejected documents are not retried, a bulk write error means the rest went in and the
+    // same documents would be rejected again. A retry after a partial insert can hit duplicate
+    // keys for what already went in, which then count as failed rather than being duplicated.
+    // close() waits for the retries, they run on the writer threads.
+    private void writeWithRetries(Buffer buffer, List<org.bson.Document> documents) throws InterruptedException {
+        long backoff = RETRY_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                buffer.writer.accept(documents);
+                return;
+            } catch (MongoBulkWriteException | MongoWriteException e) {
+                throw e;
+            } catch (MongoException e) {
+                if (attempt >= WRITE_ATTEMPTS) {
+                    throw e;
+                }
+                System.out.println("[WARNING] Writing " + documents.size() + " documents to " + buffer.name
+                        + " failed, attempt " + attempt + " of " + WRITE_ATTEMPTS + ", retrying in "
+                        + backoff + "ms: " + e.getMessage());
+                Thread.sleep(backoff);
+                backoff *= 2;
+            }
+        }
+    }
+}
@@ -1,14 +1,16 @@
 package Indexer;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -16,8 +18,11 @@ import java.io.PrintWriter;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
+import com.mongodb.client.MongoCursor;
 import db.DBManager;
+import db.PageStore;
 import org.bson.Document;
+import org.bson.types.ObjectId;
 import Indexer.Tokenizer.Token;
 
 public class Indexer {
@@ -25,11 +30,17 @@ public class Indexer {
    private static DBManager db = new DBManager();
    // Dynamic batch size calculation based on available processors
    private static final int BATCH_SIZE = Runtime.getRuntime().availableProcessors() * 30;
+   // In-memory postings budget before a segment is flushed, defaults to a quarter of the heap
+   private static final long MEMORY_BUDGET_BYTES = Long.getLong("indexer.memoryBudgetMb",
+           Runtime.getRuntime().maxMemory() / 4 / (1024 * 1024)) * 1024 * 1024;
    private static PrintWriter statsLogger;
    private static long totalTokens = 0;
    private static long totalFetchTime = 0;
    private static long totalTokenizeTime = 0;
    private static long totalDbInsertTime = 0;
+   private static int documentsIndexed = 0;
+   private static int batchCount = 0;
+   private static int segmentCount = 0;
    
    static {
        try {
@@ -48,6 +59,7 @@ public class Indexer {
            statsLogger.println("=== INDEXING STATISTICS ===");
            statsLogger.println("Started: " + timestamp);
            statsLogger.println("Batch size: " + BATCH_SIZE);
+           statsLogger.println("Memory budget: " + MEMORY_BUDGET_BYTES / (1024 * 1024) + "MB");
            statsLogger.println("=========================");
            statsLogger.flush();
        } catch (IOException e) {
@@ -99,7 +111,22 @@ public class Indexer {
        }
    }
    
+   public static void resetIndex() {
+       db.resetIndex();
+   }
+
+   // Reindexes every document: first the pages in the PageStore, read in the order they sit on
+   // disk, then whatever is still unindexed, pages crawled before the store among them
+   public static void rebuild() {
+       resetIndex();
+       run(true);
+   }
+
    public static void index() {
+       run(false);
+   }
+
+   private static void run(boolean fromStore) {
        long startTime = System.currentTimeMillis(); 
        System.out.println("\u001B[34m[INFO] Starting the indexing process with batch size: " + BATCH_SIZE + "...\u001B[0m");
 
@@ -111,60 +138,29 @@ public class Indexer {
            System.out.println("[INFO] Using " + numThreads + " threads for indexing");
            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
 
-           Tokenizer[] tokenizers = new Tokenizer[numThreads];
-           for (int i = 0; i < numThreads; i++) {
-               tokenizers[i] = new Tokenizer();
-           }
+           InvertedBuffer buffer = new InvertedBuffer(MEMORY_BUDGET_BYTES);
 
-           int documentsIndexed = 0;
-           int batchCount = 0;
-           Queue<Document> documentQueue = new ConcurrentLinkedQueue<>();
-
-           while (true) {
-               long batchStartTime = System.currentTimeMillis();
-               List<Document> unindexedDocs = db.getUnIndexedDocs(BATCH_SIZE);
-               long fetchTime = System.currentTimeMillis() - batchStartTime;
-               totalFetchTime += fetchTime;
-               
-               System.out.println("[INFO] Fetched " + unindexedDocs.size() + " documents for batch " + batchCount);
-               
-               if (unindexedDocs.isEmpty()) {
-                   System.out.println("[INFO] No more unindexed documents found. Exiting...");
-                   break;
+           if (fromStore) {
+               try (PageStore.Scan scan = PageStore.shared().scan()) {
+                   indexBatches(new StoreOrder(scan), executor, buffer);
+               } catch (Exception e) {
+                   System.err.println("\u001B[31m[ERROR] Scanning the page store failed: " + e.getMessage() + "\u001B[0m");
                }
-
-               documentQueue.addAll(unindexedDocs);
-               documentsIndexed += unindexedDocs.size();
-               
-               CountDownLatch latch = new CountDownLatch(unindexedDocs.size());
-               AtomicInteger threadAssignment = new AtomicInteger(0);
-               
-               for (int i = 0; i < unindexedDocs.size(); i++) {
-                   Document doc = documentQueue.poll();
-                   if (doc == null) break;
-                   
-                   final int threadId = threadAssignment.getAndIncrement() % numThreads;
-                   executor.submit(() -> {
-                       try {
-                           processDocument(doc, tokenizers[threadId]);
-                       } finally {
-                           latch.countDown();
-                       }
-                   });
+               // Written before the unindexed documents are read, or those still buffered would come back
+               if (!buffer.isEmpty()) {
+                   flush(buffer);
+                   segmentCount++;
                }
+           }
+           try (MongoCursor<Document> cursor = db.streamUnIndexedDocs(BATCH_SIZE)) {
+               indexBatches(cursor, executor, buffer);
+           }
 
-               if (!latch.await(30, TimeUnit.MINUTES)) {
-                   System.err.println("\u001B[31m[ERROR] Timed out waiting for batch to complete\u001B[0m");
-               }
-               
-               long batchEndTime = System.currentTimeMillis();
-               long batchDuration = batchEndTime - batchStartTime;
-               
-               String batchCompleteMsg = "[BATCH " + batchCount + "] Completed in " + batchDuration + "ms";
-               System.out.println("\u001B[34m" + batchCompleteMsg + "\u001B[0m");
-               
-               batchCount++;
+           if (!buffer.isEmpty()) {
+               flush(buffer);
+               segmentCount++;
            }
+           System.out.println("[INFO] Wrote " + segmentCount + " index segments");
 
            String completionMsg = "[INFO] Indexed " + documentsIndexed + " documents in " + batchCount + " batches";
            System.out.println("\u001B[36m" + completionMsg + "\u001B[0m");
@@ -203,13 +199,121 @@ public class Indexer {
        }
    }
    
-   private static void processDocument(Document doc, Tokenizer tokenizer) {
+   private static void indexBatches(Iterator<Document> docs, ExecutorService executor, InvertedBuffer buffer)
+           throws InterruptedException {
+       Queue<Document> documentQueue = new ConcurrentLinkedQueue<>();
+       while (true) {
+           long batchStartTime = System.currentTimeMillis();
+           List<Document> unindexedDocs = new ArrayList<>(BATCH_SIZE);
+           while (unindexedDocs.size() < BATCH_SIZE && docs.hasNext()) {
+               unindexedDocs.add(docs.next());
+           }
+           long fetchTime = System.currentTimeMillis() - batchStartTime;
+           totalFetchTime += fetchTime;
+
+           System.out.println("[INFO] Fetched " + unindexedDocs.size() + " documents for batch " + batchCount);
+
+           if (unindexedDocs.isEmpty()) {
+               System.out.println("[INFO] No more unindexed documents found. Exiting...");
+               break;
+           }
+
+           documentQueue.addAll(unindexedDocs);
+           documentsIndexed += unindexedDocs.size();
+
+           CountDownLatch latch = new CountDownLatch(unindexedDocs.size());
+           for (int i = 0; i < unindexedDocs.size(); i++) {
+               Document doc = documentQueue.poll();
+               if (doc == null) break;
+
+               executor.submit(() -> {
+                   try {
+                       // Tokenizers are not thread-safe, so one per pool thread rather than per task
+                       processDocument(doc, Tokenizer.forCurrentThread(), buffer);
+                   } finally {
+                       latch.countDown();
+                   }
+               });
+           }
+
+           if (!latch.await(30, TimeUnit.MINUTES)) {
+               System.err.println("\u001B[31m[ERROR] Timed out waiting for batch to complete\u001B[0m");
+           }
+
+           // Postings stay in memory across batches until the budget is reached
+           if (buffer.isFull()) {
+               flush(buffer);
+               segmentCount++;
+           }
+
+           long batchEndTime = System.currentTimeMillis();
+           long batchDuration = batchEndTime - batchStartTime;
+
+           String batchCompleteMsg = "[BATCH " + batchCount + "] Completed in " + batchDuration + "ms";
+           System.out.println("\u001B[34m" + batchCompleteMsg + "\u001B[0m");
+
+           batchCount++;
+       }
+   }
+
+   // Pages from a store scan, joined in batches with the rest of their document from Mongo;
+   // pages whose document is gone are skipped
+   private static class StoreOrder implements Iterator<Document> {
+       private final PageStore.Scan scan;
+       private final Queue<Document> ready = new ConcurrentLinkedQueue<>();
+
+       StoreOrder(PageStore.Scan scan) {
+           this.scan = scan;
+       }
+
+       @Override
+       public boolean hasNext() {
+           while (ready.isEmpty() && scan.hasNext()) {
+               List<PageStore.Page> pages = new ArrayList<>(BATCH_SIZE);
+               while (pages.size() < BATCH_SIZE && scan.hasNext()) {
+                   pages.add(scan.next());
+               }
+               List<ObjectId> ids = new ArrayList<>(pages.size());
+               for (PageStore.Page page : pages) {
+                   ids.add(page.docId);
+               }
+               Map<ObjectId, Document> fields = db.getIndexFields(ids);
+               for (PageStore.Page page : pages) {
+                   Document doc = fields.get(page.docId);
+                   if (doc != null) {
+                       // The version read here, which a revisit may have replaced in Mongo already
+                       ready.add(doc.append("pageRef", page.ref).append("body", page.body).append("ps", page.ps));
+                   }
+               }
+           }
+           return !ready.isEmpty();
+       }
+
+       @Override
+       public Document next() {
+           hasNext();
+           return ready.remove();
+       }
+   }
+
+   private static void flush(InvertedBuffer buffer) {
+       System.out.println("[INFO] Flushing segment of " + buffer.documentCount() + " documents, "
+               + buffer.termCount() + " terms");
+       long dbStartTime = System.currentTimeMillis();
+       db.writeInvertedSegment(buffer.drain());
+       totalDbInsertTime += System.currentTimeMillis() - dbStartTime;
+   }
+
+   private static void processDocument(Document doc, Tokenizer tokenizer, InvertedBuffer buffer) {
        String title = doc.getString("title");
+       String docId = doc.getObjectId("_id").toString();
        try {
+           // Throws when the stored page cannot be read; the document then stays unindexed
+           doc = db.withText(doc);
            String body = doc.getString("body");
            if (body == null || body.isBlank()) {
                System.out.println("\u001B[33m[WARNING] Document '" + title + "' has null or empty body. Marking as indexed.\u001B[0m");
-               db.markDocumentAsIndexed(doc.getObjectId("_id").toString());
+               buffer.add(docId, doc.getString("pageRef"), Map.of());
                return;
            }
            
@@ -221,18 +325,8 @@ public class Indexer {
                totalTokenizeTime += tokenizeTime;
                totalTokens += tokens.size();
            }
-           
-           if (!tokens.isEmpty()) {
-               long dbStartTime = System.currentTimeMillis();
-               db.insertInverted(doc.getObjectId("_id").toString(), tokens);
-               long dbTime = System.currentTimeMillis() - dbStartTime;
-               
-               synchronized(Indexer.class) {
-                   totalDbInsertTime += dbTime;
-               }
-           } else {
-               db.markDocumentAsIndexed(doc.getObjectId("_id").toString());
-           }
+
+           buffer.add(docId, doc.getString("pageRef"), tokens);
        } catch (Exception e) {
            System.err.println("\u001B[31m[ERROR] Error indexing document '" + title + "': " + e.getMessage() + "\u001B[0m");
        }
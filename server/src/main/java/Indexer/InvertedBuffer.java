@@ -0,0 +1,94 @@
+package Indexer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import Indexer.Tokenizer.Token;
+import db.InvertedSegment;
+import db.InvertedSegment.Posting;
+import db.PostingCodec;
+
+// SPIMI-style in-memory inversion: postings for many documents are accumulated per term
+// until the memory budget is reached, then flushed as one term-sorted segment so each term is
+// written once per flush instead of once per document.
+public class InvertedBuffer {
+
+    // Rough per-object costs, only used to decide when to flush
+    private static final long POSTING_OVERHEAD_BYTES = 96;
+    private static final long TERM_OVERHEAD_BYTES = 80;
+
+    private final long memoryBudgetBytes;
+    private final Map<String, List<Posting>> postingsByTerm = new HashMap<>();
+    private final List<String> docIds = new ArrayList<>();
+    // The pageRef each document was tokenized from, null for text kept in Mongo
+    private final List<String> versions = new ArrayList<>();
+    private long estimatedBytes = 0;
+
+    public InvertedBuffer(long memoryBudgetBytes) {
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    // Documents with no tokens are still recorded so the flush marks them as indexed
+    public synchronized void add(String docId, Map<String, Token> tokens) {
+        add(docId, null, tokens);
+    }
+
+    public synchronized void add(String docId, String version, Map<String, Token> tokens) {
+        docIds.add(docId);
+        versions.add(version);
+        for (Map.Entry<String, Token> entry : tokens.entrySet()) {
+            Token token = entry.getValue();
+            if (token == null || token.size == 0) {
+                continue;
+            }
+            List<Posting> postings = postingsByTerm.get(entry.getKey());
+            if (postings == null) {
+                postings = new ArrayList<>();
+                postingsByTerm.put(entry.getKey(), postings);
+                estimatedBytes += TERM_OVERHEAD_BYTES + 2L * entry.getKey().length();
+            }
+            // Encoded and weighted here, on the tokenizing thread
+            Posting posting = new Posting(docId, token.count,
+                    PostingCodec.encode(token.positions, token.fields, token.size),
+                    PostingCodec.weightedTF(token.count, token.fields, token.size));
+            postings.add(posting);
+            estimatedBytes += POSTING_OVERHEAD_BYTES + posting.occurrences.length;
+        }
+    }
+
+    public synchronized boolean isFull() {
+        return estimatedBytes >= memoryBudgetBytes;
+    }
+
+    public synchronized boolean isEmpty() {
+        return docIds.isEmpty();
+    }
+
+    public synchronized int documentCount() {
+        return docIds.size();
+    }
+
+    public synchronized int termCount() {
+        return postingsByTerm.size();
+    }
+
+    // Hands the accumulated segment over, terms and each term's postings sorted by docId,
+    // and starts a new one
+    public synchronized InvertedSegment drain() {
+        TreeMap<String, List<Posting>> sorted = new TreeMap<>(postingsByTerm);
+        Comparator<Posting> byDocId = Comparator.comparing(p -> p.docId);
+        for (List<Posting> postings : sorted.values()) {
+            postings.sort(byDocId);
+        }
+        InvertedSegment segment = new InvertedSegment(sorted, new ArrayList<>(docIds), new ArrayList<>(versions));
+        postingsByTerm.clear();
+        docIds.clear();
+        versions.clear();
+        estimatedBytes = 0;
+        return segment;
+    }
+}
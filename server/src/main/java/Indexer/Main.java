@@ -1,9 +1,41 @@
 package Indexer;
 
+import db.DBManager;
+
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
         System.out.println("[INFO] Starting the Indexer...");
-        Indexer.index();
+        if (args.length > 0 && args[0].equals("--follow")) {
+            follow();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--rebuild")) {
+            System.out.println("[INFO] Dropping the inverted index and re-indexing every document");
+            Indexer.rebuild();
+        } else {
+            Indexer.index();
+        }
         System.out.println("[INFO] Indexing process completed.");
     }
+
+    // Runs until stopped, indexing each document seconds after the crawler stores it
+    private static void follow() throws InterruptedException {
+        DBManager db = new DBManager();
+        Thread main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            main.interrupt();
+            try {
+                main.join();
+            } catch (InterruptedException ignored) {
+            }
+        }));
+        try (StreamingIndexer indexer = new StreamingIndexer(db)) {
+            indexer.follow(db);
+        } catch (InterruptedException e) {
+            // Stopped; close() above has written what was buffered
+        } finally {
+            db.close();
+        }
+        System.out.println("[INFO] Stopped following the crawl.");
+    }
 }
@@ -0,0 +1,323 @@
+package Indexer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+
+import Indexer.Tokenizer.Token;
+import db.DBManager;
+import db.InvertedSegment;
+
+// Indexes documents as they are stored instead of in a later pass over isIndexed=false.
+// Documents come in through a bounded queue, put there by a crawler in the same process (add)
+// or by follow(), which tails the documents collection from a process of its own. Worker
+// threads tokenize them into one shared InvertedBuffer, and a segment is written once the
+// memory budget is reached or the oldest buffered document has waited FLUSH_MILLIS, so a page
+// is searchable seconds after it is stored. Whatever is not written when the process stops
+// is still isIndexed=false, and the next run picks it up.
+public class StreamingIndexer implements AutoCloseable {
+
+    private static final int FEED_CAPACITY = Integer.getInteger("indexer.feedCapacity", 10_000);
+    private static final long FLUSH_MILLIS = Long.getLong("indexer.streamFlushMs", 5000);
+    private static final int WORKERS = Integer.getInteger("indexer.streamWorkers",
+            Runtime.getRuntime().availableProcessors());
+    // Same setting as the batch indexer
+    private static final long MEMORY_BUDGET_BYTES = Long.getLong("indexer.memoryBudgetMb",
+            Runtime.getRuntime().maxMemory() / 4 / (1024 * 1024)) * 1024 * 1024;
+    private static final int SCAN_BATCH_SIZE = 500;
+    private static final Document STOP = new Document();
+
+    private final BlockingQueue<Document> feed;
+    private final InvertedBuffer buffer;
+    private final Consumer<InvertedSegment> segmentWriter;
+    // Fills in the text of a document whose page is in the PageStore
+    private final UnaryOperator<Document> withText;
+    private final long flushMillis;
+    // Handed over and not yet written, docId to the pageRef it was handed over with; the same
+    // version handed over again meanwhile is skipped
+    private final Map<String, String> pending = new ConcurrentHashMap<>();
+    // Newer revisions of pending documents, handed over again once the old one is written so a
+    // segment never holds two versions of a document
+    private final Map<String, Document> superseded = new ConcurrentHashMap<>();
+    // When the buffer last went from empty to holding something, 0 while it is empty
+    private final AtomicLong bufferedSince = new AtomicLong();
+    // Versions (see key) written while a scan for unindexed documents runs: the scan may have
+    // read one before it was marked indexed, and must not hand it over once it has left pending
+    private volatile Set<String> writtenDuringScan;
+    private final List<Thread> workers = new ArrayList<>();
+    private final ScheduledExecutorService flusher;
+
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong segments = new AtomicLong();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+
+    public StreamingIndexer(DBManager db) {
+        this(db::writeInvertedSegment, db::withText, MEMORY_BUDGET_BYTES, FLUSH_MILLIS, FEED_CAPACITY, WORKERS);
+    }
+
+    StreamingIndexer(Consumer<InvertedSegment> segmentWriter, UnaryOperator<Document> withText,
+            long memoryBudgetBytes, long flushMillis, int capacity, int workerCount) {
+        this.segmentWriter = segmentWriter;
+        this.withText = withText;
+        this.flushMillis = flushMillis;
+        this.feed = new ArrayBlockingQueue<>(capacity);
+        this.buffer = new InvertedBuffer(memoryBudgetBytes);
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::work, "stream-indexer-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "stream-indexer-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long tick = Math.max(50, Math.min(1000, flushMillis / 5));
+        flusher.scheduleWithFixedDelay(this::flushIfDue, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    // Waits while the queue is full, so indexing that falls behind slows down whoever stores
+    // the documents rather than piling them up in memory
+    public void add(Document doc) {
+        try {
+            feed.put(doc);
+        } catch (InterruptedException e) {
+            // Left isIndexed=false for the next run
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Tails the documents collection until interrupted: first everything already waiting,
+    // then each document as it is inserted or rewritten, read from the change stream, which
+    // resumes where the last run stopped. Without a replica set there is no change stream
+    // and the collection is polled every flushMillis instead.
+    public void follow(DBManager db) throws InterruptedException {
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> stream;
+        try {
+            stream = watch(db);
+        } catch (MongoException e) {
+            System.out.println("[WARNING] No change stream (" + e.getMessage() + "), polling every "
+                    + flushMillis + "ms instead");
+            while (!Thread.currentThread().isInterrupted()) {
+                scan(db, null);
+                Thread.sleep(flushMillis);
+            }
+            return;
+        }
+        try (stream) {
+            // The stream was opened first, so documents stored during the scan show up in both;
+            // once it is past the scan, the scanned ids are no longer needed
+            Set<String> scanned = new HashSet<>();
+            scan(db, scanned);
+            long scanEndSeconds = System.currentTimeMillis() / 1000 + 1;
+            System.out.println("[INFO] Caught up on " + scanned.size() + " unindexed documents, following changes");
+            long savedAt = System.currentTimeMillis();
+            while (!Thread.currentThread().isInterrupted()) {
+                ChangeStreamDocument<Document> event = stream.tryNext();
+                Document doc = event == null ? null : event.getFullDocument();
+                if (doc != null) {
+                    if (scanned != null && event.getClusterTime() != null
+                            && event.getClusterTime().getTime() > scanEndSeconds) {
+                        scanned = null;
+                    }
+                    boolean seen = scanned != null && scanned.contains(doc.getObjectId("_id").toString());
+                    if (!seen && !doc.getBoolean("isIndexed", false)) {
+                        feed.put(doc);
+                    }
+                }
+                // Only saves time on a restart, which scans for unindexed documents anyway
+                if (System.currentTimeMillis() - savedAt >= flushMillis && stream.getResumeToken() != null) {
+                    db.saveResumeToken(stream.getResumeToken());
+                    savedAt = System.currentTimeMillis();
+                }
+            }
+        }
+    }
+
+    // A resume token from too long ago is no longer in the oplog; start from now then
+    private static MongoChangeStreamCursor<ChangeStreamDocument<Document>> watch(DBManager db) {
+        BsonDocument resumeToken = db.loadResumeToken();
+        if (resumeToken != null) {
+            try {
+                return db.watchUnIndexedDocs(resumeToken);
+            } catch (MongoException e) {
+                System.out.println("[WARNING] Cannot resume the change stream: " + e.getMessage());
+            }
+        }
+        return db.watchUnIndexedDocs(null);
+    }
+
+    private void scan(DBManager db, Set<String> scanned) throws InterruptedException {
+        Set<String> written = ConcurrentHashMap.newKeySet();
+        writtenDuringScan = written;
+        try (MongoCursor<Document> cursor = db.streamUnIndexedDocs(SCAN_BATCH_SIZE)) {
+            while (cursor.hasNext()) {
+                Document doc = cursor.next();
+                String docId = doc.getObjectId("_id").toString();
+                if (scanned != null) {
+                    scanned.add(docId);
+                }
+                String version = versionOf(doc);
+                // In that order: a flush adds to written before it removes from pending
+                if (!version.equals(pending.get(docId)) && !written.contains(key(docId, version))) {
+                    feed.put(doc);
+                }
+            }
+        } finally {
+            writtenDuringScan = null;
+        }
+    }
+
+    private void work() {
+        Tokenizer tokenizer = new Tokenizer();
+        while (true) {
+            Document doc;
+            try {
+                doc = feed.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (doc == STOP) {
+                return;
+            }
+            String docId = doc.getObjectId("_id").toString();
+            String version = versionOf(doc);
+            String held = pending.putIfAbsent(docId, version);
+            if (held != null) {
+                if (held.equals(version)) {
+                    duplicates.incrementAndGet();
+                } else {
+                    superseded.put(docId, doc);
+                    // The old version was written in the meantime, nobody else will pick it up
+                    if (!pending.containsKey(docId)) {
+                        requeueSuperseded(docId);
+                    }
+                }
+                continue;
+            }
+            try {
+                doc = withText.apply(doc);
+                String body = doc.getString("body");
+                Map<String, Token> tokens = body == null || body.isBlank() ? Map.of() : tokenizer.tokenizeDoc(doc);
+                buffer.add(docId, doc.getString("pageRef"), tokens);
+                bufferedSince.compareAndSet(0, System.currentTimeMillis());
+                indexed.incrementAndGet();
+            } catch (Exception e) {
+                pending.remove(docId);
+                requeueSuperseded(docId);
+                System.err.println("[ERROR] Error indexing document " + docId + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void flushIfDue() {
+        long since = bufferedSince.get();
+        if (buffer.isFull() || since != 0 && System.currentTimeMillis() - since >= flushMillis) {
+            flush();
+        }
+    }
+
+    private synchronized void flush() {
+        // Reset first: a document added during the drain sets it again, whichever segment it
+        // ends up in
+        long since = bufferedSince.getAndSet(0);
+        if (buffer.isEmpty()) {
+            return;
+        }
+        InvertedSegment segment = buffer.drain();
+        try {
+            segmentWriter.accept(segment);
+            segments.incrementAndGet();
+            if (since != 0) {
+                maxWaitMillis.accumulateAndGet(System.currentTimeMillis() - since, Math::max);
+            }
+        } catch (Exception e) {
+            System.err.println("[ERROR] Writing a segment of " + segment.docIds.size()
+                    + " documents failed, they stay unindexed: " + e.getMessage());
+        }
+        Set<String> written = writtenDuringScan;
+        if (written != null) {
+            for (int i = 0; i < segment.docIds.size(); i++) {
+                written.add(key(segment.docIds.get(i), segment.versions.get(i)));
+            }
+        }
+        for (String docId : segment.docIds) {
+            pending.remove(docId);
+            requeueSuperseded(docId);
+        }
+    }
+
+    // Never waits, flush runs on the threads that drain the feed too; a revision that does not
+    // fit stays unindexed for the next scan
+    private void requeueSuperseded(String docId) {
+        Document newer = superseded.remove(docId);
+        if (newer != null && !feed.offer(newer)) {
+            System.out.println("[WARNING] Feed full, document " + docId + " is left for the next scan");
+        }
+    }
+
+    // The version of a document is its pageRef, "" for text kept in Mongo
+    private static String versionOf(Document doc) {
+        String ref = doc.getString("pageRef");
+        return ref == null ? "" : ref;
+    }
+
+    private static String key(String docId, String version) {
+        return docId + '@' + (version == null ? "" : version);
+    }
+
+    public String metrics() {
+        return "index queued=" + feed.size() + " pending=" + pending.size() + " indexed=" + indexed.get()
+                + " duplicates=" + duplicates.get() + " segments=" + segments.get()
+                + " maxWaitMs=" + maxWaitMillis.get();
+    }
+
+    // Indexes everything handed over so far and writes the last segment. Usually called because
+    // the thread was interrupted to stop, so the flag is set aside until that is done, or the
+    // first put would throw and leave the workers running and the buffer unwritten.
+    @Override
+    public void close() {
+        boolean interrupted = Thread.interrupted();
+        try {
+            for (int i = 0; i < workers.size(); i++) {
+                feed.put(STOP);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            flusher.shutdown();
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+            flush();
+            System.out.println("[INFO] " + metrics());
+        } catch (InterruptedException e) {
+            // Interrupted again while closing; what was not flushed is indexed on the next run
+            interrupted = true;
+            System.out.println("[WARNING] Interrupted while closing, " + buffer.documentCount()
+                    + " buffered documents were not written");
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
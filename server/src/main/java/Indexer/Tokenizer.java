@@ -1,74 +1,72 @@
 package Indexer;
 
 import processor.Stemmer;
+import processor.TermScanner;
+import db.PostingCodec;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Pattern;
 import org.bson.Document;
 
+// Not thread-safe: every worker thread needs a Tokenizer of its own, which lets the scan
+// buffer, the body slots and the term cache be reused from one document to the next. Pool
+// threads get theirs from forCurrentThread().
 public class Tokenizer {
 
    public static class Token {
        public String word;
        public double count;
-       public List<Integer> positions;
-       public List<String> tags;
+       // positions[0, size) ascending, fields[i] is the PostingCodec field of positions[i]
+       public int[] positions;
+       public byte[] fields;
+       public int size;
 
        public Token(String word) {
            this.word = word;
            this.count = 1;
-           this.positions = new ArrayList<>();
-           this.tags = new ArrayList<>();
+           this.positions = new int[4];
+           this.fields = new byte[4];
        }
 
        public void increment() {
            this.count++;
        }
 
-       public void addPosition(int pos) {
-           this.positions.add(pos);
+       public void addOccurrence(int pos, byte field) {
+           if (size == positions.length) {
+               positions = Arrays.copyOf(positions, size * 2);
+               fields = Arrays.copyOf(fields, size * 2);
+           }
+           positions[size] = pos;
+           fields[size++] = field;
        }
    }
 
-   private Set<String> stopWords;
-   private static final Pattern NON_ALPHA_NUMERIC = Pattern.compile("[^a-z0-9]");
-   private static final Pattern WHITESPACE = Pattern.compile("\\s+");
-   private static final Pattern DIGITS_ONLY = Pattern.compile("\\d+");
-   private final Map<String, String> stemCache = new ConcurrentHashMap<>(10000);
-
-   private String processHeadingText(String text) {
-       StringBuilder result = new StringBuilder();
-       String[] words = WHITESPACE.split(NON_ALPHA_NUMERIC.matcher(text.toLowerCase()).replaceAll(" "));
-
-       for (String word : words) {
-           if (word.length() <= 1 || DIGITS_ONLY.matcher(word).matches() || stopWords.contains(word)) {
-               continue;
-           }
+   private static final String[] HEADING_LISTS = {"h1s", "h2s", "h3s", "h456s"};
+   private static final byte[] HEADING_FIELDS = {
+           PostingCodec.FIELD_H1, PostingCodec.FIELD_H2, PostingCodec.FIELD_H3, PostingCodec.FIELD_H456
+   };
 
-           try {
-               String stemmedWord = Stemmer.stem(word);
-               if (!stemmedWord.isBlank()) {
-                   if (result.length() > 0) {
-                       result.append(" ");
-                   }
-                   result.append(stemmedWord);
-               }
-           } catch (Exception e) {
-               System.err.println("Error stemming word: " + word + " - " + e.getMessage());
-           }
-       }
+   private Set<String> stopWords;
+   private final TermScanner scanner = new TermScanner();
+   private final TermCache termCache = new TermCache();
+   // Body terms by word position, null where the word was dropped
+   private String[] slots = new String[1024];
 
-       return result.toString();
-   }
+   private static final ThreadLocal<Tokenizer> PER_THREAD = ThreadLocal.withInitial(Tokenizer::new);
 
    public Tokenizer() {
        stopWords = new HashSet<>();
        loadStopWords("./src/main/java/data/stopwords.txt");
    }
 
+   // The calling thread's own Tokenizer, for tasks run on a thread pool, where any task may land
+   // on any thread
+   public static Tokenizer forCurrentThread() {
+       return PER_THREAD.get();
+   }
+
    private void loadStopWords(String filePath) {
        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
            String line;
@@ -80,6 +78,10 @@ public class Tokenizer {
        }
    }
 
+   // Title, headings and body are tokenized as one positional stream: the title comes first,
+   // followed by a one position gap so phrases never span the boundary, then the body. The
+   // crawler stores heading text both in the heading lists and in the body, so each heading is
+   // located in the body term stream and its positions carry the heading's field.
    public HashMap<String, Token> tokenizeDoc(Document doc) {
        String text = doc.getString("body");
        if (text == null || text.isBlank()) {
@@ -87,109 +89,188 @@ public class Tokenizer {
        }
 
        HashMap<String, Token> tokenMap = new HashMap<>();
-       String[] words = WHITESPACE.split(NON_ALPHA_NUMERIC.matcher(text.toLowerCase()).replaceAll(" "));
-
-       for (int i = 0; i < words.length; i++) {
-           String word = words[i];
+       int offset = 0;
+       String title = doc.getString("title");
+       if (title != null && !title.isBlank()) {
+           offset = scanner.scan(title, (buffer, length, position) ->
+                   addOccurrence(tokenMap, term(buffer, length), position, PostingCodec.FIELD_TITLE)) + 1;
+       }
 
-           if (word.length() <= 1 || DIGITS_ONLY.matcher(word).matches() || stopWords.contains(word)) {
-               continue;
+       int words = scanner.scan(text, (buffer, length, position) -> {
+           if (position == slots.length) {
+               slots = Arrays.copyOf(slots, position * 2);
            }
-           String stemmedWord = stemCache.computeIfAbsent(word, w -> {
-               try {
-                   return Stemmer.stem(w);
-               } catch (Exception e) {
-                   return "";
-               }
-           });
-
-            if (stemmedWord.isEmpty()) continue;
-
-            Token token = tokenMap.computeIfAbsent(stemmedWord, k -> new Token(k));
-            token.increment();
-            token.addPosition(i);
+           slots[position] = term(buffer, length);
+       });
+       byte[] bodyFields = tagHeadings(doc, words);
+       for (int i = 0; i < words; i++) {
+           addOccurrence(tokenMap, slots[i], offset + i, bodyFields[i]);
        }
+       Arrays.fill(slots, 0, words, null);
 
        int totalTerms = tokenMap.values().stream().mapToInt(t -> (int)t.count).sum();
        if (totalTerms > 0) {
            tokenMap.forEach((key, token) -> token.count = token.count / totalTerms);
        }
 
-       fillTags(doc, tokenMap);
        return tokenMap;
    }
 
-   private int countWordOccurrences(String text, String word) {
-       int count = 0;
-       int wordLength = word.length();
-       int pos = 0;
+   private void addOccurrence(HashMap<String, Token> tokenMap, String term, int position, byte field) {
+       if (term == null) return;
+       Token token = tokenMap.computeIfAbsent(term, k -> new Token(k));
+       token.increment();
+       token.addOccurrence(position, field);
+   }
 
-       while ((pos = text.indexOf(word, pos)) >= 0) {
-           count++;
-           pos += wordLength;
+   // The indexed term for a scanned word, or null when the word is dropped (single characters,
+   // numbers, stop words). Only a word the cache has not seen yet allocates.
+   private String term(char[] buffer, int length) {
+       String term = termCache.get(buffer, length);
+       if (term == null) {
+           term = resolve(new String(buffer, 0, length));
+           termCache.put(buffer, length, term);
        }
+       return term.isEmpty() ? null : term;
+   }
 
-       return count;
+   private String resolve(String word) {
+       if (word.length() <= 1 || word.chars().allMatch(Character::isDigit) || stopWords.contains(word)) {
+           return "";
+       }
+       try {
+           return Stemmer.stem(word);
+       } catch (Exception e) {
+           return "";
+       }
    }
 
-   public void fillTags(Document doc, HashMap<String, Token> tokenMap) {
-       for (Token token : tokenMap.values()) {
-           token.tags = new ArrayList<>(token.positions.size());
-           for (int i = 0; i < token.positions.size(); i++) {
-               token.tags.add("body");
+   // Field of every body slot. Headings are indexed by their first term, and while walking the
+   // body once, a heading whose terms continue at the current slot claims those slots. Each
+   // heading is claimed at most once and higher levels are tried first.
+   private byte[] tagHeadings(Document doc, int words) {
+       byte[] fields = new byte[words];
+
+       Map<String, List<Heading>> headingsByFirstTerm = new HashMap<>();
+       for (int level = 0; level < HEADING_LISTS.length; level++) {
+           List<String> headings = doc.getList(HEADING_LISTS[level], String.class);
+           if (headings == null) continue;
+           for (String heading : headings) {
+               if (heading == null || heading.isBlank()) continue;
+               List<String> headingTerms = new ArrayList<>();
+               scanner.scan(heading, (buffer, length, position) -> {
+                   String term = term(buffer, length);
+                   if (term != null) headingTerms.add(term);
+               });
+               if (headingTerms.isEmpty()) continue;
+               headingsByFirstTerm.computeIfAbsent(headingTerms.get(0), k -> new ArrayList<>())
+                       .add(new Heading(headingTerms.toArray(new String[0]), HEADING_FIELDS[level]));
            }
        }
+       if (headingsByFirstTerm.isEmpty()) return fields;
+
+       for (int i = 0; i < words; i++) {
+           if (slots[i] == null || fields[i] != PostingCodec.FIELD_BODY) continue;
+           List<Heading> candidates = headingsByFirstTerm.get(slots[i]);
+           if (candidates == null) continue;
+           for (Iterator<Heading> it = candidates.iterator(); it.hasNext(); ) {
+               Heading heading = it.next();
+               int end = heading.matchEnd(slots, i, words);
+               if (end < 0) continue;
+               for (int j = i; j < end; j++) {
+                   if (slots[j] != null) fields[j] = heading.field;
+               }
+               it.remove();
+               i = end - 1;
+               break;
+           }
+       }
+       return fields;
+   }
 
-       processTagsForField(doc, "title", "title", tokenMap);
+   private static class Heading {
+       final String[] terms;
+       final byte field;
 
-       List<String> h1s = doc.getList("h1s", String.class);
-       if (h1s != null) {
-           for (String h1 : h1s) {
-               processTagsForField(doc, h1, "h1", tokenMap);
+       Heading(String[] terms, byte field) {
+           this.terms = terms;
+           this.field = field;
+       }
+
+       // Slot after the last matched term, or -1. Dropped slots between terms are skipped.
+       int matchEnd(String[] bodyTerms, int from, int words) {
+           int t = 0;
+           int i = from;
+           while (t < terms.length) {
+               if (i >= words) return -1;
+               if (bodyTerms[i] != null) {
+                   if (!bodyTerms[i].equals(terms[t])) return -1;
+                   t++;
+               }
+               i++;
            }
+           return i;
        }
+   }
 
-       List<String> h2s = doc.getList("h2s", String.class);
-       if (h2s != null) {
-           for (String h2 : h2s) {
-               processTagsForField(doc, h2, "h2", tokenMap);
+   // Scanned word -> resolved term ("" when dropped), probed straight from the scan buffer so
+   // words seen before need no String. Open addressing with linear probing; cleared once it
+   // reaches MAX_SIZE so a long crawl cannot grow it without bound.
+   private static final class TermCache {
+       private static final int MAX_SIZE = 1 << 18;
+
+       private char[][] keys = new char[1 << 12][];
+       private String[] terms = new String[1 << 12];
+       private int size;
+
+       String get(char[] buffer, int length) {
+           int mask = keys.length - 1;
+           for (int slot = hash(buffer, length) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+               if (Arrays.equals(keys[slot], 0, keys[slot].length, buffer, 0, length)) {
+                   return terms[slot];
+               }
            }
+           return null;
        }
 
-       List<String> h3s = doc.getList("h3s", String.class);
-       if (h3s != null) {
-           for (String h3 : h3s) {
-               processTagsForField(doc, h3, "h3", tokenMap);
+       void put(char[] buffer, int length, String term) {
+           if (size >= MAX_SIZE) {
+               Arrays.fill(keys, null);
+               Arrays.fill(terms, null);
+               size = 0;
+           } else if (2 * (size + 1) > keys.length) {
+               resize();
            }
+           insert(Arrays.copyOf(buffer, length), term);
+           size++;
        }
 
-       List<String> h456s = doc.getList("h456s", String.class);
-       if (h456s != null) {
-           for (String h456 : h456s) {
-               processTagsForField(doc, h456, "h456", tokenMap);
+       private void insert(char[] key, String term) {
+           int mask = keys.length - 1;
+           int slot = hash(key, key.length) & mask;
+           while (keys[slot] != null) {
+               slot = (slot + 1) & mask;
            }
+           keys[slot] = key;
+           terms[slot] = term;
        }
-   }
 
-   private void processTagsForField(Document doc, String text, String tagName, HashMap<String, Token> tokenMap) {
-       if (text == null || text.isEmpty()) return;
-
-       String processedText = processHeadingText(text);
-       for (Map.Entry<String, Token> entry : tokenMap.entrySet()) {
-           String token = entry.getKey();
-           int count = countWordOccurrences(processedText, token);
-           if (count > 0) {
-               Token t = entry.getValue();
-               int replaced = 0;
-               for (int i = 0; i < t.tags.size() && replaced < count; i++) {
-                   if ("body".equals(t.tags.get(i))) {
-                       t.tags.set(i, tagName);
-                       replaced++;
-                   }
-               }
+       private void resize() {
+           char[][] oldKeys = keys;
+           String[] oldTerms = terms;
+           keys = new char[oldKeys.length * 2][];
+           terms = new String[oldKeys.length * 2];
+           for (int i = 0; i < oldKeys.length; i++) {
+               if (oldKeys[i] != null) insert(oldKeys[i], oldTerms[i]);
+           }
+       }
+
+       private static int hash(char[] buffer, int length) {
+           int h = 0;
+           for (int i = 0; i < length; i++) {
+               h = 31 * h + buffer[i];
            }
+           return h ^ (h >>> 16);
        }
    }
 }
-
-
@@ -7,11 +7,13 @@ import org.springframework.web.bind.annotation.RestController;
 import processor.QueryProcessor;
 import db.DBManager;
 import processor.QueryResult;
+import ranker.PageRankStore;
 import ranker.RankedDocument;
+import ranker.RankedPage;
+import ranker.Ranker;
 
 import java.util.List;
-
-import static ranker.Ranker.RankerMain;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @CrossOrigin(origins = "http://localhost:5173")
@@ -41,11 +43,18 @@ public class SearchController {
     }
 
 
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final long PAGE_RANK_REFRESH_SECONDS = 60;
+
     private final QueryProcessor queryProcessor;
     private final DBManager dbManager=new DBManager();
+    private final PageRankStore pageRanks = new PageRankStore();
+    private final Ranker ranker = new Ranker(dbManager, pageRanks);
 
     public SearchController() {
         this.queryProcessor = new QueryProcessor(dbManager);
+        // Loaded once in the background, then only reloaded when a new PageRank run is published
+        pageRanks.startRefreshing(dbManager, PAGE_RANK_REFRESH_SECONDS, TimeUnit.SECONDS);
     }
 
     @GetMapping("/search")
@@ -53,21 +62,25 @@ public class SearchController {
                               @RequestParam(defaultValue = "0") int page,
                               @RequestParam(defaultValue = "10") int size) {
 
+         page = Math.max(page, 0);
+         size = Math.min(Math.max(size, 1), MAX_PAGE_SIZE);
+
          long start1 = System.currentTimeMillis();
          QueryResult queryresult = queryProcessor.processQuery(query, page, size);
-        System.out.println("query result " + queryresult.getDocIds());
+        System.out.println("query result " + queryresult.getTotalCount() + " candidates");
          long duration1 = System.currentTimeMillis() - start1;
          System.out.println("Query processing time: " + duration1 + " ms");
         System.out.println("query time" + queryresult.getTime());
 
 
          long start2 = System.currentTimeMillis();
-         List<RankedDocument> results =  RankerMain(queryresult,dbManager);
+         RankedPage ranked = ranker.rank(queryresult, page, size);
          long duration2 = System.currentTimeMillis() - start2;
 
          System.out.println("Ranking time: " + duration2 + " ms");
 
-        return new SearchResult(results, queryresult.getTotalCount(), duration1 + duration2);
+        // Counted by the ranker, candidates it cannot score are not results
+        return new SearchResult(ranked.getResults(), ranked.getTotalCount(), duration1 + duration2);
     }
 
 }
\ No newline at end of file
@@ -1,37 +1,51 @@
 package db;
 
 import com.mongodb.client.*;
+import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
 import com.mongodb.client.model.Updates;
-import com.mongodb.client.model.WriteModel;
-
-import Indexer.Tokenizer.Token;
 
-import com.mongodb.client.model.UpdateOneModel;
-import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
 
+import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.springframework.stereotype.Component;
 import com.mongodb.ConnectionString;
 import com.mongodb.MongoClientSettings;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Component
-public class DBManager {
+public class DBManager implements DocumentLookup {
     private final MongoClient mongoClient;
     private final MongoCollection<Document> docCollection;
-    private final MongoCollection<Document> indexCollection;
+    private final MongoCollection<Document> blockCollection;
     private final MongoDatabase database;
 
     // Optimized bulk write batch size for balance of performance and memory usage
     private static final int BULK_WRITE_BATCH_SIZE = 500;
 
+    // Postings per inverted_blocks document, keeps every block far below the 16 MB BSON limit
+    static final int POSTING_BLOCK_SIZE = 128;
+
     // Connection pool sized for optimal throughput
     private static final int MAX_CONNECTIONS = 100;
 
@@ -54,7 +68,7 @@ public class DBManager {
         this.database = mongoClient.getDatabase("searchengine");
 
         this.docCollection = database.getCollection("Crawled_Documents");
-        this.indexCollection = database.getCollection("inverted_index");
+        this.blockCollection = database.getCollection("inverted_blocks");
 
         // Create indexes if they don't exist (only needed once)
         createIndexes();
@@ -77,17 +91,31 @@ public class DBManager {
                 System.out.println("[INFO] Created index on isIndexed field");
             }
 
-            boolean hasTermIndex = false;
-            for (Document index : indexCollection.listIndexes()) {
-                if (index.get("name", "").toString().contains("term_1")) {
-                    hasTermIndex = true;
+            boolean hasBlockIndex = false;
+            for (Document index : blockCollection.listIndexes()) {
+                if (index.get("name", "").toString().contains("term_1_minDoc_1")) {
+                    hasBlockIndex = true;
                     break;
                 }
             }
 
-            if (!hasTermIndex) {
-                indexCollection.createIndex(Indexes.ascending("term"));
-                System.out.println("[INFO] Created index on term field in inverted index");
+            if (!hasBlockIndex) {
+                blockCollection.createIndex(Indexes.ascending("term", "minDoc"));
+                System.out.println("[INFO] Created index on term and minDoc in inverted blocks");
+            }
+
+            boolean hasPostingDocIndex = false;
+            for (Document index : blockCollection.listIndexes()) {
+                if (index.get("name", "").toString().contains("postings.doc_1")) {
+                    hasPostingDocIndex = true;
+                    break;
+                }
+            }
+
+            // Multikey, for finding the blocks that hold a revisited document's old postings
+            if (!hasPostingDocIndex) {
+                blockCollection.createIndex(Indexes.ascending("postings.doc"));
+                System.out.println("[INFO] Created index on postings.doc in inverted blocks");
             }
         } catch (Exception e) {
             System.err.println("[ERROR] Error creating indexes: " + e.getMessage());
@@ -128,6 +156,13 @@ public class DBManager {
     }
 
     public Map<String, Document> getDocumentsByIds(List<String> docIds) {
+        return getDocumentsByIds(docIds, true);
+    }
+
+    // Ranking only needs url and title for every candidate; paragraphs are fetched
+    // later for the handful of documents on the requested page
+    @Override
+    public Map<String, Document> getDocumentsByIds(List<String> docIds, boolean withParagraphs) {
         if (docIds == null || docIds.isEmpty()) {
             return new HashMap<>();
         }
@@ -154,8 +189,10 @@ public class DBManager {
         // Define projection to fetch only necessary fields
         Document projection = new Document("_id", 1)
                 .append("url", 1)
-                .append("title", 1)
-                .append("ps", 1);
+                .append("title", 1);
+        if (withParagraphs) {
+            projection.append("ps", 1).append("pageRef", 1);
+        }
 
         // Query using $in to fetch all documents in one batch
         FindIterable<Document> results = docCollection.find(Filters.in("_id", objectIds))
@@ -166,6 +203,14 @@ public class DBManager {
         Map<String, Document> docMap = new HashMap<>();
         for (Document doc : results) {
             String docId = doc.getObjectId("_id").toString();
+            if (withParagraphs) {
+                try {
+                    withText(doc);
+                } catch (UncheckedIOException e) {
+                    // Still a result, with no snippet
+                    System.err.println("[ERROR] " + e.getMessage());
+                }
+            }
             docMap.put(docId, doc);
         }
 
@@ -184,7 +229,8 @@ public class DBManager {
                                 .append("h1s", 1)
                                 .append("h2s", 1)
                                 .append("h3s", 1)
-                                .append("h456s", 1);
+                                .append("h456s", 1)
+                                .append("pageRef", 1);
 
         // Use a batch size to limit the number of documents fetched at once
         int batchSize = Math.min(50, limit);
@@ -211,94 +257,192 @@ public class DBManager {
         return docs;
     }
 
-    public void insertInverted(String docId, HashMap<String, Token> tokens) {
-        System.out.println("[DEBUG] insertInverted called for docId: " + docId + " with " + tokens.size() + " tokens.");
-        if (tokens.isEmpty()) {
-            System.out.println("[DEBUG] No tokens to insert for docId: " + docId);
-            markDocumentAsIndexed(docId);
-            return;
-        }
+    // Single cursor over every unindexed document, so the indexer can keep documents in its
+    // in-memory segment until the next flush without the same ones being fetched again.
+    // Documents in the PageStore come without their text, withText reads it.
+    public MongoCursor<Document> streamUnIndexedDocs(int batchSize) {
+        Document projection = new Document("_id", 1)
+                                .append("title", 1)
+                                .append("body", 1)
+                                .append("h1s", 1)
+                                .append("h2s", 1)
+                                .append("h3s", 1)
+                                .append("h456s", 1)
+                                .append("reindex", 1)
+                                .append("pageRef", 1);
+
+        return docCollection.find(Filters.eq("isIndexed", false))
+                            .projection(projection)
+                            .batchSize(batchSize)
+                            .noCursorTimeout(true)
+                            .hint(Indexes.ascending("isIndexed"))
+                            .iterator();
+    }
 
+    // What the tokenizer needs besides the text, for documents a PageStore scan came across
+    public Map<ObjectId, Document> getIndexFields(List<ObjectId> ids) {
+        Document projection = new Document("_id", 1)
+                                .append("title", 1)
+                                .append("h1s", 1)
+                                .append("h2s", 1)
+                                .append("h3s", 1)
+                                .append("h456s", 1)
+                                .append("reindex", 1);
+        Map<ObjectId, Document> fields = new HashMap<>();
+        for (Document doc : docCollection.find(Filters.in("_id", ids)).projection(projection)) {
+            fields.put(doc.getObjectId("_id"), doc);
+        }
+        return fields;
+    }
 
-        Document doc = null;
-        String docTitle = null;
+    // Fills in body and ps from the PageStore for a document stored with a pageRef; documents
+    // crawled before the store still carry them in Mongo and are returned as they are. Throws
+    // when the page cannot be read, so an indexer leaves the document for its next run rather
+    // than indexing it without text.
+    public Document withText(Document doc) {
+        String ref = doc.getString("pageRef");
+        if (ref == null || doc.containsKey("body")) {
+            return doc;
+        }
         try {
-            doc = docCollection.find(Filters.eq("_id", new ObjectId(docId)))
-                               .projection(new Document("title", 1))
-                               .first();
-            docTitle = doc != null ? doc.getString("title") : "Unknown Title";
-        } finally {
-            // Clear reference to help garbage collection
-            doc = null;
+            PageStore.Page page = PageStore.shared().read(ref);
+            return doc.append("body", page.body).append("ps", page.ps);
+        } catch (IOException | RuntimeException e) {
+            throw new UncheckedIOException(new IOException("Reading page " + ref + " failed: " + e.getMessage(), e));
         }
+    }
 
-        List<WriteModel<Document>> updates = new ArrayList<>(BULK_WRITE_BATCH_SIZE);
-        int batchCounter = 0;
+    // Change stream of documents that need indexing: new ones, and ones a revisit rewrote with
+    // isIndexed=false or flagged for reindexing. Needs a replica set; resumeToken may be null.
+    public MongoChangeStreamCursor<ChangeStreamDocument<Document>> watchUnIndexedDocs(BsonDocument resumeToken) {
+        Bson stored = Filters.and(Filters.in("operationType", "insert", "replace"),
+                                  Filters.eq("fullDocument.isIndexed", false));
+        Bson rewritten = Filters.and(Filters.eq("operationType", "update"),
+                                     Filters.or(Filters.eq("updateDescription.updatedFields.isIndexed", false),
+                                                Filters.eq("updateDescription.updatedFields.reindex", true)));
+        ChangeStreamIterable<Document> stream = docCollection
+                .watch(List.of(Aggregates.match(Filters.or(stored, rewritten))))
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .maxAwaitTime(1, TimeUnit.SECONDS);
+        if (resumeToken != null) {
+            stream = stream.resumeAfter(resumeToken);
+        }
+        return stream.cursor();
+    }
 
+    public BsonDocument loadResumeToken() {
+        BsonDocument state = database.getCollection("indexerState", BsonDocument.class)
+                                     .find(Filters.eq("_id", "changeStream")).first();
+        return state != null && state.isDocument("resumeToken") ? state.getDocument("resumeToken") : null;
+    }
 
-        List<String> termKeys = new ArrayList<>(tokens.keySet());
+    public void saveResumeToken(BsonDocument resumeToken) {
+        database.getCollection("indexerState").replaceOne(Filters.eq("_id", "changeStream"),
+                new Document("_id", "changeStream").append("resumeToken", resumeToken),
+                new ReplaceOptions().upsert(true));
+    }
 
-        for (String term : termKeys) {
-            Token token = tokens.get(term);
-            if (token == null || token.positions.isEmpty()) {
-                // Remove the entry from the map immediately to free memory
-                tokens.remove(term);
-                continue;
+    // Writes one flushed segment. Each term's docId-sorted postings are cut into fixed-size
+    // blocks that carry their docId range and best per-posting score, so frequent terms never
+    // grow a single huge document and readers can skip blocks by range. Whatever postings the
+    // segment's documents already have go first: those of an older version, or of this very
+    // segment when a crash came between writing its blocks and marking its documents indexed,
+    // so writing a segment again never leaves a document with two sets of postings.
+    public void writeInvertedSegment(InvertedSegment segment) {
+        removePostings(segment.docIds);
+        List<Document> blocks = new ArrayList<>(BULK_WRITE_BATCH_SIZE);
+        Date now = new Date();
+        int blockCount = 0;
+
+        for (Map.Entry<String, List<InvertedSegment.Posting>> entry : segment.postingsByTerm.entrySet()) {
+            String term = entry.getKey();
+            List<InvertedSegment.Posting> postings = entry.getValue();
+
+            for (Document block : toBlocks(term, postings, now)) {
+                blocks.add(block);
+                blockCount++;
+
+                if (blocks.size() >= BULK_WRITE_BATCH_SIZE) {
+                    blockCollection.insertMany(blocks, new InsertManyOptions().ordered(false));
+                    blocks.clear();
+                }
             }
+        }
 
-            Document docPosting = new Document("tf", token.count)
-                    .append("positions", token.positions)
-                    .append("tags", token.tags)
-                    .append("title", docTitle);
-
-            Document setFields = new Document("updated_at", new Date())
-                    .append("postings." + docId, docPosting);
-
-            UpdateOneModel<Document> updateModel = new UpdateOneModel<>(
-                    Filters.eq("term", term),
-                    new Document()
-                            .append("$setOnInsert", new Document("term", term))
-                            .append("$set", setFields),
-                    new UpdateOptions().upsert(true)
-            );
-
-            updates.add(updateModel);
-
-            // Remove processed entry immediately to free memory
-            tokens.remove(term);
-
-            // Execute batch if we've reached the batch size threshold
-            batchCounter++;
-            if (batchCounter >= BULK_WRITE_BATCH_SIZE || isMemoryUsageHigh()) {
-                indexCollection.bulkWrite(updates);
-                System.out.println("[DEBUG] Executed bulk write batch of " + updates.size() + " operations");
+        if (!blocks.isEmpty()) {
+            blockCollection.insertMany(blocks, new InsertManyOptions().ordered(false));
+        }
 
-                updates.clear();
-                batchCounter = 0;
-                System.gc();
+        markDocumentsAsIndexed(segment.docIds, segment.versions);
+        System.out.println("[DEBUG] Flushed segment: " + segment.postingsByTerm.size() + " terms in " + blockCount
+                + " blocks for " + segment.docIds.size() + " documents");
+    }
 
-                // Add small pause to allow GC to work
-                try {
-                    Thread.sleep(50);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
+    // One term's docId-sorted postings as blocks of POSTING_BLOCK_SIZE. maxScore is the largest
+    // field-weighted tf in the block; Ranker.calculateRelevance multiplies that by the term's
+    // idf factor, so maxScore times the idf bounds what any posting in the block adds to a
+    // document's score before PageRank is applied
+    static List<Document> toBlocks(String term, List<InvertedSegment.Posting> postings, Date now) {
+        List<Document> blocks = new ArrayList<>((postings.size() + POSTING_BLOCK_SIZE - 1) / POSTING_BLOCK_SIZE);
+        for (int from = 0; from < postings.size(); from += POSTING_BLOCK_SIZE) {
+            List<InvertedSegment.Posting> chunk = postings.subList(from, Math.min(from + POSTING_BLOCK_SIZE, postings.size()));
+            List<Document> encoded = new ArrayList<>(chunk.size());
+            double maxScore = 0.0;
+            for (InvertedSegment.Posting posting : chunk) {
+                encoded.add(new Document("doc", posting.docId)
+                        .append("tf", posting.tf)
+                        .append("occ", posting.occurrences));
+                maxScore = Math.max(maxScore, posting.score);
             }
-        }
 
-        // Execute any remaining updates
-        if (!updates.isEmpty()) {
-            indexCollection.bulkWrite(updates);
-            System.out.println("[DEBUG] Tokens successfully inserted into inverted_index. Final batch size: " + updates.size());
-            updates.clear();
+            blocks.add(new Document("term", term)
+                    .append("minDoc", chunk.get(0).docId)
+                    .append("maxDoc", chunk.get(chunk.size() - 1).docId)
+                    .append("count", chunk.size())
+                    .append("maxScore", maxScore)
+                    .append("updated_at", now)
+                    .append("postings", encoded));
         }
+        return blocks;
+    }
 
-        markDocumentAsIndexed(docId);
+    // Pulls the documents' postings out of every block, for documents about to be written.
+    // Blocks keep their docId range and maxScore, which stay valid bounds, and blocks left
+    // empty are dropped. The blocks are found through the postings.doc index, and only
+    // those are updated and checked for being empty, so this never scans all of them.
+    private void removePostings(List<String> docIds) {
+        if (docIds.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        List<Object> blockIds = new ArrayList<>();
+        for (Document block : blockCollection.find(Filters.in("postings.doc", docIds)).projection(new Document("_id", 1))) {
+            blockIds.add(block.get("_id"));
+        }
+        if (blockIds.isEmpty()) {
+            return;
+        }
+        long updated = blockCollection.updateMany(Filters.in("_id", blockIds),
+                Updates.combine(Updates.pull("postings", Filters.in("doc", docIds)),
+                        Updates.set("updated_at", new Date()))).getModifiedCount();
+        blockCollection.deleteMany(Filters.and(Filters.in("_id", blockIds), Filters.size("postings", 0)));
+        System.out.println("[DEBUG] Removed old postings of " + docIds.size() + " documents from "
+                + updated + " blocks in " + (System.currentTimeMillis() - start) + "ms");
+    }
 
-        // Clear all references to help garbage collection
-        tokens.clear();
-        termKeys.clear();
-        System.gc();
+    // Marks each document indexed only if it still has the pageRef it was tokenized from: a
+    // revisit that stored a new version meanwhile left it isIndexed=false, and so it stays
+    public void markDocumentsAsIndexed(List<String> docIds, List<String> versions) {
+        if (docIds.isEmpty()) {
+            return;
+        }
+        Bson indexed = Updates.combine(Updates.set("isIndexed", true), Updates.unset("reindex"));
+        List<WriteModel<Document>> updates = new ArrayList<>(docIds.size());
+        for (int i = 0; i < docIds.size(); i++) {
+            updates.add(new UpdateOneModel<>(Filters.and(Filters.eq("_id", new ObjectId(docIds.get(i))),
+                    Filters.eq("pageRef", versions.get(i))), indexed));
+        }
+        docCollection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
     }
 
     private boolean isMemoryUsageHigh() {
@@ -365,147 +509,235 @@ public class DBManager {
 //        return documentsWithData;
 //    }
     public Map<String, Document> getDocumentsForWord(String word) {
-        Map<String, Document> documentsWithMetadata = new HashMap<>();
-
-        // Create a query to find the term in the inverted index
-        Document query = new Document("term", word);
-
-        // Find the document for this term
-        Document result = indexCollection.find(query).first();
-        if (result != null) {
-            // Get the postings document that contains all documents where this term appears
-            Document postings = result.get("postings", Document.class);
-            if (postings != null) {
-                // For each document ID in the postings
-                for (String docId : postings.keySet()) {
-                    // Get the document data (including term frequency, positions, etc.)
-                    Document docData = postings.get(docId, Document.class);
-
-                    // Create a new document to hold the metadata (TF, positions, etc.)
-                    Document documentWithMetadata = new Document("tf", docData.get("tf"))
-                            .append("positions", docData.get("positions"))
-                            .append("tags", docData.get("tags"))
-                            .append("title", docData.get("title"));
-
-                    // Add this document with metadata to the result map
-                    documentsWithMetadata.put(docId, documentWithMetadata);
-                }
-            }
-        }
-
-        return documentsWithMetadata;
+        return getDocumentsForWords(List.of(word)).getOrDefault(word, new HashMap<>());
     }
 
+    public int[] getPositionsForWord(String word, String docId) {
+        return getPositionsForWords(List.of(word), docId).getOrDefault(word, new int[0]);
+    }
 
-    public List<Integer> getPositionsForWord(String word, String docId) {
-        List<Integer> positions = new ArrayList<>();
-        Document query = new Document("term", word);
-        Document result = indexCollection.find(query).first();
-        if (result != null) {
-            Document postings = result.get("postings", Document.class);
-            if (postings != null && postings.containsKey(docId)) {
-                Document docData = postings.get(docId, Document.class);
-                positions = (List<Integer>) docData.get("positions");
+    // Each posting comes back as {tf, occ} with occ still in PostingCodec form, decoding is left
+    // to the caller so postings that are never scored are never expanded
+    public Map<String, Map<String, Document>> getDocumentsForWords(List<String> words) {
+        Map<String, Map<String, Document>> termDocs = new ConcurrentHashMap<>();
+        streamBlocks(Filters.in("term", words), null, block -> {
+            Map<String, Document> docs = termDocs.computeIfAbsent(block.getString("term"), k -> new ConcurrentHashMap<>());
+            for (Document posting : block.getList("postings", Document.class)) {
+                docs.put(posting.getString("doc"), postingData(posting));
             }
-        }
-        return positions;
+        });
+        return termDocs;
     }
 
-    public Map<String, Map<String, Document>> getDocumentsForWords(List<String> words) {
+    // Like getDocumentsForWords, but only for documents that contain every word, as a phrase
+    // needs. Only the blocks' ranges and counts are read up front; the rarest word's blocks
+    // are then read whole, and of each other word only the blocks whose range still holds a
+    // candidate, so a common word costs a few blocks instead of all of them.
+    public Map<String, Map<String, Document>> getDocumentsForAllWords(List<String> words) {
+        List<Document> headers = new ArrayList<>();
+        blockCollection.find(Filters.in("term", words))
+                .projection(new Document("term", 1).append("minDoc", 1).append("maxDoc", 1).append("count", 1))
+                .into(headers);
+        return readAllWords(words, headers, blockIds -> {
+            List<Document> blocks = new ArrayList<>(blockIds.size());
+            streamBlocks(Filters.in("_id", blockIds), null, blocks::add);
+            return blocks;
+        });
+    }
+
+    // headers hold each block's _id, term, minDoc, maxDoc and count; readBlocks returns the
+    // blocks with the given ids, postings included
+    static Map<String, Map<String, Document>> readAllWords(List<String> words, List<Document> headers,
+                                                          Function<List<Object>, List<Document>> readBlocks) {
+        Map<String, List<Document>> headersByTerm = new HashMap<>();
+        Map<String, Long> postingsByTerm = new HashMap<>();
+        for (Document header : headers) {
+            String term = header.getString("term");
+            headersByTerm.computeIfAbsent(term, k -> new ArrayList<>()).add(header);
+            postingsByTerm.merge(term, (long) header.getInteger("count", 0), Long::sum);
+        }
+        List<String> terms = words.stream().distinct()
+                .sorted(Comparator.comparing(term -> postingsByTerm.getOrDefault(term, 0L)))
+                .toList();
         Map<String, Map<String, Document>> termDocs = new ConcurrentHashMap<>();
-        FindIterable<Document> results = indexCollection.find(Filters.in("term", words));
-        for (Document result : results) {
-            String term = result.getString("term");
-            Document postings = result.get("postings", Document.class);
-            if (postings != null) {
-                Map<String, Document> docs = new ConcurrentHashMap<>();
-                for (String docId : postings.keySet()) {
-                    Document docData = postings.get(docId, Document.class);
-                    docs.put(docId, new Document("tf", docData.get("tf"))
-                            .append("positions", docData.get("positions"))
-                            .append("tags", docData.get("tags"))
-                            .append("title", docData.get("title")));
+        if (terms.isEmpty() || !headersByTerm.keySet().containsAll(terms)) {
+            return termDocs;
+        }
+
+        // The rarest word decides the candidates, every other word can only narrow them
+        String[] candidates = null;
+        for (String term : terms) {
+            List<Object> blockIds = new ArrayList<>();
+            for (Document header : headersByTerm.get(term)) {
+                if (candidates == null || rangeContainsAny(candidates, header.getString("minDoc"), header.getString("maxDoc"))) {
+                    blockIds.add(header.get("_id"));
+                }
+            }
+            Map<String, Document> docs = new ConcurrentHashMap<>();
+            if (!blockIds.isEmpty()) {
+                for (Document block : readBlocks.apply(blockIds)) {
+                    for (Document posting : block.getList("postings", Document.class)) {
+                        String docId = posting.getString("doc");
+                        if (candidates == null || Arrays.binarySearch(candidates, docId) >= 0) {
+                            docs.put(docId, postingData(posting));
+                        }
+                    }
                 }
-                termDocs.put(term, docs);
             }
+            if (docs.isEmpty()) {
+                return new ConcurrentHashMap<>();
+            }
+            termDocs.put(term, docs);
+            candidates = docs.keySet().toArray(new String[0]);
+            Arrays.sort(candidates);
+        }
+        // Words read before the last narrowing may still hold documents it dropped
+        Set<String> common = Set.of(candidates);
+        for (Map<String, Document> docs : termDocs.values()) {
+            docs.keySet().retainAll(common);
         }
         return termDocs;
     }
 
-    public Map<String, List<Integer>> getPositionsForWords(List<String> words, String docId) {
-        Map<String, List<Integer>> termPositions = new ConcurrentHashMap<>();
-        FindIterable<Document> results = indexCollection.find(Filters.in("term", words));
-        for (Document result : results) {
-            String term = result.getString("term");
-            Document postings = result.get("postings", Document.class);
-            if (postings != null && postings.containsKey(docId)) {
-                Document docData = postings.get(docId, Document.class);
-                termPositions.put(term, (List<Integer>) docData.get("positions"));
-            }
-        }
+    private static Document postingData(Document posting) {
+        return new Document("tf", posting.get("tf")).append("occ", posting.get("occ", Binary.class).getData());
+    }
+
+    public Map<String, int[]> getPositionsForWords(List<String> words, String docId) {
+        Map<String, int[]> termPositions = new ConcurrentHashMap<>();
+        Map<String, Map<String, int[]>> found = getPositionsForWordsBatch(words, List.of(docId));
+        found.forEach((term, docs) -> termPositions.put(term, docs.get(docId)));
         return termPositions;
     }
 
-    public Map<String, Map<String, List<Integer>>> getPositionsForWordsBatch(List<String> terms, List<String> candidateDocIds) {
+    // Only blocks whose [minDoc, maxDoc] range can contain a candidate are fetched, and of those
+    // only the doc and positions of each posting are sent over the wire
+    public Map<String, Map<String, int[]>> getPositionsForWordsBatch(List<String> terms, List<String> candidateDocIds) {
         // Handle empty input
         if (terms.isEmpty() || candidateDocIds.isEmpty()) {
             return new HashMap<>();
         }
 
-        // Build aggregation pipeline
-        List<Document> pipeline = new ArrayList<>();
-
-        // Stage 1: Match documents where term is in the terms list
-        Document matchStage = new Document("$match", new Document("term", new Document("$in", terms)));
-        pipeline.add(matchStage);
-
-        // Stage 2: Convert postings object to array of { k: docId, v: { tf, positions, tags, title } }
-        Document objectToArrayStage = new Document("$addFields", new Document("postingsArray",
-                new Document("$objectToArray", "$postings")
-        ));
-        pipeline.add(objectToArrayStage);
+        String[] candidates = candidateDocIds.toArray(new String[0]);
+        Arrays.sort(candidates);
+        Set<String> candidateSet = new HashSet<>(candidateDocIds);
+
+        Document projection = new Document("term", 1)
+                .append("minDoc", 1)
+                .append("maxDoc", 1)
+                .append("postings.doc", 1)
+                .append("postings.occ", 1)
+                .append("_id", 0);
+
+        Map<String, Map<String, int[]>> termDocPositions = new HashMap<>();
+        streamBlocks(Filters.and(Filters.in("term", terms),
+                        Filters.gte("maxDoc", candidates[0]),
+                        Filters.lte("minDoc", candidates[candidates.length - 1])),
+                projection, block -> {
+            if (!rangeContainsAny(candidates, block.getString("minDoc"), block.getString("maxDoc"))) {
+                return;
+            }
+            Map<String, int[]> docs = termDocPositions.computeIfAbsent(block.getString("term"), k -> new HashMap<>());
+            for (Document posting : block.getList("postings", Document.class)) {
+                String docId = posting.getString("doc");
+                if (candidateSet.contains(docId)) {
+                    docs.put(docId, PostingCodec.decodePositions(posting.get("occ", Binary.class).getData()));
+                }
+            }
+        });
+        return termDocPositions;
+    }
 
-        // Stage 3: Unwind the postingsArray
-        Document unwindStage = new Document("$unwind", "$postingsArray");
-        pipeline.add(unwindStage);
+    // Streams the posting blocks matching the filter in (term, minDoc) order
+    private void streamBlocks(Bson filter, Document projection, Consumer<Document> visitor) {
+        FindIterable<Document> blocks = blockCollection.find(filter)
+                .sort(Sorts.ascending("term", "minDoc"))
+                .batchSize(64);
+        if (projection != null) {
+            blocks = blocks.projection(projection);
+        }
+        try (MongoCursor<Document> cursor = blocks.iterator()) {
+            while (cursor.hasNext()) {
+                visitor.accept(cursor.next());
+            }
+        }
+    }
 
-        // Stage 4: Match postings where docId (postingsArray.k) is in candidateDocIds
-        Document matchPostingsStage = new Document("$match", new Document("postingsArray.k", new Document("$in", candidateDocIds)));
-        pipeline.add(matchPostingsStage);
+    // sortedDocIds must be sorted; true if any of them falls inside [minDoc, maxDoc]
+    static boolean rangeContainsAny(String[] sortedDocIds, String minDoc, String maxDoc) {
+        int i = Arrays.binarySearch(sortedDocIds, minDoc);
+        if (i >= 0) {
+            return true;
+        }
+        int insertion = -i - 1;
+        return insertion < sortedDocIds.length && sortedDocIds[insertion].compareTo(maxDoc) <= 0;
+    }
 
-        // Stage 5: Project to reshape the output
-        Document projectStage = new Document("$project", new Document()
-                .append("term", 1)
-                .append("docId", "$postingsArray.k")
-                .append("positions", "$postingsArray.v.positions")
-                .append("_id", 0));
-        pipeline.add(projectStage);
+    // Drops every posting block (and the old per-term inverted_index) and flags all documents
+    // for indexing again
+    public void resetIndex() {
+        database.getCollection("inverted_index").drop();
+        blockCollection.deleteMany(new Document());
+        docCollection.updateMany(new Document(), Updates.set("isIndexed", false));
+    }
 
-        // Execute aggregation
-        AggregateIterable<Document> results = indexCollection.aggregate(pipeline);
+    // Crawler.Main bumps this after writing a complete PageRank run
+    public long getPageRankVersion() {
+        Document meta = database.getCollection("pageRankRuns").find(Filters.eq("_id", "latest")).first();
+        if (meta == null) {
+            return 0;
+        }
+        Number version = meta.get("version", Number.class);
+        return version != null ? version.longValue() : 0;
+    }
 
-        // Process results into the required map structure
-        Map<String, Map<String, List<Integer>>> termDocPositions = new HashMap<>();
-        for (Document doc : results) {
-            String term = doc.getString("term");
-            String docId = doc.getString("docId");
-            List<Integer> positions = doc.getList("positions", Integer.class);
+    // How many pages the latest run ranked, crawled or not; 0 if unknown
+    public long getPageRankCount() {
+        Document meta = database.getCollection("pageRankRuns").find(Filters.eq("_id", "latest")).first();
+        Number count = meta != null ? meta.get("count", Number.class) : null;
+        return count != null ? count.longValue() : 0;
+    }
 
-            termDocPositions.computeIfAbsent(term, k -> new HashMap<>())
-                    .put(docId, positions);
+    // docId -> rank for one run; empty for runs written before ranks carried the docId
+    public Map<String, Double> getPageRankByDocId(long version) {
+        Map<String, Double> rankByDocId = new HashMap<>();
+        FindIterable<Document> documents = database.getCollection("pageRanks")
+                .find(Filters.and(Filters.eq("run", version), Filters.exists("doc")))
+                .projection(new Document("doc", 1).append("rank", 1).append("_id", 0))
+                .batchSize(1000);
+        for (Document doc : documents) {
+            String docId = doc.getString("doc");
+            Double rank = doc.getDouble("rank");
+            if (docId != null && rank != null) {
+                rankByDocId.put(docId, rank);
+            }
         }
+        return rankByDocId;
+    }
 
-        //System.out.println("getPositionsForWordsBatch: Terms " + terms + ", CandidateDocIds " + candidateDocIds);
-        //System.out.println("getPositionsForWordsBatch: Results " + termDocPositions);
-        return termDocPositions;
+    public Map<String, String> getDocumentUrls() {
+        Map<String, String> urlByDocId = new HashMap<>();
+        FindIterable<Document> documents = docCollection.find()
+                .projection(new Document("_id", 1).append("url", 1))
+                .batchSize(1000);
+        for (Document doc : documents) {
+            String url = doc.getString("url");
+            if (url != null) {
+                urlByDocId.put(doc.getObjectId("_id").toString(), url);
+            }
+        }
+        return urlByDocId;
     }
 
-    public Map<String, Double> getPageRank() {
+    // The ranks of one run, the version getPageRankVersion returned; ranks written before runs
+    // were tagged count as every run's
+    public Map<String, Double> getPageRank(long version) {
         Map<String, Double> pageRankMap = new HashMap<>();
 
         MongoCollection<Document> collection = database.getCollection("pageRanks");
 
-        FindIterable<Document> documents = collection.find();
+        FindIterable<Document> documents = collection.find(
+                Filters.or(Filters.eq("run", version), Filters.exists("run", false)));
         for (Document doc : documents) {
             String url = doc.getString("url");
             Double rank = doc.getDouble("rank");
@@ -0,0 +1,11 @@
+package db;
+
+import org.bson.Document;
+
+import java.util.List;
+import java.util.Map;
+
+// Read side the ranker needs from the crawled documents, keyed by docId
+public interface DocumentLookup {
+    Map<String, Document> getDocumentsByIds(List<String> docIds, boolean withParagraphs);
+}
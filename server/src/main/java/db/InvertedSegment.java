@@ -0,0 +1,39 @@
+package db;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+// One flushed batch of the in-memory inversion, as handed to DBManager.writeInvertedSegment:
+// terms in order, each term's postings sorted by docId, and every document the batch covers.
+public final class InvertedSegment {
+
+    public static final class Posting {
+        public final String docId;
+        public final double tf;
+        // Positions and field tags in PostingCodec form
+        public final byte[] occurrences;
+        // Field-weighted tf, what the ranker scales by the term's idf; blocks keep the maximum
+        public final double score;
+
+        public Posting(String docId, double tf, byte[] occurrences, double score) {
+            this.docId = docId;
+            this.tf = tf;
+            this.occurrences = occurrences;
+            this.score = score;
+        }
+    }
+
+    public final TreeMap<String, List<Posting>> postingsByTerm;
+    // Includes documents without postings, so they are marked indexed too
+    public final List<String> docIds;
+    // versions[i] is the pageRef docIds[i] was tokenized from; only that version is marked
+    // indexed, a revision stored meanwhile stays unindexed
+    public final List<String> versions;
+
+    public InvertedSegment(TreeMap<String, List<Posting>> postingsByTerm, List<String> docIds, List<String> versions) {
+        this.postingsByTerm = postingsByTerm;
+        this.docIds = Collections.unmodifiableList(docIds);
+        this.versions = Collections.unmodifiableList(versions);
+    }
+}
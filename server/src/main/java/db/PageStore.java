@@ -0,0 +1,520 @@
+package db;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.bson.types.ObjectId;
+
+// The text of crawled pages, body and paragraphs, kept out of Crawled_Documents in append-only
+// segment files, much like WARC: each page is one record compressed on its own with Deflater,
+// so any page can be read without its neighbours. A stored page is named by its ref,
+// "<segment>:<offset>", which Mongo keeps as pageRef next to the page's metadata; reads by
+// ref go through a memory-mapped segment and never block on a lock.
+//
+// Each segment has an .idx file of (docId, offset) entries, written after the record, so the
+// latest version of every page can also be found by docId and a scan can skip the versions a
+// revisit replaced. A scan reads the segments front to back, which is what a full reindex
+// wants. Every writer (a crawler, or one shard of a crawl) has segments of its own, and a
+// crash leaves at most a torn record at the end of one, cut off when the writer reopens.
+//
+// Record layout, big-endian:
+//   int MAGIC, int compressed length, int raw length, 12 bytes docId, int CRC32C of the
+//   compressed bytes, then the compressed bytes: int paragraph count, each paragraph and
+//   then the body as int length + UTF-8
+public final class PageStore implements Closeable {
+
+    public static final Path DIR = Path.of(System.getProperty("pagestore.dir", "./page-store"));
+    // A segment is mapped as one buffer, so it has to stay under 2 GB
+    private static final long SEGMENT_BYTES = Math.min(Long.getLong("pagestore.segmentMb", 256), 1024) << 20;
+    private static final int LEVEL = Integer.getInteger("pagestore.level", Deflater.DEFAULT_COMPRESSION);
+    private static final int MAGIC = 0x50475331; // "PGS1"
+    private static final int HEADER_BYTES = 28;
+    private static final int INDEX_ENTRY_BYTES = 20;
+    private static final String SEGMENT_SUFFIX = ".pages";
+    private static final String INDEX_SUFFIX = ".idx";
+    // How often a lookup that misses looks for records other processes wrote
+    private static final long REFRESH_MILLIS = 1000;
+
+    private static PageStore shared;
+
+    public static final class Page {
+        public final ObjectId docId;
+        public final String ref;
+        public final String body;
+        public final List<String> ps;
+
+        Page(ObjectId docId, String ref, String body, List<String> ps) {
+            this.docId = docId;
+            this.ref = ref;
+            this.body = body;
+            this.ps = ps;
+        }
+    }
+
+    private record Location(String segment, long offset) {
+    }
+
+    // A segment mapped up to the length it had when mapped; remapped once it has grown
+    private record Mapping(MappedByteBuffer buffer, long length) {
+    }
+
+    private final Path dir;
+    // Latest version of each page
+    private final Map<ObjectId, Location> index = new ConcurrentHashMap<>();
+    private final Map<String, Mapping> mappings = new ConcurrentHashMap<>();
+    // Bytes of each segment's .idx already read
+    private final Map<String, Long> indexRead = new ConcurrentHashMap<>();
+    private volatile long refreshedAt;
+
+    // Only set on a writer
+    private final String writer;
+    private String segment;
+    private FileChannel data;
+    private FileChannel indexFile;
+    private long size;
+
+    private PageStore(Path dir, String writer) {
+        this.dir = dir;
+        this.writer = writer;
+    }
+
+    // Appends go to segments named after writer, which must be the only process using it
+    public static PageStore openWriter(Path dir, String writer) throws IOException {
+        Files.createDirectories(dir);
+        PageStore store = new PageStore(dir, writer);
+        List<String> own = new ArrayList<>();
+        for (String name : store.segmentNames()) {
+            if (name.startsWith(writer + "-")) {
+                own.add(name);
+            }
+        }
+        if (own.isEmpty()) {
+            store.startSegment(writer + "-000000");
+        } else {
+            store.resume(own.get(own.size() - 1));
+        }
+        store.refresh();
+        return store;
+    }
+
+    public static PageStore openReader(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        PageStore store = new PageStore(dir, null);
+        store.refresh();
+        return store;
+    }
+
+    // One reader on DIR for the whole process
+    public static synchronized PageStore shared() throws IOException {
+        if (shared == null) {
+            shared = openReader(DIR);
+        }
+        return shared;
+    }
+
+    // Stores a version of a page and returns its ref
+    public synchronized String append(ObjectId docId, String body, List<String> ps) throws IOException {
+        if (writer == null) {
+            throw new IllegalStateException("Opened for reading");
+        }
+        byte[] record = encode(docId, body, ps);
+        if (size > 0 && size + record.length > SEGMENT_BYTES) {
+            finishSegment();
+            int next = Integer.parseInt(segment.substring(segment.lastIndexOf('-') + 1)) + 1;
+            startSegment(String.format("%s-%06d", writer, next));
+        }
+        long offset = size;
+        writeFully(data, ByteBuffer.wrap(record), offset);
+        size += record.length;
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+        entry.put(docId.toByteArray()).putLong(offset).flip();
+        long indexLength = indexFile.size();
+        writeFully(indexFile, entry, indexLength);
+        indexRead.put(segment, indexLength + INDEX_ENTRY_BYTES);
+        index.put(docId, new Location(segment, offset));
+        return segment + ":" + offset;
+    }
+
+    public Page read(String ref) throws IOException {
+        int colon = ref.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IOException("Bad page ref " + ref);
+        }
+        return read(ref.substring(0, colon), Long.parseLong(ref.substring(colon + 1)));
+    }
+
+    // The latest version of the page, or null if it was never stored
+    public Page get(ObjectId docId) throws IOException {
+        Location location = index.get(docId);
+        if (location == null && System.currentTimeMillis() - refreshedAt >= REFRESH_MILLIS) {
+            refresh();
+            location = index.get(docId);
+        }
+        return location == null ? null : read(location.segment, location.offset);
+    }
+
+    private Page read(String segment, long offset) throws IOException {
+        MappedByteBuffer buffer = map(segment, offset + HEADER_BYTES);
+        if (offset > Integer.MAX_VALUE - HEADER_BYTES || buffer.getInt((int) offset) != MAGIC) {
+            throw new IOException("No page at " + segment + ":" + offset);
+        }
+        int at = (int) offset;
+        int storedLength = buffer.getInt(at + 4);
+        int rawLength = buffer.getInt(at + 8);
+        byte[] docId = new byte[12];
+        buffer.get(at + 12, docId);
+        int crc = buffer.getInt(at + 24);
+        buffer = map(segment, offset + HEADER_BYTES + storedLength);
+        byte[] stored = new byte[storedLength];
+        buffer.get(at + HEADER_BYTES, stored);
+        return decode(new ObjectId(docId), segment + ":" + offset, stored, rawLength, crc);
+    }
+
+    private MappedByteBuffer map(String segment, long needed) throws IOException {
+        Mapping mapping = mappings.get(segment);
+        if (mapping == null || mapping.length < needed) {
+            try (FileChannel channel = FileChannel.open(dir.resolve(segment + SEGMENT_SUFFIX), StandardOpenOption.READ)) {
+                long length = channel.size();
+                if (length < needed) {
+                    throw new IOException("Segment " + segment + " ends before " + needed);
+                }
+                mapping = new Mapping(channel.map(FileChannel.MapMode.READ_ONLY, 0, length), length);
+            }
+            mappings.put(segment, mapping);
+        }
+        return mapping.buffer;
+    }
+
+    // Every page's latest version, segment by segment in file order
+    public Scan scan() throws IOException {
+        refresh();
+        return new Scan(segmentNames());
+    }
+
+    public final class Scan implements Iterator<Page>, Closeable {
+        private final Iterator<String> segments;
+        private String segment;
+        private DataInputStream in;
+        private long offset;
+        private long end;
+        private Page next;
+
+        private Scan(List<String> segments) {
+            this.segments = segments.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    if (in == null || offset >= end) {
+                        if (!openNext()) {
+                            return false;
+                        }
+                        continue;
+                    }
+                    next = readRecord();
+                }
+                return true;
+            } catch (IOException e) {
+                throw new IllegalStateException("Scanning " + segment + " at " + offset + " failed", e);
+            }
+        }
+
+        @Override
+        public Page next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Page page = next;
+            next = null;
+            return page;
+        }
+
+        // Only up to the end of the last indexed record; a writer may be halfway through the next
+        private boolean openNext() throws IOException {
+            close();
+            if (!segments.hasNext()) {
+                return false;
+            }
+            segment = segments.next();
+            end = indexedEnd(segment);
+            offset = 0;
+            in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(dir.resolve(segment + SEGMENT_SUFFIX)), 1 << 20));
+            return true;
+        }
+
+        // null for a version that was replaced later, which is skipped without inflating it
+        private Page readRecord() throws IOException {
+            long at = offset;
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Bad record");
+            }
+            int storedLength = in.readInt();
+            int rawLength = in.readInt();
+            byte[] docId = new byte[12];
+            in.readFully(docId);
+            int crc = in.readInt();
+            offset += HEADER_BYTES + storedLength;
+            ObjectId id = new ObjectId(docId);
+            Location latest = index.get(id);
+            if (latest == null || !latest.segment.equals(segment) || latest.offset != at) {
+                in.skipNBytes(storedLength);
+                return null;
+            }
+            byte[] stored = new byte[storedLength];
+            in.readFully(stored);
+            return decode(id, segment + ":" + at, stored, rawLength, crc);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+        }
+    }
+
+    // Reads the index entries written since the last look, from every writer
+    private synchronized void refresh() throws IOException {
+        refreshedAt = System.currentTimeMillis();
+        for (String name : segmentNames()) {
+            Path path = dir.resolve(name + INDEX_SUFFIX);
+            if (!Files.exists(path)) {
+                continue;
+            }
+            long from = indexRead.getOrDefault(name, 0L);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long whole = channel.size() / INDEX_ENTRY_BYTES * INDEX_ENTRY_BYTES;
+                if (whole <= from) {
+                    continue;
+                }
+                ByteBuffer entries = ByteBuffer.allocate((int) (whole - from));
+                while (entries.hasRemaining()) {
+                    if (channel.read(entries, from + entries.position()) < 0) {
+                        break;
+                    }
+                }
+                entries.flip();
+                byte[] docId = new byte[12];
+                while (entries.remaining() >= INDEX_ENTRY_BYTES) {
+                    entries.get(docId);
+                    index.put(new ObjectId(docId), new Location(name, entries.getLong()));
+                }
+                indexRead.put(name, whole);
+            }
+        }
+    }
+
+    // Where the last record the .idx knows of ends
+    private long indexedEnd(String segment) throws IOException {
+        Path indexPath = dir.resolve(segment + INDEX_SUFFIX);
+        long entries = Files.exists(indexPath) ? Files.size(indexPath) / INDEX_ENTRY_BYTES : 0;
+        if (entries == 0) {
+            return 0;
+        }
+        long last;
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            ByteBuffer entry = ByteBuffer.allocate(8);
+            channel.read(entry, (entries - 1) * INDEX_ENTRY_BYTES + 12);
+            last = entry.flip().getLong();
+        }
+        try (FileChannel channel = FileChannel.open(dir.resolve(segment + SEGMENT_SUFFIX), StandardOpenOption.READ)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            channel.read(length, last + 4);
+            return last + HEADER_BYTES + length.flip().getInt();
+        }
+    }
+
+    private List<String> segmentNames() throws IOException {
+        TreeMap<String, String> names = new TreeMap<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> names.put(name, name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+        }
+        return new ArrayList<>(names.values());
+    }
+
+    private void startSegment(String name) throws IOException {
+        segment = name;
+        data = FileChannel.open(dir.resolve(name + SEGMENT_SUFFIX), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        indexFile = FileChannel.open(dir.resolve(name + INDEX_SUFFIX), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        size = data.size();
+    }
+
+    // Reopens the writer's last segment. Records past the last index entry were written but not
+    // indexed before a crash; whole ones are indexed now, and a torn one at the end is cut off.
+    private void resume(String name) throws IOException {
+        startSegment(name);
+        indexFile.truncate(indexFile.size() / INDEX_ENTRY_BYTES * INDEX_ENTRY_BYTES);
+        long offset = indexedEnd(name);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (offset + HEADER_BYTES <= size) {
+            header.clear();
+            data.read(header, offset);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                break;
+            }
+            int storedLength = header.getInt();
+            header.getInt();
+            byte[] docId = new byte[12];
+            header.get(docId);
+            int crc = header.getInt();
+            if (storedLength < 0 || offset + HEADER_BYTES + storedLength > size) {
+                break;
+            }
+            ByteBuffer stored = ByteBuffer.allocate(storedLength);
+            data.read(stored, offset + HEADER_BYTES);
+            CRC32C check = new CRC32C();
+            check.update(stored.array());
+            if ((int) check.getValue() != crc) {
+                break;
+            }
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+            entry.put(docId).putLong(offset).flip();
+            writeFully(indexFile, entry, indexFile.size());
+            offset += HEADER_BYTES + storedLength;
+        }
+        if (offset < size) {
+            System.out.println("[WARNING] Cutting a torn record off " + name + " at " + offset);
+            data.truncate(offset);
+            size = offset;
+        }
+    }
+
+    private void finishSegment() throws IOException {
+        data.force(true);
+        indexFile.force(true);
+        data.close();
+        indexFile.close();
+    }
+
+    private static byte[] encode(ObjectId docId, String body, List<String> ps) throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream((body == null ? 0 : body.length()) + 256);
+        DataOutputStream out = new DataOutputStream(raw);
+        List<String> paragraphs = ps == null ? List.of() : ps;
+        out.writeInt(paragraphs.size());
+        for (String paragraph : paragraphs) {
+            writeString(out, paragraph);
+        }
+        writeString(out, body);
+        byte[] input = raw.toByteArray();
+
+        Deflater deflater = new Deflater(LEVEL, true);
+        byte[] compressed;
+        int compressedLength = 0;
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            compressed = new byte[HEADER_BYTES + input.length / 2 + 64];
+            compressedLength = HEADER_BYTES;
+            while (!deflater.finished()) {
+                if (compressedLength == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+        } finally {
+            deflater.end();
+        }
+        int storedLength = compressedLength - HEADER_BYTES;
+        CRC32C crc = new CRC32C();
+        crc.update(compressed, HEADER_BYTES, storedLength);
+        ByteBuffer.wrap(compressed, 0, HEADER_BYTES).putInt(MAGIC).putInt(storedLength).putInt(input.length)
+                .put(docId.toByteArray()).putInt((int) crc.getValue());
+        return compressedLength == compressed.length ? compressed : Arrays.copyOf(compressed, compressedLength);
+    }
+
+    private static Page decode(ObjectId docId, String ref, byte[] stored, int rawLength, int crc) throws IOException {
+        CRC32C check = new CRC32C();
+        check.update(stored);
+        if ((int) check.getValue() != crc) {
+            throw new IOException("Checksum mismatch at " + ref);
+        }
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(stored);
+            int read = 0;
+            while (read < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, read, rawLength - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != rawLength) {
+                throw new IOException("Short record at " + ref);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt record at " + ref, e);
+        } finally {
+            inflater.end();
+        }
+        ByteBuffer in = ByteBuffer.wrap(raw);
+        int count = in.getInt();
+        List<String> ps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ps.add(readString(in));
+        }
+        return new Page(docId, ref, readString(in), ps);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (data != null) {
+            finishSegment();
+            data = null;
+        }
+        mappings.clear();
+    }
+}
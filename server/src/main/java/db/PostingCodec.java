@@ -0,0 +1,170 @@
+package db;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Binary form of one posting's occurrences, stored as BSON binary:
+//   varint n | n varint position gaps | n field bytes
+// Positions are delta coded against the previous occurrence (the first against 0) and each
+// occurrence carries a one-byte field code instead of a tag string.
+public final class PostingCodec {
+
+    public static final byte FIELD_BODY = 0;
+    public static final byte FIELD_TITLE = 1;
+    public static final byte FIELD_H1 = 2;
+    public static final byte FIELD_H2 = 3;
+    public static final byte FIELD_H3 = 4;
+    public static final byte FIELD_H456 = 5;
+
+    public static final class Occurrences {
+        public final int[] positions;
+        public final byte[] fields;
+
+        public Occurrences(int[] positions, byte[] fields) {
+            this.positions = positions;
+            this.fields = fields;
+        }
+
+        public int size() {
+            return positions.length;
+        }
+    }
+
+    private PostingCodec() {
+    }
+
+    public static byte fieldCode(String tag) {
+        return switch (tag) {
+            case "title" -> FIELD_TITLE;
+            case "h1" -> FIELD_H1;
+            case "h2" -> FIELD_H2;
+            case "h3" -> FIELD_H3;
+            case "h4", "h5", "h6", "h456" -> FIELD_H456;
+            default -> FIELD_BODY;
+        };
+    }
+
+    public static String fieldName(byte code) {
+        return switch (code) {
+            case FIELD_TITLE -> "title";
+            case FIELD_H1 -> "h1";
+            case FIELD_H2 -> "h2";
+            case FIELD_H3 -> "h3";
+            case FIELD_H456 -> "h456";
+            default -> "body";
+        };
+    }
+
+    // How much an occurrence in each field counts, shared by the indexer's block bounds and
+    // the ranker so the two always agree
+    public static double fieldWeight(byte code) {
+        return switch (code) {
+            case FIELD_TITLE -> 4;
+            case FIELD_H1 -> 2.5;
+            case FIELD_H2 -> 2.0;
+            case FIELD_H3 -> 1.5;
+            case FIELD_H456 -> 1.0;
+            default -> 0.5;
+        };
+    }
+
+    // tf weighted by the fields of occurrences [0, n); a posting without occurrences counts as body
+    public static double weightedTF(double tf, byte[] fields, int n) {
+        if (n == 0) {
+            return tf * fieldWeight(FIELD_BODY);
+        }
+        double score = 0.0;
+        for (int i = 0; i < n; i++) {
+            score += fieldWeight(fields[i]) * tf;
+        }
+        return score;
+    }
+
+    public static byte[] fieldCodes(List<String> tags, int n) {
+        byte[] fields = new byte[n];
+        for (int i = 0; i < n; i++) {
+            fields[i] = i < tags.size() ? fieldCode(tags.get(i)) : FIELD_BODY;
+        }
+        return fields;
+    }
+
+    // positions must be ascending; tags[i] is the field of positions[i]
+    public static byte[] encode(List<Integer> positions, List<String> tags) {
+        return encode(positions, fieldCodes(tags, positions.size()));
+    }
+
+    public static byte[] encode(List<Integer> positions, byte[] fields) {
+        int n = positions.size();
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = positions.get(i);
+        }
+        return encode(values, fields, n);
+    }
+
+    public static byte[] encode(int[] positions, byte[] fields, int n) {
+        byte[] out = new byte[5 + 5 * n + n];
+        int at = writeVarint(out, 0, n);
+        int previous = 0;
+        for (int i = 0; i < n; i++) {
+            int gap = positions[i] - previous;
+            if (gap < 0) {
+                throw new IllegalArgumentException("positions must be ascending: " + previous + " then " + positions[i]);
+            }
+            at = writeVarint(out, at, gap);
+            previous = positions[i];
+        }
+        System.arraycopy(fields, 0, out, at, n);
+        at += n;
+        return Arrays.copyOf(out, at);
+    }
+
+    public static Occurrences decode(byte[] data) {
+        int[] cursor = {0};
+        int n = readVarint(data, cursor);
+        int[] positions = new int[n];
+        int previous = 0;
+        for (int i = 0; i < n; i++) {
+            previous += readVarint(data, cursor);
+            positions[i] = previous;
+        }
+        byte[] fields = Arrays.copyOfRange(data, cursor[0], cursor[0] + n);
+        return new Occurrences(positions, fields);
+    }
+
+    // Phrase matching only needs positions, the field bytes are never touched
+    public static int[] decodePositions(byte[] data) {
+        int[] cursor = {0};
+        int n = readVarint(data, cursor);
+        int[] positions = new int[n];
+        int previous = 0;
+        for (int i = 0; i < n; i++) {
+            previous += readVarint(data, cursor);
+            positions[i] = previous;
+        }
+        return positions;
+    }
+
+    private static int writeVarint(byte[] out, int at, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[at++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[at++] = (byte) value;
+        return at;
+    }
+
+    private static int readVarint(byte[] data, int[] cursor) {
+        int at = cursor[0];
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[at++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        cursor[0] = at;
+        return value;
+    }
+}
@@ -1,6 +1,7 @@
 package processor;
 
 import db.DBManager;
+import db.PostingCodec;
 import org.bson.Document;
 import org.springframework.stereotype.Component;
 
@@ -52,31 +53,12 @@ public class QueryProcessor {
         }
 
         List<String> docIds = new ArrayList<>(allDocIds);
+        // Every candidate, including ones the ranker may not be able to score; the count shown
+        // to users comes from the ranker
         int totalCount = docIds.size();
 
-        // docDataMap
-        // {
-        //  "url_1": {
-        //    "words": {
-        //      "travel": { "tf": 1, "positions": [1], "tags": ["p"] },
-        //      "guide": { "tf": 1, "positions": [2], "tags": ["p"] },
-        //      "sports": { "tf": 1, "positions": [5], "tags": ["p"] }
-        //    }
-        //  }
-        //}
-        Map<String, Map<String, Map<String, Object>>> docDataMap = new ConcurrentHashMap<>();
-        termDocumentMap.entrySet().parallelStream().forEach(entry -> {
-            String term = entry.getKey();
-            entry.getValue().forEach((docId, doc) -> {
-                docDataMap.computeIfAbsent(docId, k -> new ConcurrentHashMap<>())
-                        .computeIfAbsent("words", k -> new ConcurrentHashMap<>())
-                        .put(term, Map.of(
-                                "tf", doc.get("tf"),
-                                "positions", doc.get("positions"),
-                                "tags", doc.get("tags")
-                        ));
-            });
-        });
+        // Postings are decoded once here and shared by both views of the result
+        Map<String, Map<String, Object>> perWordResults = formatResultForRanker(termDocumentMap);
         // docData
         // [
         //  {
@@ -88,27 +70,35 @@ public class QueryProcessor {
         //    }
         //   }
         //]
-        List<Map<String, Object>> docData = docIds.stream()
-                .map(docId -> {
-                    Map<String, Object> info = new HashMap<>();
-                    info.put("docId", docId);
-                    info.put("words", docDataMap.getOrDefault(docId, new ConcurrentHashMap<>()).getOrDefault("words", new HashMap<>()));
-                    return info;
-                })
-                .collect(Collectors.toList());
+        // Only for the requested window of candidates, the ranker works from perWordResults
+        int from = (int) Math.min((long) Math.max(page, 0) * Math.max(size, 0), docIds.size());
+        int to = (int) Math.min((long) from + Math.max(size, 0), docIds.size());
+        List<Map<String, Object>> docData = new ArrayList<>(to - from);
+        for (String docId : docIds.subList(from, to)) {
+            Map<String, Object> words = new HashMap<>();
+            perWordResults.forEach((term, docs) -> {
+                Object docInfo = docs.get(docId);
+                if (docInfo != null) {
+                    words.put(term, docInfo);
+                }
+            });
+            Map<String, Object> info = new HashMap<>();
+            info.put("docId", docId);
+            info.put("words", words);
+            docData.add(info);
+        }
 
         long duration = System.currentTimeMillis() - start;
 
         QueryResult result = new QueryResult();
         result.setDocIds(docIds);
-        System.out.println("docIds: " + docIds);
         result.setDocData(docData);
         result.setType(type);
         result.setTime(duration);
         result.setQueryWords(queryWords);
         result.setQueryWordsString(splitQuery(query));
         result.setTotalCount(totalCount);
-        result.setPerWordResults(formatResultForRanker(termDocumentMap));
+        result.setPerWordResults(perWordResults);
 
         return result;
     }
@@ -128,7 +118,8 @@ public class QueryProcessor {
     }
 
     private Map<String, Map<String, Document>> handlePhrase(List<String> terms) {
-        Map<String, Map<String, Document>> termDocs = db.getDocumentsForWords(terms);
+        // A phrase needs every term, so blocks that cannot hold a common document are skipped
+        Map<String, Map<String, Document>> termDocs = db.getDocumentsForAllWords(terms);
 
         Map<String, Integer> docIdToIndex = new ConcurrentHashMap<>();
         AtomicInteger indexCounter = new AtomicInteger(0);
@@ -157,7 +148,7 @@ public class QueryProcessor {
                         .orElse(null))
                 .filter(Objects::nonNull)
                 .collect(Collectors.toList());
-        Map<String, Map<String, List<Integer>>> allPositions = db.getPositionsForWordsBatch(terms, candidateDocIds);
+        Map<String, Map<String, int[]>> allPositions = db.getPositionsForWordsBatch(terms, candidateDocIds);
 
         Map<String, Map<String, Document>> phraseResults = new ConcurrentHashMap<>();
         candidateDocIds.parallelStream()
@@ -172,24 +163,29 @@ public class QueryProcessor {
         return phraseResults;
     }
 
-    private boolean checkPhraseMatch(List<String> terms, String docId, Map<String, Map<String, List<Integer>>> allPositions) {
-        Map<String, List<Integer>> termPositions = new HashMap<>();
+    private boolean checkPhraseMatch(List<String> terms, String docId, Map<String, Map<String, int[]>> allPositions) {
+        Map<String, int[]> termPositions = new HashMap<>();
         for (String term : terms) {
-            Map<String, List<Integer>> positionsForTerm = allPositions.getOrDefault(term, Collections.emptyMap());
-            List<Integer> positions = positionsForTerm.get(docId);
-            if (positions == null || positions.isEmpty()) {
+            Map<String, int[]> positionsForTerm = allPositions.getOrDefault(term, Collections.emptyMap());
+            int[] positions = positionsForTerm.get(docId);
+            if (positions == null || positions.length == 0) {
                 return false;
             }
             termPositions.put(term, positions);
         }
 
         BitSet basePositions = new BitSet();
-        termPositions.get(terms.get(0)).forEach(pos -> basePositions.set(pos));
+        for (int pos : termPositions.get(terms.get(0))) {
+            basePositions.set(pos);
+        }
 
         for (int i = 1; i < terms.size(); i++) {
             BitSet shifted = new BitSet();
-            int finalI = i;
-            termPositions.get(terms.get(i)).forEach(p -> shifted.set(p - finalI));
+            for (int p : termPositions.get(terms.get(i))) {
+                if (p >= i) {
+                    shifted.set(p - i);
+                }
+            }
             basePositions.and(shifted);
             if (basePositions.isEmpty()) {
                 return false;
@@ -315,10 +311,11 @@ public class QueryProcessor {
             Map<String, Document> docs = entry.getValue();
             Map<String, Object> docData = new ConcurrentHashMap<>();
             docs.forEach((docId, doc) -> {
+                PostingCodec.Occurrences occ = PostingCodec.decode((byte[]) doc.get("occ"));
                 Map<String, Object> docInfo = Map.of(
                         "tf", doc.get("tf"),
-                        "positions", doc.get("positions"),
-                        "tags", doc.get("tags")
+                        "positions", occ.positions,
+                        "tags", occ.fields
                 );
                 docData.put(docId, docInfo);
             });
@@ -3,9 +3,12 @@ package processor;
 import org.tartarus.snowball.ext.PorterStemmer;
 
 public class Stemmer {
-    
+
+    // PorterStemmer keeps its working buffer between calls, so each thread reuses its own
+    private static final ThreadLocal<PorterStemmer> STEMMER = ThreadLocal.withInitial(PorterStemmer::new);
+
     public static String stem(String word) {
-        PorterStemmer stemmer = new PorterStemmer();
+        PorterStemmer stemmer = STEMMER.get();
         stemmer.setCurrent(word.toLowerCase());
         stemmer.stem();
         return stemmer.getCurrent();
@@ -0,0 +1,50 @@
+package processor;
+
+import java.util.Arrays;
+
+// Splits text into words in one pass over the characters, without copying the text. Letters
+// are lowercased as they are read, anything other than [a-z0-9] ends a word, and each word is
+// handed to the sink from a buffer reused for the whole scan, so no String is created unless
+// the sink makes one. The indexer and the query parser both read text through this class so
+// documents and queries are normalized the same way.
+public final class TermScanner {
+
+    public interface WordSink {
+        // buffer[0, length) holds the lowercased word; it is overwritten by the next word.
+        // position counts words from the start of the scanned text.
+        void word(char[] buffer, int length, int position);
+    }
+
+    private char[] buffer = new char[32];
+
+    // Returns the number of words scanned, which is the position after the last one
+    public int scan(CharSequence text, WordSink sink) {
+        int length = 0;
+        int position = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = normalize(text.charAt(i));
+            if (c != 0) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, length * 2);
+                }
+                buffer[length++] = c;
+            } else if (length > 0) {
+                sink.word(buffer, length, position++);
+                length = 0;
+            }
+        }
+        if (length > 0) {
+            sink.word(buffer, length, position++);
+        }
+        return position;
+    }
+
+    // The lowercase [a-z0-9] form of c, or 0 when c separates words
+    static char normalize(char c) {
+        if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') return c;
+        if (c >= 'A' && c <= 'Z') return (char) (c + ('a' - 'A'));
+        if (c < 128) return 0;
+        char lower = Character.toLowerCase(c);
+        return lower >= 'a' && lower <= 'z' ? lower : 0;
+    }
+}
@@ -0,0 +1,137 @@
+package ranker;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import db.DBManager;
+
+// Server-resident static scores. Every crawled document gets a dense ordinal and its
+// PageRank lives in a primitive array at that ordinal, so the ranker does one docId lookup
+// per candidate instead of reloading the pageRanks collection for every query.
+public class PageRankStore {
+
+  public static final class Snapshot {
+    private final Map<String, Integer> ordinals;
+    private final double[] ranks;
+    private final double defaultRank;
+    private final long version;
+
+    Snapshot(Map<String, Integer> ordinals, double[] ranks, double defaultRank, long version) {
+      this.ordinals = ordinals;
+      this.ranks = ranks;
+      this.defaultRank = defaultRank;
+      this.version = version;
+    }
+
+    // -1 when the document was crawled after this snapshot was built
+    public int ordinal(String docId) {
+      Integer ordinal = ordinals.get(docId);
+      return ordinal == null ? -1 : ordinal;
+    }
+
+    public double rank(int ordinal) {
+      return ordinal < 0 ? defaultRank : ranks[ordinal];
+    }
+
+    public double rankOf(String docId) {
+      return rank(ordinal(docId));
+    }
+
+    public double defaultRank() {
+      return defaultRank;
+    }
+
+    public int size() {
+      return ranks.length;
+    }
+
+    public long version() {
+      return version;
+    }
+  }
+
+  private static final Snapshot EMPTY = new Snapshot(Map.of(), new double[0], 1.0, -1);
+
+  private final AtomicReference<Snapshot> current = new AtomicReference<>(EMPTY);
+  private ScheduledExecutorService refresher;
+
+  public Snapshot current() {
+    return current.get();
+  }
+
+  public void publish(Snapshot snapshot) {
+    current.set(snapshot);
+  }
+
+  // Documents without a PageRank entry get 1 / (number of ranked pages), same as before
+  public static Snapshot build(Map<String, Double> rankByDocId, long rankedPages, long version) {
+    double defaultRank = rankedPages == 0 ? 1.0 : 1.0 / rankedPages;
+    Map<String, Integer> ordinals = new HashMap<>(rankByDocId.size() * 2);
+    double[] ranks = new double[rankByDocId.size()];
+    int next = 0;
+    for (Map.Entry<String, Double> entry : rankByDocId.entrySet()) {
+      ranks[next] = entry.getValue();
+      ordinals.put(entry.getKey(), next++);
+    }
+    return new Snapshot(ordinals, ranks, defaultRank, version);
+  }
+
+  // For ranks stored by url: joins them to the documents' docIds
+  public static Snapshot build(Map<String, String> urlByDocId, Map<String, Double> rankByUrl, long version) {
+    Map<String, Double> rankByDocId = new HashMap<>(urlByDocId.size() * 2);
+    for (Map.Entry<String, String> entry : urlByDocId.entrySet()) {
+      Double rank = rankByUrl.get(entry.getValue());
+      if (rank != null) {
+        rankByDocId.put(entry.getKey(), rank);
+      }
+    }
+    return build(rankByDocId, rankByUrl.size(), version);
+  }
+
+  // Rebuilds the snapshot only when a newer PageRank run has been published. Runs are stored
+  // by docId, so this reads only pageRanks; a run written before that still needs the urls of
+  // all crawled documents.
+  public boolean reloadIfChanged(DBManager db) {
+    long version = db.getPageRankVersion();
+    if (version == current.get().version()) {
+      return false;
+    }
+    long start = System.currentTimeMillis();
+    Map<String, Double> rankByDocId = db.getPageRankByDocId(version);
+    Snapshot snapshot = !rankByDocId.isEmpty()
+        ? build(rankByDocId, Math.max(db.getPageRankCount(), rankByDocId.size()), version)
+        : build(db.getDocumentUrls(), db.getPageRank(version), version);
+    publish(snapshot);
+    System.out.println("[INFO] Loaded PageRank for " + snapshot.size() + " documents (version " + version + ") in "
+        + (System.currentTimeMillis() - start) + " ms");
+    return true;
+  }
+
+  // The first load runs immediately on the refresher thread so startup is not blocked on MongoDB
+  public synchronized void startRefreshing(DBManager db, long period, TimeUnit unit) {
+    if (refresher != null) return;
+    refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "pagerank-refresher");
+      t.setDaemon(true);
+      return t;
+    });
+    refresher.scheduleWithFixedDelay(() -> {
+      try {
+        reloadIfChanged(db);
+      } catch (Exception e) {
+        System.err.println("[ERROR] PageRank refresh failed: " + e.getMessage());
+      }
+    }, 0, period, unit);
+  }
+
+  public synchronized void stop() {
+    if (refresher != null) {
+      refresher.shutdownNow();
+      refresher = null;
+    }
+  }
+}
@@ -5,6 +5,8 @@ public class RankedDocument {
   private Double score;
   private String title;
   private String snippet;
+  // Kept out of the JSON response, only used to fetch paragraphs for the returned page
+  private String docId;
 
   public RankedDocument(String url, Double score, String title, String snippet) {
     this.url = url;
@@ -13,6 +15,11 @@ public class RankedDocument {
     this.snippet = snippet;
   }
 
+  RankedDocument(String docId, String url, Double score, String title) {
+    this(url, score, title, null);
+    this.docId = docId;
+  }
+
   public String getUrl() {
     return url;
   }
@@ -32,4 +39,12 @@ public class RankedDocument {
   public String getSnippet() {
     return snippet;
   }
-}
\ No newline at end of file
+
+  public void setSnippet(String snippet) {
+    this.snippet = snippet;
+  }
+
+  String docId() {
+    return docId;
+  }
+}
@@ -0,0 +1,23 @@
+package ranker;
+
+import java.util.List;
+
+// One page of ranked results and how many documents the whole ranking holds; candidates no
+// query term scored are left out of both
+public class RankedPage {
+  private final List<RankedDocument> results;
+  private final long totalCount;
+
+  public RankedPage(List<RankedDocument> results, long totalCount) {
+    this.results = results;
+    this.totalCount = totalCount;
+  }
+
+  public List<RankedDocument> getResults() {
+    return results;
+  }
+
+  public long getTotalCount() {
+    return totalCount;
+  }
+}
@@ -6,37 +6,62 @@ import java.util.stream.Collectors;
 import org.bson.Document;
 import processor.Stemmer;
 import processor.QueryResult;
-import db.DBManager;
+import db.DocumentLookup;
+import db.PostingCodec;
 
 public class Ranker {
-  public static List<String> stemmedQueryWords;
-  public static List<String> originalQueryWords;
-  public static Map<String, Double> pageRankScores;
-  private static List<RankedDocument> results;
-  private static Map<String, Map<String, Object>> docData;
-  private static Map<String, RankedDocument> scoreTracker;
-  public static Snippeterr snippeter;
-  private static String type;
-  private static QueryResult res;
-  private static DBManager database;
-  // document -> word -> position
-  private static Map<String, Map<String, List<Integer>>> documentPositionsForEachWordTracker = new HashMap<>();
-
-  public static List<RankedDocument> RankerMain(QueryResult q, DBManager db) {
-    database = db;
-    pageRankScores = db.getPageRank();
-    snippeter = new Snippeterr();
-    res = q;
-    //System.out.println("Result: " + q.getTotalCount());
-    stemmedQueryWords = q.getQueryWords();
-    originalQueryWords = q.getQueryWordsString();
-    docData = q.getPerWordResults();
-    type = q.getType();
-    scoreTracker = new HashMap<>();
-
-    if (!type.equals("phrase") && !type.equals("phrase+boolean"))
-      RankDocuments();
-    else PhraseAndBoolRank();
+  private final DocumentLookup database;
+  private final PageRankStore pageRanks;
+  private final Snippeterr snippeter = new Snippeterr();
+
+  // A Ranker holds no per-query state, one instance serves all concurrent requests
+  public Ranker(DocumentLookup database, PageRankStore pageRanks) {
+    this.database = database;
+    this.pageRanks = pageRanks;
+  }
+
+  // Ranks the query results and returns only the requested page, snippets are generated for
+  // that page alone
+  public RankedPage rank(QueryResult q, int page, int size) {
+    // One snapshot per query so a PageRank reload mid-query can't mix two runs
+    PageRankStore.Snapshot pageRankScores = pageRanks.current();
+    Map<String, Map<String, Object>> docData = q.getPerWordResults();
+    String type = q.getType();
+
+    if (!type.equals("phrase") && !type.equals("phrase+boolean")) {
+      return RankDocuments(q.getQueryWordsString(), docData, pageRankScores, page, size);
+    }
+    List<String> queryWords = type.equals("phrase") ? q.getQueryWords() : phraseQueryWords(q.getQueryWordsString());
+    return PhraseRank(queryWords, docData, pageRankScores, page, size);
+  }
+
+  // Materializes RankedDocuments for the requested window of the top-k only, fetching their
+  // metadata and paragraphs in a single lookup
+  private List<RankedDocument> selectPage(ScoringKernel.Scores scores, List<String> snippetWords, int page, int size) {
+    List<RankedDocument> results = new ArrayList<>();
+    if (page < 0 || size <= 0) {
+      return results;
+    }
+    int k = (int) Math.min(((long) page + 1) * size, scores.size());
+    int[] top = ScoringKernel.top(scores, k);
+    int from = (int) Math.min((long) page * size, top.length);
+    if (from >= top.length) {
+      return results;
+    }
+
+    List<String> ids = new ArrayList<>(top.length - from);
+    for (int i = from; i < top.length; i++) {
+      ids.add(scores.docIds[top[i]]);
+    }
+    Map<String, Document> docs = database.getDocumentsByIds(ids, true);
+    for (int i = from; i < top.length; i++) {
+      String docId = scores.docIds[top[i]];
+      Document temp = docs.get(docId);
+      if (temp == null) continue; // Skip if document not found
+      RankedDocument r = new RankedDocument(docId, (String) temp.get("url"), scores.scores[top[i]], (String) temp.get("title"));
+      r.setSnippet(snippeter.generateSnippet((List<String>) temp.get("ps"), snippetWords));
+      results.add(r);
+    }
     return results;
   }
 
@@ -52,14 +77,19 @@ public class Ranker {
   }
 
 
-  private static double calculateRelevance(int docsWithWord, double tf, List<String> positions) {
+  // Same weights as getPositionalWeight, keyed by the PostingCodec field byte
+  private static double getFieldWeight(byte field) {
+    return PostingCodec.fieldWeight(field);
+  }
+
+  static double calculateRelevance(int docsWithWord, double tf, byte[] fields) {
     double score = 0.0;
     //tem.out.println(docsWithWord);
     double tfidf = (tf) * (6000 / docsWithWord);
-    if (positions.size() == 0) score += tfidf * getPositionalWeight("l");
+    if (fields.length == 0) score += tfidf * getFieldWeight(PostingCodec.FIELD_BODY);
     else {
-      for (String position : positions) {
-        score += getPositionalWeight(position) * tfidf;
+      for (byte field : fields) {
+        score += getFieldWeight(field) * tfidf;
       }
     }
     return score;
@@ -76,6 +106,15 @@ public class Ranker {
     return score;
   }
 
+  public static double calculateWeightedTF(double tf, byte[] fields) {
+    return calculateWeightedTF(tf, fields, fields.length);
+  }
+
+  // Weighs only fields[0, n), for callers that keep occurrences in a growable buffer
+  public static double calculateWeightedTF(double tf, byte[] fields, int n) {
+    return PostingCodec.weightedTF(tf, fields, n);
+  }
+
   private static double calcDifference(Map<String, Double> newRanks, Map<String, Double> oldRanks) {
     double sumOfDifferences = 0;
     for (String word : newRanks.keySet()) {
@@ -165,68 +204,19 @@ public class Ranker {
 
 
   // private static Map<String, Map<String, Object>> docData;
-  public static void RankDocuments() {
+  private RankedPage RankDocuments(List<String> snippetWords, Map<String, Map<String, Object>> docData,
+                                   PageRankStore.Snapshot pageRankScores, int page, int size) {
     long start = System.currentTimeMillis();
-    results = new ArrayList<>();
-
-    // Preload all documents
-    Set<String> uniqueDocIds = new HashSet<>();
-    docData.forEach((word, docs) -> uniqueDocIds.addAll(docs.keySet()));
-    Map<String, Document> docCache = database.getDocumentsByIds(new ArrayList<>(uniqueDocIds));
-    if (docCache.isEmpty()) {
-      System.out.println("[DEBUG] No documents found for ranking.");
-      return;
-    }
-
-    Thread[] threads = new Thread[docData.keySet().size()];
-    int i = 0;
-    for (String word : docData.keySet()) {
-      Map<String, Object> docDataForCurrWord = docData.get(word); // Fetch once
-      threads[i] = new Thread(() -> {
-        for (String doc : docDataForCurrWord.keySet()) {
-          Map<String, Object> docFields = (Map<String, Object>) docDataForCurrWord.get(doc); // Use local reference
-          double tf = (double) docFields.get("tf");
-          Document temp = docCache.get(doc);
-          if (temp == null) continue; // Skip if document not found
-          String url = (String) temp.get("url");
-          String title = (String) temp.get("title");
-          List<String> positions = (List<String>) docFields.get("tags");
-          double tfidf = calculateRelevance(docDataForCurrWord.size(), tf, positions);
-          if (tfidf == 0.0) continue;
-          double score = tfidf * (pageRankScores.get(url) != null ? pageRankScores.get(url) : 1.0 / pageRankScores.size());
-
-          // Prepare data outside synchronized block
-          List<String> paragraphs = (List<String>) temp.get("ps");
-          String snippet = null;
-          if (!scoreTracker.containsKey(url)) {
-            snippet = snippeter.generateSnippet(paragraphs, originalQueryWords);
-          }
 
-          synchronized (scoreTracker) {
-            if (scoreTracker.containsKey(url)) {
-              RankedDocument tempp = scoreTracker.get(url);
-              tempp.setScore(tempp.getScore() + score);
-            } else {
-              RankedDocument r = new RankedDocument(url, score, title, snippet);
-              results.add(r);
-              scoreTracker.put(url, r);
-            }
-          }
-        }
-      });
-      threads[i++].start();
-    }
-    for (Thread thread : threads) {
-      try {
-        thread.join();
-      } catch (InterruptedException e) {
-        e.printStackTrace();
-      }
-    }
-    Collections.sort(results, Comparator.comparingDouble(RankedDocument::getScore).reversed());
+    // Term order fixes the summation order, so scores don't depend on map iteration
+    List<String> words = new ArrayList<>(docData.keySet());
+    Collections.sort(words);
+    ScoringKernel.Scores scores = ScoringKernel.score(words, docData, null, pageRankScores);
+    List<RankedDocument> results = selectPage(scores, snippetWords, page, size);
 
     long duration = System.currentTimeMillis() - start;
-    System.out.println("RankDocuments time: " + duration + " ms for " + uniqueDocIds.size() + " documents");
+    System.out.println("RankDocuments time: " + duration + " ms for " + scores.size() + " documents");
+    return new RankedPage(results, scores.rankable());
   }
 
   // private static Map<String, Map<String, Object>> docData;
@@ -292,53 +282,16 @@ public class Ranker {
 //
 //  }
 
-  public static List<RankedDocument> PhraseRank(List<String> queryWordsCurr) {
-    List<RankedDocument> localResults = new ArrayList<>();
-    Map<String, RankedDocument> localScoreTracker = new HashMap<>();
-
+  // Only documents containing the first query word are candidates, every query word adds to them
+  private RankedPage PhraseRank(List<String> queryWordsCurr, Map<String, Map<String, Object>> docData,
+                                PageRankStore.Snapshot pageRankScores, int page, int size) {
     if (queryWordsCurr.isEmpty() || !docData.containsKey(queryWordsCurr.get(0))) {
-      return localResults;
+      return new RankedPage(new ArrayList<>(), 0);
     }
 
-    Map<String, Object> docsForFirstWord = docData.get(queryWordsCurr.get(0));
-    for (String doc : docsForFirstWord.keySet()) {
-      double totalScore = 0.0;
-      Document temp = database.getDocumentById(doc);
-      String url = (String) temp.get("url");
-      String title = (String) temp.get("title");
-      List<String> paragraphs = (List<String>) temp.get("ps");
-
-      for (String word : queryWordsCurr) {
-        if(docData.get(word) == null) {
-
-          continue;
-        }
-        if(docData.get(word).get(doc) == null) {
-
-          continue;
-        }
-
-        Map<String, Object> docFields = (Map<String, Object>) docData.get(word).get(doc);
-        double tf = (double) docFields.get("tf");
-        List<String> positions = (List<String>) docFields.get("tags");
-        double tfidf = calculateRelevance(docData.get(word).size(), tf, positions);
-        totalScore += tfidf;
-      }
-
-      totalScore *= (pageRankScores.get(url) != null ? pageRankScores.get(url) : 1.0 / pageRankScores.size());
-      if (totalScore == 0.0) continue;
-
-      long start = System.currentTimeMillis();
-      String snippet = snippeter.generateSnippet(paragraphs, queryWordsCurr);
-        long duration = System.currentTimeMillis() - start;
-        System.out.println("Snippet generation time: " + duration + " ms for URL: " + url);
-      RankedDocument r = new RankedDocument(url, totalScore, title, snippet);
-      localResults.add(r);
-      localScoreTracker.put(url, r);
-    }
-
-    Collections.sort(localResults, Comparator.comparingDouble(RankedDocument::getScore).reversed());
-    return localResults;
+    Set<String> candidates = docData.get(queryWordsCurr.get(0)).keySet();
+    ScoringKernel.Scores scores = ScoringKernel.score(queryWordsCurr, docData, candidates, pageRankScores);
+    return new RankedPage(selectPage(scores, queryWordsCurr, page, size), scores.rankable());
   }
 
 
@@ -392,45 +345,22 @@ public class Ranker {
 //    Collections.sort(results, Comparator.comparingDouble(RankedDocument::getScore).reversed());
 //  }
 
-  public static void PhraseAndBoolRank() {
-    results = new ArrayList<>();
-    scoreTracker = new HashMap<>();
-
-    if (type.equals("phrase")) {
-      results = PhraseRank(stemmedQueryWords);
-      for (RankedDocument doc : results) {
-        scoreTracker.put(doc.getUrl(), doc);
-      }
-      Collections.sort(results, Comparator.comparingDouble(RankedDocument::getScore).reversed());
-      return;
-    }
-    System.out.println("in phrase and bool rank");
-    System.out.println("original query words: " + originalQueryWords);
+  // Stemmed words of every phrase and term in a phrase+boolean query, operators dropped
+  private static List<String> phraseQueryWords(List<String> originalQueryWords) {
     List<String> queryWords = new ArrayList<>();
     for (String word : originalQueryWords) {
-      System.out.println("word: " + word);
       if (word.startsWith("\"") && word.endsWith("\"")) {
         word = word.substring(1, word.length() - 1);
       }
       if (!word.equalsIgnoreCase("AND") && !word.equalsIgnoreCase("OR") && !word.equalsIgnoreCase("NOT")) {
 
         List<String> queryWordsCurr = Arrays.asList(word.split(" "));
-        System.out.println("query words curr: " + queryWordsCurr);
         for(String s : queryWordsCurr) {
           String stemmed = Stemmer.stem(s);
           queryWords.add(stemmed);
         }
       }
     }
-
-    if (!queryWords.isEmpty()) {
-      results = PhraseRank(queryWords);
-      for (RankedDocument doc : results) {
-        scoreTracker.put(doc.getUrl(), doc);
-      }
-    }
-
-    Collections.sort(results, Comparator.comparingDouble(RankedDocument::getScore).reversed());
+    return queryWords;
   }
 }
-
@@ -0,0 +1,301 @@
+package ranker;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Scores candidate documents into primitive arrays. Candidates get dense per-query ordinals
+// and every term adds its contributions into one shared array of scores. Terms go one after
+// the other, in order, and each term's postings are split across one shared pool; a document
+// appears once per term, so the slices of a term never write the same cell and need no locks
+// or boxed scores.
+final class ScoringKernel {
+  private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+  // Postings (or documents) handled by one task before it stops splitting
+  private static final int PARTITION_SIZE = 1024;
+
+  static final class Scores {
+    final String[] docIds;
+    // NEGATIVE_INFINITY marks a candidate none of the terms contributed to
+    final double[] scores;
+
+    Scores(String[] docIds, double[] scores) {
+      this.docIds = docIds;
+      this.scores = scores;
+    }
+
+    int size() {
+      return docIds.length;
+    }
+
+    // Candidates that can be ranked, i.e. that some term contributed to
+    int rankable() {
+      int count = 0;
+      for (double score : scores) {
+        if (score != Double.NEGATIVE_INFINITY) count++;
+      }
+      return count;
+    }
+  }
+
+  private ScoringKernel() {
+  }
+
+  // candidates == null scores the union of all term postings, otherwise only the given docs
+  static Scores score(List<String> terms, Map<String, Map<String, Object>> docData,
+                      Collection<String> candidates, PageRankStore.Snapshot pageRanks) {
+    Ordinals ordinals = new Ordinals(candidates != null ? candidates.size() : postingCount(terms, docData));
+    if (candidates != null) {
+      for (String docId : candidates) {
+        ordinals.add(docId);
+      }
+    } else {
+      for (String term : terms) {
+        Map<String, Object> postings = docData.get(term);
+        if (postings == null) continue;
+        for (String docId : postings.keySet()) {
+          ordinals.add(docId);
+        }
+      }
+    }
+
+    int n = ordinals.size();
+    String[] docIdArray = ordinals.docIds();
+    double[] scores = new double[n];
+    POOL.invoke(new Score(terms, docData, ordinals, scores, docIdArray, pageRanks));
+    return new Scores(docIdArray, scores);
+  }
+
+  private static int postingCount(List<String> terms, Map<String, Map<String, Object>> docData) {
+    int count = 0;
+    for (String term : terms) {
+      Map<String, Object> postings = docData.get(term);
+      if (postings != null) count += postings.size();
+    }
+    return count;
+  }
+
+  // Ordinals of the best k candidates, best first, ties broken by docId. A bounded min-heap
+  // over primitive ordinals keeps this O(n log k) and allocation free apart from the heap.
+  static int[] top(Scores s, int k) {
+    int[] heap = new int[Math.max(0, Math.min(k, s.size()))];
+    int size = 0;
+    for (int ord = 0; ord < s.size() && heap.length > 0; ord++) {
+      if (s.scores[ord] == Double.NEGATIVE_INFINITY) continue;
+      if (size < heap.length) {
+        heap[size] = ord;
+        siftUp(s, heap, size++);
+      } else if (better(s, ord, heap[0])) {
+        heap[0] = ord;
+        siftDown(s, heap, size);
+      }
+    }
+
+    int[] best = new int[size];
+    for (int i = size - 1; i >= 0; i--) {
+      best[i] = heap[0];
+      heap[0] = heap[--size];
+      siftDown(s, heap, size);
+    }
+    return best;
+  }
+
+  private static boolean better(Scores s, int a, int b) {
+    if (s.scores[a] != s.scores[b]) return s.scores[a] > s.scores[b];
+    return s.docIds[a].compareTo(s.docIds[b]) < 0;
+  }
+
+  // The root of the heap is the worst of the kept candidates
+  private static void siftUp(Scores s, int[] heap, int i) {
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!better(s, heap[parent], heap[i])) break;
+      swap(heap, parent, i);
+      i = parent;
+    }
+  }
+
+  private static void siftDown(Scores s, int[] heap, int size) {
+    int i = 0;
+    while (true) {
+      int left = 2 * i + 1;
+      if (left >= size) break;
+      int worst = left;
+      int right = left + 1;
+      if (right < size && better(s, heap[left], heap[right])) worst = right;
+      if (!better(s, heap[i], heap[worst])) break;
+      swap(heap, i, worst);
+      i = worst;
+    }
+  }
+
+  private static void swap(int[] heap, int a, int b) {
+    int tmp = heap[a];
+    heap[a] = heap[b];
+    heap[b] = tmp;
+  }
+
+  // Adds the terms in term order, so sums don't depend on scheduling, then applies PageRank.
+  // Tasks only ever run in this process, they are never serialized.
+  @SuppressWarnings("serial")
+  private static final class Score extends RecursiveAction {
+    private final List<String> terms;
+    private final Map<String, Map<String, Object>> docData;
+    private final Ordinals ordinals;
+    private final double[] scores;
+    private final String[] docIds;
+    private final PageRankStore.Snapshot pageRanks;
+
+    Score(List<String> terms, Map<String, Map<String, Object>> docData, Ordinals ordinals, double[] scores,
+          String[] docIds, PageRankStore.Snapshot pageRanks) {
+      this.terms = terms;
+      this.docData = docData;
+      this.ordinals = ordinals;
+      this.scores = scores;
+      this.docIds = docIds;
+      this.pageRanks = pageRanks;
+    }
+
+    @Override
+    protected void compute() {
+      for (String term : terms) {
+        Map<String, Object> postings = docData.get(term);
+        if (postings == null || postings.isEmpty()) continue;
+        String[] ids = new String[postings.size()];
+        Object[] fields = new Object[postings.size()];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : postings.entrySet()) {
+          ids[i] = entry.getKey();
+          fields[i++] = entry.getValue();
+        }
+        new TermPartition(scores, ids, fields, ordinals, 0, ids.length).invoke();
+      }
+      new ApplyPageRank(scores, docIds, pageRanks, 0, scores.length).invoke();
+    }
+  }
+
+  // Adds one term's contribution for a slice of its postings
+  @SuppressWarnings("serial")
+  private static final class TermPartition extends RecursiveAction {
+    private final double[] scores;
+    private final String[] ids;
+    private final Object[] fields;
+    private final Ordinals ordinals;
+    private final int from;
+    private final int to;
+
+    TermPartition(double[] scores, String[] ids, Object[] fields, Ordinals ordinals, int from, int to) {
+      this.scores = scores;
+      this.ids = ids;
+      this.fields = fields;
+      this.ordinals = ordinals;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > PARTITION_SIZE) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new TermPartition(scores, ids, fields, ordinals, from, mid),
+            new TermPartition(scores, ids, fields, ordinals, mid, to));
+        return;
+      }
+      for (int i = from; i < to; i++) {
+        int ord = ordinals.get(ids[i]);
+        if (ord < 0) continue;
+        Map<?, ?> docFields = (Map<?, ?>) fields[i];
+        double tf = (double) docFields.get("tf");
+        scores[ord] += Ranker.calculateRelevance(ids.length, tf, (byte[]) docFields.get("tags"));
+      }
+    }
+  }
+
+  // Turns the summed term scores into final scores for a range of ordinals
+  @SuppressWarnings("serial")
+  private static final class ApplyPageRank extends RecursiveAction {
+    private final double[] scores;
+    private final String[] docIds;
+    private final PageRankStore.Snapshot pageRanks;
+    private final int from;
+    private final int to;
+
+    ApplyPageRank(double[] scores, String[] docIds, PageRankStore.Snapshot pageRanks, int from, int to) {
+      this.scores = scores;
+      this.docIds = docIds;
+      this.pageRanks = pageRanks;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > PARTITION_SIZE) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new ApplyPageRank(scores, docIds, pageRanks, from, mid),
+            new ApplyPageRank(scores, docIds, pageRanks, mid, to));
+        return;
+      }
+      for (int d = from; d < to; d++) {
+        double sum = scores[d];
+        scores[d] = sum == 0.0 ? Double.NEGATIVE_INFINITY : sum * pageRanks.rankOf(docIds[d]);
+      }
+    }
+  }
+
+  // docId -> dense ordinal in insertion order, open addressing over parallel arrays so a
+  // lookup boxes nothing. Filled by one thread, then only read.
+  static final class Ordinals {
+    private final String[] keys;
+    private final int[] values;
+    private final int mask;
+    private final String[] docIds;
+    private int size;
+
+    Ordinals(int expected) {
+      int slots = Integer.highestOneBit(Math.max(2, expected * 2 - 1)) << 1;
+      this.keys = new String[slots];
+      this.values = new int[slots];
+      this.mask = slots - 1;
+      this.docIds = new String[expected];
+    }
+
+    // Adds docId if it is new; expected must have been at least the number of distinct ids
+    void add(String docId) {
+      int slot = spread(docId.hashCode()) & mask;
+      while (keys[slot] != null) {
+        if (keys[slot].equals(docId)) return;
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = docId;
+      values[slot] = size;
+      docIds[size++] = docId;
+    }
+
+    // -1 if docId is not a candidate
+    int get(String docId) {
+      int slot = spread(docId.hashCode()) & mask;
+      while (keys[slot] != null) {
+        if (keys[slot].equals(docId)) return values[slot];
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+
+    int size() {
+      return size;
+    }
+
+    String[] docIds() {
+      return Arrays.copyOf(docIds, size);
+    }
+
+    private static int spread(int h) {
+      h *= 0x9e3779b9;
+      return h ^ (h >>> 16);
+    }
+  }
+}
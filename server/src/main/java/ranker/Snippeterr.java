@@ -9,8 +9,6 @@ public class Snippeterr {
   private static final String HIGHLIGHT_START = "<b>";
   private static final String HIGHLIGHT_END = "</b>";
 
-  private int numberOfTerms;
-
   public String generateSnippet(List<String> paragraphs, List<String> queryWords) {
 
     String bestSnippet = "";
@@ -23,7 +21,18 @@ public class Snippeterr {
 
 
     for (String paragraph : paragraphs) {
-      int score = calculateRelevanceScore(paragraph, queryWords);
+      // Kept local so one Snippeterr can serve concurrent queries
+      String text = paragraph.toLowerCase();
+      int score = 0;
+      int numberOfTerms = 0;
+      for (String term : queryWords) {
+        if (term == null || term.isEmpty())
+          continue;
+        int frequency = countFrequency(text, term.toLowerCase());
+        score += frequency;
+        if (frequency != 0)
+          numberOfTerms++;
+      }
 
       if (paragraph.length() <= SNIPPET_LENGTH && (numberOfTerms > bestNumberOfTerms
           || numberOfTerms == bestNumberOfTerms && score > bestScore)) {
@@ -43,21 +52,6 @@ public class Snippeterr {
     return bestSnippet;
   }
 
-  private int calculateRelevanceScore(String text, List<String> queryWords) {
-    int score = 0;
-    numberOfTerms = 0;
-    for (String term : queryWords) {
-      if (term == null || term.isEmpty())
-        continue;
-      int frequency = countFrequency(text.toLowerCase(), term.toLowerCase());
-      score += frequency;
-      if (frequency != 0)
-        numberOfTerms++;
-    }
-
-    return score;
-  }
-
   private int countFrequency(String text, String term) {
     String escapedTerm = Pattern.quote(term);
 
@@ -0,0 +1,96 @@
+package Crawler;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CrawlMetricsTest {
+
+	@Test
+	void bucketsCoverEveryValueOnceAndInOrder() {
+		long previousBound = -1;
+		for (long micros = 0; micros < 1 << 20; micros++) {
+			int bucket = LatencyHistogram.bucketOf(micros);
+			assertTrue(micros <= LatencyHistogram.upperBoundOf(bucket), "value " + micros);
+			if (micros > previousBound) {
+				assertEquals(previousBound + 1, micros);
+				previousBound = LatencyHistogram.upperBoundOf(bucket);
+			}
+		}
+	}
+
+	@Test
+	void quantilesAreWithinTheBucketPrecision() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		long[] values = new long[100_000];
+		Random random = new Random(7);
+		for (int i = 0; i < values.length; i++) {
+			// Log-normal around 200ms, like fetch latencies
+			values[i] = (long) (200_000 * Math.exp(random.nextGaussian()));
+			histogram.recordNanos(values[i] * 1000);
+		}
+		Arrays.sort(values);
+		for (double q : new double[] {0.5, 0.9, 0.99}) {
+			long exact = values[(int) Math.ceil(q * values.length) - 1];
+			long estimate = histogram.quantileMicros(q);
+			assertTrue(estimate >= exact && estimate <= exact * 1.07, q + ": " + estimate + " vs " + exact);
+		}
+		assertEquals(values[values.length - 1], histogram.maxMicros());
+		assertEquals(values.length, histogram.count());
+	}
+
+	@Test
+	void fetchesShowUpOnTheEndpoint() throws Exception {
+		HttpServer site = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		site.createContext("/", exchange -> {
+			byte[] body = "<html><body>hello</body></html>".getBytes(StandardCharsets.UTF_8);
+			int status = exchange.getRequestURI().getPath().equals("/missing") ? 404 : 200;
+			exchange.getResponseHeaders().add("Content-Type", "text/html");
+			exchange.sendResponseHeaders(status, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		site.setExecutor(Executors.newCachedThreadPool());
+		site.start();
+		CrawlMetrics metrics = new CrawlMetrics();
+		HttpServer endpoint = MetricsEndpoint.start(0, metrics::writeTo);
+		try {
+			PageFetcher fetcher = new PageFetcher(Duration.ofSeconds(5));
+			fetcher.recordTo(metrics);
+			String base = "http://127.0.0.1:" + site.getAddress().getPort();
+			fetcher.fetchHtml(base + "/a");
+			fetcher.fetchHtml(base + "/b");
+			fetcher.fetchHtml(base + "/missing");
+			metrics.recordLinks(10, 4);
+			metrics.tick(2);
+
+			HttpResponse<String> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder(
+					URI.create("http://127.0.0.1:" + endpoint.getAddress().getPort() + "/metrics?hosts=5")).build(),
+					HttpResponse.BodyHandlers.ofString());
+			assertEquals(200, response.statusCode());
+			String text = response.body();
+			assertTrue(text.contains("crawler_responses_total 3\n"), text);
+			assertTrue(text.contains("crawler_http_responses_total{status=\"200\"} 2\n"), text);
+			assertTrue(text.contains("crawler_http_responses_total{status=\"404\"} 1\n"), text);
+			assertTrue(text.contains("crawler_dedup_total{kind=\"link_seen\"} 6\n"), text);
+			assertTrue(text.contains("crawler_host_fetch_latency_seconds_count{host=\"127.0.0.1\"} 3\n"), text);
+			assertTrue(metrics.summary().contains("2xx=2 3xx=0 4xx=1"), metrics.summary());
+		} finally {
+			endpoint.stop(0);
+			site.stop(0);
+		}
+	}
+}
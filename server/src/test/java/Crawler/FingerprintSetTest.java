@@ -0,0 +1,99 @@
+package Crawler;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FingerprintSetTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void concurrentAddsClaimEachValueExactlyOnce() throws Exception {
+		int values = 50_000;
+		int threads = 16;
+		try (FingerprintSet set = FingerprintSet.open(dir.resolve("urls.fp"), 1 << 17)) {
+			List<Future<Integer>> wins = new ArrayList<>();
+			try (ExecutorService pool = Executors.newFixedThreadPool(threads)) {
+				for (int t = 0; t < threads; t++) {
+					wins.add(pool.submit(() -> {
+						int added = 0;
+						for (int i = 0; i < values; i++) {
+							if (set.add("https://example.com/page/" + i)) added++;
+						}
+						return added;
+					}));
+				}
+			}
+			int total = 0;
+			for (Future<Integer> win : wins) {
+				total += win.get();
+			}
+
+			assertEquals(values, total);
+			assertEquals(values, set.size());
+			assertTrue(set.contains("https://example.com/page/0"));
+			assertFalse(set.contains("https://example.com/page/" + values));
+		}
+	}
+
+	@Test
+	void reopeningTheFileRestoresTheSet() throws Exception {
+		Path file = dir.resolve("nested/pages.fp");
+		try (FingerprintSet set = FingerprintSet.open(file, 1000)) {
+			assertEquals(1024, set.capacity());
+			assertTrue(set.add("a"));
+			assertTrue(set.add("b"));
+			assertFalse(set.add("a"));
+		}
+
+		// The capacity stored in the file wins over the one asked for
+		try (FingerprintSet set = FingerprintSet.open(file, 1 << 20)) {
+			assertEquals(1024, set.capacity());
+			assertEquals(2, set.size());
+			assertTrue(set.contains("a"));
+			assertTrue(set.contains("b"));
+			assertFalse(set.add("b"));
+			assertTrue(set.add("c"));
+		}
+	}
+
+	@Test
+	void aFullSetContinuesInALargerTableAndReopensWithIt() throws Exception {
+		Path file = dir.resolve("urls.fp");
+		int values = 1000;
+		try (FingerprintSet set = FingerprintSet.open(file, 16)) {
+			for (int i = 0; i < values; i++) {
+				assertTrue(set.add("https://example.com/page/" + i), "value " + i);
+			}
+			for (int i = 0; i < values; i++) {
+				assertFalse(set.add("https://example.com/page/" + i), "value " + i);
+			}
+			assertEquals(values, set.size());
+			assertTrue(set.capacity() > values);
+		}
+		assertTrue(Files.exists(dir.resolve("urls.fp.1")));
+
+		try (FingerprintSet set = FingerprintSet.open(file, 16)) {
+			assertEquals(values, set.size());
+			for (int i = 0; i < values; i++) {
+				assertTrue(set.contains("https://example.com/page/" + i), "value " + i);
+			}
+			assertFalse(set.contains("https://example.com/page/" + values));
+			assertTrue(set.add("https://example.com/page/" + values));
+			assertEquals(values + 1, set.size());
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package Crawler;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrontierLogTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void reopeningResumesFromTheCursor() throws Exception {
+		try (FrontierLog log = FrontierLog.open(dir)) {
+			assertTrue(log.isNew());
+			log.append("https://a.com/1");
+			log.append("https://a.com/2");
+			log.append("https://b.com/ü");
+			assertEquals("https://a.com/1", log.poll());
+			log.commit(log.mark());
+		}
+
+		try (FrontierLog log = FrontierLog.open(dir)) {
+			assertFalse(log.isNew());
+			assertEquals(2, log.size());
+			assertEquals("https://a.com/2", log.poll());
+			log.append("https://c.com/");
+			assertEquals("https://b.com/ü", log.poll());
+			assertEquals("https://c.com/", log.poll());
+			assertNull(log.poll());
+			assertTrue(log.isEmpty());
+		}
+	}
+
+	@Test
+	void segmentsRollOverAndAreDeletedOnceRead() throws Exception {
+		List<String> urls = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			urls.add("https://example.com/page/" + i);
+		}
+		try (FrontierLog log = FrontierLog.open(dir, 4096)) {
+			for (String url : urls.subList(0, 600)) {
+				log.append(url);
+			}
+			assertTrue(segmentCount() > 3);
+			for (String url : urls.subList(0, 300)) {
+				assertEquals(url, log.poll());
+			}
+			log.commit(log.mark());
+		}
+
+		try (FrontierLog log = FrontierLog.open(dir, 4096)) {
+			for (String url : urls.subList(600, 1000)) {
+				log.append(url);
+			}
+			for (String url : urls.subList(300, 1000)) {
+				assertEquals(url, log.poll());
+			}
+			assertNull(log.poll());
+			log.commit(log.mark());
+			assertEquals(1, segmentCount());
+		}
+	}
+
+	@Test
+	void frontierSpillsToTheLogAndResumes() throws Exception {
+		HostFrontier frontier = new HostFrontier(FrontierLog.open(dir));
+		frontier.add("https://a.com/1");
+		frontier.add("https://b.com/1");
+		frontier.add("https://a.com/2");
+		HostFrontier.Lease lease = frontier.next(0);
+		frontier.release(lease);
+		frontier.close();
+
+		HostFrontier resumed = new HostFrontier(FrontierLog.open(dir));
+		assertEquals(2, resumed.size());
+		assertFalse(resumed.isExhausted());
+		HostFrontier.Lease next = resumed.next(0);
+		assertFalse(next.url.equals(lease.url));
+		resumed.release(next);
+		resumed.close();
+	}
+
+	@Test
+	void urlsReadButNotCommittedAreReadAgain() throws Exception {
+		try (FrontierLog log = FrontierLog.open(dir)) {
+			log.append("https://a.com/1");
+			log.append("https://a.com/2");
+			log.append("https://a.com/3");
+			log.poll();
+			FrontierLog.Mark second = log.mark();
+			log.poll();
+			FrontierLog.Mark third = log.mark();
+			log.commit(third);
+			log.poll();
+			// An older mark does not move the commit back
+			log.commit(second);
+		}
+
+		try (FrontierLog log = FrontierLog.open(dir)) {
+			assertEquals(1, log.size());
+			assertEquals("https://a.com/3", log.poll());
+			assertNull(log.poll());
+		}
+	}
+
+	@Test
+	void aFrontierThatIsNeverClosedKeepsItsWindow() throws Exception {
+		HostFrontier frontier = new HostFrontier(FrontierLog.open(dir));
+		frontier.add("https://a.com/1");
+		frontier.add("https://b.com/1");
+		frontier.add("https://a.com/2");
+		frontier.add("https://b.com/2");
+		HostFrontier.Lease first = frontier.next(0);
+		frontier.release(first);
+		HostFrontier.Lease second = frontier.next(0);
+		frontier.release(second);
+		// Killed here: close() never runs, and only what was handed out is gone
+
+		HostFrontier resumed = new HostFrontier(FrontierLog.open(dir));
+		List<String> urls = new ArrayList<>();
+		HostFrontier.Lease lease;
+		while ((lease = resumed.next(5000)) != null) {
+			urls.add(lease.url);
+			resumed.release(lease);
+		}
+		assertEquals(List.of("https://a.com/2", "https://b.com/2"), urls.stream().sorted().toList());
+		assertTrue(resumed.isExhausted());
+		resumed.close();
+	}
+
+	private long segmentCount() throws Exception {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.filter(f -> f.toString().endsWith(".seg")).count();
+		}
+	}
+}
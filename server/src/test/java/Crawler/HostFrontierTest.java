@@ -0,0 +1,132 @@
+package Crawler;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HostFrontierTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void otherHostsAreServedWhileOneIsLeased() throws InterruptedException {
+		HostFrontier frontier = new HostFrontier();
+		frontier.add("https://a.com/1");
+		frontier.add("https://a.com/2");
+		frontier.add("https://b.com/1");
+
+		HostFrontier.Lease first = frontier.next(100);
+		HostFrontier.Lease second = frontier.next(100);
+
+		assertNotNull(first);
+		assertNotNull(second);
+		assertFalse(first.host.equals(second.host));
+		// a.com still has a URL queued but is leased, so nothing is ready
+		assertNull(frontier.next(50));
+	}
+
+	@Test
+	void hostIsNotFetchedAgainBeforeItsCrawlDelay() throws InterruptedException {
+		HostFrontier frontier = new HostFrontier();
+		frontier.add("https://slow.com/1");
+		frontier.add("https://slow.com/2");
+		frontier.setCrawlDelay("slow.com", 300);
+
+		HostFrontier.Lease lease = frontier.next(100);
+		frontier.release(lease);
+		long released = System.currentTimeMillis();
+		HostFrontier.Lease again = frontier.next(2000);
+
+		assertEquals("https://slow.com/2", again.url);
+		assertTrue(System.currentTimeMillis() - released >= 290);
+	}
+
+	@Test
+	void workersStopOnceTheFrontierIsExhausted() throws InterruptedException {
+		HostFrontier frontier = new HostFrontier();
+		frontier.add("https://a.com/1");
+		assertFalse(frontier.add("not a url"));
+
+		HostFrontier.Lease lease = frontier.next(100);
+		assertFalse(frontier.isExhausted());
+		frontier.release(lease);
+
+		long start = System.currentTimeMillis();
+		assertNull(frontier.next(5000));
+		assertTrue(System.currentTimeMillis() - start < 1000);
+	}
+
+	@Test
+	void waitingWorkerWakesWhenAURLArrives() throws Exception {
+		HostFrontier frontier = new HostFrontier();
+		frontier.add("https://a.com/1");
+		HostFrontier.Lease held = frontier.next(100);
+
+		List<String> taken = new ArrayList<>();
+		Thread worker = new Thread(() -> {
+			try {
+				HostFrontier.Lease lease = frontier.next(5000);
+				synchronized (taken) {
+					taken.add(lease.url);
+				}
+			} catch (InterruptedException ignored) {
+			}
+		});
+		worker.start();
+		Thread.sleep(50);
+		frontier.add("https://b.com/1");
+		worker.join(2000);
+
+		assertEquals(List.of("https://b.com/1"), taken);
+		frontier.release(held);
+	}
+
+	@Test
+	void oneLargeHostDoesNotCrowdTheOthersOutOfMemory() throws Exception {
+		try (FrontierLog log = FrontierLog.open(dir)) {
+			// Written straight to the log, as a resumed crawl finds it
+			for (int i = 0; i < 500; i++) {
+				log.append("https://big.com/" + i);
+			}
+			for (int i = 0; i < 20; i++) {
+				log.append("https://small" + i + ".com/");
+			}
+		}
+		HostFrontier frontier = new HostFrontier(FrontierLog.open(dir), 100, 10);
+		Set<String> hosts = new HashSet<>();
+		HostFrontier.Lease lease;
+		while ((lease = frontier.next(0)) != null) {
+			hosts.add(lease.host);
+		}
+		assertEquals(21, hosts.size());
+		// Nothing was dropped on the way
+		assertEquals(520 - 21, frontier.size());
+		frontier.close();
+	}
+
+	@Test
+	void hostsAreForgottenOnceTheirQueueIsEmpty() throws InterruptedException {
+		HostFrontier frontier = new HostFrontier();
+		frontier.add("https://a.com/1");
+		frontier.setCrawlDelay("a.com", 0);
+		HostFrontier.Lease lease = frontier.next(100);
+		assertEquals(1, frontier.hostCount());
+		frontier.release(lease);
+		assertEquals(0, frontier.hostCount());
+
+		frontier.add("https://a.com/2");
+		assertEquals("https://a.com/2", frontier.next(100).url);
+	}
+}
@@ -0,0 +1,84 @@
+package Crawler;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Extracting a parsed page: the single PageExtractor walk against the select() per tag, text()
+// per match, body().text() and doc.text() for the fingerprint that the crawler used to do.
+// Parsing is done once at setup, both sides need it. The bundled pages are small stand-ins;
+// point bench.pages at a directory of saved .html files to measure real ones:
+//   make bench BENCH="PageExtractorBenchmark -prof gc -jvmArgs -Dbench.pages=/path/to/pages"
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageExtractorBenchmark {
+
+	@Param({"news.html", "wiki.html", "docs.html"})
+	public String page;
+
+	private org.jsoup.nodes.Document doc;
+
+	@Setup
+	public void parsePage() throws IOException {
+		String dir = System.getProperty("bench.pages");
+		String html = dir == null ? PageExtractorTest.readPage(page)
+				: Files.readString(Path.of(dir, page), StandardCharsets.UTF_8);
+		doc = Jsoup.parse(html, "https://example.com/" + page);
+		System.out.println("[INFO] " + page + ": " + html.length() + " chars, " + doc.getAllElements().size() + " elements");
+	}
+
+	@Benchmark
+	public void singlePass(Blackhole blackhole) {
+		PageExtractor.Page extracted = PageExtractor.extract(doc);
+		blackhole.consume(extracted.fingerprint());
+		blackhole.consume(extracted);
+	}
+
+	@Benchmark
+	public void selectors(Blackhole blackhole) {
+		blackhole.consume(SimHash.fingerprint(doc.text()));
+		blackhole.consume(doc.title());
+		blackhole.consume(texts("h1"));
+		blackhole.consume(texts("h2"));
+		blackhole.consume(texts("h3"));
+		blackhole.consume(texts("h4, h5, h6"));
+		blackhole.consume(texts("p"));
+		blackhole.consume(doc.body().text());
+		List<String> links = new ArrayList<>();
+		for (Element link : doc.select("a[href]")) {
+			links.add(link.attr("abs:href"));
+		}
+		blackhole.consume(links);
+	}
+
+	private List<String> texts(String query) {
+		List<String> texts = new ArrayList<>();
+		for (Element element : doc.select(query)) {
+			texts.add(element.text());
+		}
+		return texts;
+	}
+}
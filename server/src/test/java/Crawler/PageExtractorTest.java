@@ -0,0 +1,76 @@
+package Crawler;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PageExtractorTest {
+
+	static final String[] PAGES = {"news.html", "wiki.html", "docs.html"};
+
+	@Test
+	void savedPagesMatchTheSelectorExtraction() throws IOException {
+		for (String name : PAGES) {
+			assertSameAsSelectors(name, readPage(name), "https://example.com/articles/" + name);
+		}
+	}
+
+	@Test
+	void edgeCasesMatchTheSelectorExtraction() {
+		String[] snippets = {
+				"",
+				"<p>no structure at all",
+				"<html><head><title>  Spaced\n  out  </title></head><body><title>not this one</title></body></html>",
+				"<body><h1>A<br>B</h1><h2>x <span>y</span>z</h2><p>one<p>two</p><div>three<p>four</p>five</div></body>",
+				"<body><p>outer <b>bold <i>nested</i></b>tail</p><h1><p>p inside h1</p> after</h1></body>",
+				"<body><pre>  keep\n   this  </pre><p><code>  a   b </code></p><h3><pre>x  y</pre> z</h3></body>",
+				"<body><ul><li>one</li><li>two</li></ul>text<table><tr><td>a</td><td>b</td></tr></table>end</body>",
+				"<body><h4>four</h4><h6>six</h6><h5>five</h5><a href='../up'>up</a><a>no href</a><a href=''>self</a></body>",
+				"<body><svg><![CDATA[  raw  ]]></svg><p>&nbsp;&amp; entities&nbsp;</p><noscript>hidden</noscript></body>",
+		};
+		for (String html : snippets) {
+			assertSameAsSelectors(html, html, "https://example.com/a/b/page.html");
+		}
+	}
+
+	private static void assertSameAsSelectors(String label, String html, String url) {
+		org.jsoup.nodes.Document doc = Jsoup.parse(html, url);
+		PageExtractor.Page page = PageExtractor.extract(doc);
+
+		assertEquals(doc.title(), page.title, label);
+		assertEquals(texts(doc, "h1"), page.h1s, label);
+		assertEquals(texts(doc, "h2"), page.h2s, label);
+		assertEquals(texts(doc, "h3"), page.h3s, label);
+		assertEquals(texts(doc, "h4, h5, h6"), page.h456s, label);
+		assertEquals(texts(doc, "p"), page.ps, label);
+		assertEquals(doc.body().text(), page.bodyText, label);
+		List<String> links = new ArrayList<>();
+		for (Element link : doc.select("a[href]")) {
+			links.add(link.attr("abs:href"));
+		}
+		assertEquals(links, page.links, label);
+		assertEquals(SimHash.fingerprint(doc.text()), page.fingerprint(), label);
+	}
+
+	private static List<String> texts(org.jsoup.nodes.Document doc, String query) {
+		List<String> texts = new ArrayList<>();
+		for (Element element : doc.select(query)) {
+			texts.add(element.text());
+		}
+		return texts;
+	}
+
+	static String readPage(String name) throws IOException {
+		try (InputStream in = PageExtractorTest.class.getResourceAsStream("/pages/" + name)) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+}
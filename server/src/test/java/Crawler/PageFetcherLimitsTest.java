@@ -0,0 +1,144 @@
+package Crawler;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageFetcherLimitsTest {
+
+	private static final String HTML = "<html><head><title>Привет</title></head><body><p>мир</p></body></html>";
+
+	private HttpServer server;
+	private String base;
+	private final AtomicLong endlessBytesSent = new AtomicLong();
+
+	@BeforeEach
+	void startServer() throws Exception {
+		// Platform threads: a virtual thread blocked writing to a client that stopped reading
+		// pins its carrier, and on a one-CPU machine that stalls the client too
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/endless", exchange -> {
+			exchange.getResponseHeaders().add("Content-Type", "text/html");
+			exchange.sendResponseHeaders(200, 0);
+			byte[] chunk = "<p>again and again</p>\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+			try (OutputStream out = exchange.getResponseBody()) {
+				for (int i = 0; i < 10_000; i++) {
+					out.write(chunk);
+					endlessBytesSent.addAndGet(chunk.length);
+				}
+			} catch (IOException ignored) {
+				// the client hung up
+			}
+		});
+		server.createContext("/huge", exchange -> {
+			exchange.getResponseHeaders().add("Content-Type", "text/html");
+			exchange.sendResponseHeaders(200, PageFetcher.MAX_PAGE_BYTES + 1L);
+			exchange.close();
+		});
+		server.createContext("/bomb", exchange -> {
+			exchange.getResponseHeaders().add("Content-Type", "text/html");
+			exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+			byte[] body = gzip(new byte[50 << 20]);
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		server.createContext("/gzip", exchange -> send(exchange, "gzip", gzip(bytes(HTML, StandardCharsets.UTF_8))));
+		server.createContext("/deflate", exchange -> send(exchange, "deflate", rawDeflate(bytes(HTML, StandardCharsets.UTF_8))));
+		server.createContext("/cp1251", exchange -> send(exchange, null, bytes(
+				HTML.replace("<head>", "<head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=windows-1251\">"),
+				Charset.forName("windows-1251"))));
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	void stopsReadingAtTheByteLimit() throws Exception {
+		PageFetcher fetcher = new PageFetcher(Duration.ofSeconds(5));
+
+		PageFetcher.Page page = fetcher.fetch(base + "/endless", 64 * 1024);
+		assertTrue(page.truncated);
+		assertEquals(64 * 1024, page.body.length);
+		Thread.sleep(200);
+		assertTrue(endlessBytesSent.get() < 10_000L * 23_000, "sent " + endlessBytesSent.get());
+
+		assertNull(fetcher.fetchHtml(base + "/huge"));
+
+		PageFetcher.Page bomb = fetcher.fetch(base + "/bomb", 64 * 1024);
+		assertTrue(bomb.truncated);
+		assertEquals(64 * 1024, bomb.body.length);
+	}
+
+	@Test
+	void decodesContentEncodingAndSniffsTheCharset() throws Exception {
+		PageFetcher fetcher = new PageFetcher(Duration.ofSeconds(5));
+
+		for (String path : new String[] {"/gzip", "/deflate", "/cp1251"}) {
+			PageFetcher.Page page = fetcher.fetchHtml(base + path);
+			assertFalse(page.truncated, path);
+			assertEquals("Привет", PageFetcher.parse(page).title(), path);
+		}
+		assertEquals("windows-1251", fetcher.fetchHtml(base + "/cp1251").charset());
+
+		assertEquals("UTF-8", PageFetcher.sniffCharset(new byte[] {(byte) 0xef, (byte) 0xbb, (byte) 0xbf, '<'}));
+		assertEquals("iso-8859-2", PageFetcher.sniffCharset(bytes("<meta charset='iso-8859-2'>", StandardCharsets.US_ASCII)));
+		assertEquals("UTF-8", PageFetcher.sniffCharset(bytes("<META CHARSET=UTF-16>", StandardCharsets.US_ASCII)));
+		assertNull(PageFetcher.sniffCharset(bytes("<meta charset=\"made-up\">", StandardCharsets.US_ASCII)));
+		assertNull(PageFetcher.sniffCharset(bytes(" ".repeat(2000) + "<meta charset=latin1>", StandardCharsets.US_ASCII)));
+	}
+
+	private static void send(com.sun.net.httpserver.HttpExchange exchange, String encoding, byte[] body) throws IOException {
+		exchange.getResponseHeaders().add("Content-Type", "text/html");
+		if (encoding != null) {
+			exchange.getResponseHeaders().add("Content-Encoding", encoding);
+		}
+		exchange.sendResponseHeaders(200, body.length);
+		exchange.getResponseBody().write(body);
+		exchange.close();
+	}
+
+	private static byte[] bytes(String text, Charset charset) {
+		return text.getBytes(charset);
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(data);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] rawDeflate(byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (DeflaterOutputStream deflate = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, true))) {
+			deflate.write(data);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,100 @@
+package Crawler;
+
+import com.sun.net.httpserver.HttpServer;
+import org.jsoup.nodes.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Fetches from a local server that answers every page after a fixed delay, the way a remote
+// site would. Serially the run below would take PAGES * LATENCY_MILLIS.
+class PageFetcherThroughputTest {
+
+	private static final int PAGES = 500;
+	private static final long LATENCY_MILLIS = 200;
+
+	private HttpServer server;
+	private String base;
+
+	@BeforeEach
+	void startServer() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+		server.createContext("/page", exchange -> {
+			try {
+				Thread.sleep(LATENCY_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			String path = exchange.getRequestURI().getPath();
+			byte[] body = ("<html><head><title>" + path + "</title></head><body><p>page</p>"
+					+ "<a href=\"next\">next</a></body></html>").getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		server.createContext("/image.png", exchange -> {
+			exchange.getResponseHeaders().add("Content-Type", "image/png");
+			exchange.sendResponseHeaders(200, 4);
+			exchange.getResponseBody().write(new byte[4]);
+			exchange.close();
+		});
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	void keepsHundredsOfSlowFetchesInFlight() throws Exception {
+		PageFetcher fetcher = new PageFetcher(Duration.ofSeconds(10));
+		fetcher.fetchDocument(base + "/page/warmup");
+
+		long start = System.nanoTime();
+		List<Future<Document>> pages = new ArrayList<>();
+		try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < PAGES; i++) {
+				String url = base + "/page/" + i + "/";
+				pages.add(workers.submit(() -> fetcher.fetchDocument(url)));
+			}
+		}
+		long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+		for (int i = 0; i < PAGES; i++) {
+			Document doc = pages.get(i).get();
+			assertNotNull(doc);
+			assertEquals("/page/" + i + "/", doc.title());
+			assertEquals(base + "/page/" + i + "/next", doc.select("a[href]").first().attr("abs:href"));
+		}
+		System.out.println("[INFO] fetched " + PAGES + " pages with " + LATENCY_MILLIS + " ms latency in "
+				+ elapsedMillis + " ms (" + (PAGES * 1000L / Math.max(1, elapsedMillis)) + " pages/s)");
+		// Serially this is 100 s; anything near LATENCY_MILLIS means the fetches overlapped
+		assertTrue(elapsedMillis < PAGES * LATENCY_MILLIS / 10, "took " + elapsedMillis + " ms");
+	}
+
+	@Test
+	void skipsResponsesThatAreNotHtml() {
+		PageFetcher fetcher = new PageFetcher(Duration.ofSeconds(5));
+
+		assertNull(fetcher.fetchDocument(base + "/image.png"));
+		assertNull(fetcher.fetchDocument(base + "/missing"));
+	}
+}
@@ -0,0 +1,81 @@
+package Crawler;
+
+import com.sun.net.httpserver.HttpServer;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RevisitsTest {
+
+	private static final long HOUR = 60 * 60_000L;
+	private static final long DAY = 24 * HOUR;
+
+	@Test
+	void intervalFollowsTheObservedChangeRate() {
+		assertEquals(Revisits.FIRST_INTERVAL_MILLIS, Revisits.nextInterval(0, 0, 0));
+		// Never changed in 3 daily visits: back off
+		assertEquals(2 * DAY, Revisits.nextInterval(3, 0, 3 * DAY));
+		// Changed on every daily visit: come back sooner than daily
+		assertTrue(Revisits.nextInterval(10, 10, 10 * DAY) < DAY / 2);
+		// Changed on about a third of the visits: somewhere in between
+		long sometimes = Revisits.nextInterval(9, 3, 9 * DAY);
+		assertTrue(sometimes > DAY && sometimes < 4 * DAY, "interval " + sometimes);
+		assertEquals(Revisits.MAX_INTERVAL_MILLIS, Revisits.nextInterval(1, 0, 365 * DAY));
+		assertEquals(Revisits.MIN_INTERVAL_MILLIS, Revisits.nextInterval(50, 50, 50 * 60_000L));
+	}
+
+	@Test
+	void scheduleCarriesTheHistoryForward() {
+		long now = 1_000 * DAY;
+		Document first = Revisits.schedule(null, true, "\"v1\"", null, 42L, now);
+		assertEquals(0, first.getInteger("visits"));
+		assertEquals(new Date(now + Revisits.FIRST_INTERVAL_MILLIS), first.getDate("nextVisitAt"));
+
+		Revisits.Visit visit = new Revisits.Visit(null, "\"v1\"", null, 42L, 0, 0, now);
+		Document second = Revisits.schedule(visit, false, "\"v1\"", null, 42L, now + DAY);
+		assertEquals(1, second.getInteger("visits"));
+		assertEquals(0, second.getInteger("changes"));
+		assertEquals(new Date(now), second.getDate("firstFetchedAt"));
+		assertEquals(new Date(now + 3 * DAY), second.getDate("nextVisitAt"));
+	}
+
+	@Test
+	void conditionalGetReturnsNotModified() throws Exception {
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/page", exchange -> {
+			if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				exchange.sendResponseHeaders(304, -1);
+			} else {
+				byte[] body = "<html><body>hello</body></html>".getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().add("Content-Type", "text/html");
+				exchange.getResponseHeaders().add("ETag", "\"v1\"");
+				exchange.sendResponseHeaders(200, body.length);
+				exchange.getResponseBody().write(body);
+			}
+			exchange.close();
+		});
+		server.start();
+		try {
+			PageFetcher fetcher = new PageFetcher(Duration.ofSeconds(5));
+			String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/page";
+
+			PageFetcher.Page page = fetcher.fetchHtml(url);
+			assertFalse(page.isNotModified());
+			assertEquals("\"v1\"", page.etag);
+
+			PageFetcher.Page again = fetcher.fetchHtml(url, page.etag, page.lastModified);
+			assertTrue(again.isNotModified());
+			assertEquals(0, again.body.length);
+		} finally {
+			server.stop(0);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package Crawler;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RobotParserTest {
+
+	private static final String ROBOTS = """
+			User-agent: Googlebot
+			Disallow: /
+
+			User-agent: bingbot
+			User-agent: *
+			Disallow: /private/
+			Allow: /private/press/  # kept public
+			Disallow: /search
+			Disallow: /*.pdf$
+			Allow: /*?lang=
+			Disallow: /tmp*/cache
+			Crawl-delay: 2.5
+
+			User-agent: other
+			Disallow: /public/
+			""";
+
+	@Test
+	void longestMatchingRuleWinsAndAllowWinsTies() {
+		RobotRules rules = RobotParser.parse(ROBOTS, "https://example.com");
+
+		assertEquals(2500, rules.getCrawlDelayMillis());
+		assertFalse(rules.isDisallowed("https://example.com/"));
+		assertFalse(rules.isDisallowed("https://example.com/public/page"));
+		assertTrue(rules.isDisallowed("https://example.com/private/notes"));
+		assertFalse(rules.isDisallowed("https://example.com/private/press/launch"));
+		assertTrue(rules.isDisallowed("https://example.com/search?q=x"));
+		assertTrue(rules.isDisallowed("https://example.com/searching"));
+		assertFalse(rules.isDisallowed("https://example.com/docs/search"));
+
+		assertTrue(rules.isDisallowed("https://example.com/files/report.pdf"));
+		assertFalse(rules.isDisallowed("https://example.com/files/report.pdf?page=2"));
+		assertTrue(rules.isDisallowed("https://example.com/tmp-2024/cache/a"));
+		// "/*?lang=" is longer than "/search"
+		assertFalse(rules.isDisallowed("https://example.com/search?lang=en"));
+		// ...but shorter than "/private/"
+		assertTrue(rules.isDisallowed("https://example.com/private/x?lang=en#top"));
+
+		RobotRules tie = RobotParser.parse("User-agent: *\nDisallow: /a\nAllow: /a\n", "https://example.com");
+		assertFalse(tie.isDisallowed("https://example.com/abc"));
+	}
+
+	@Test
+	void pathOfKeepsPathAndQueryOnly() {
+		assertEquals("/", RobotRules.pathOf("https://example.com"));
+		assertEquals("/a/b?c=d", RobotRules.pathOf("https://example.com:8080/a/b?c=d#frag"));
+		assertEquals("/?q=1", RobotRules.pathOf("https://example.com?q=1"));
+	}
+}
@@ -0,0 +1,77 @@
+package Crawler;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RobotsCacheTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void oneLoadPerHostAndOtherHostsDoNotWait() throws Exception {
+		CountDownLatch slowHostAnswers = new CountDownLatch(1);
+		AtomicInteger loads = new AtomicInteger();
+		RobotsCache cache = new RobotsCache(dir.resolve("robots.cache"), base -> {
+			loads.incrementAndGet();
+			if (base.contains("slow")) slowHostAnswers.await();
+			return RobotParser.parse("User-agent: *\nDisallow: /private\n", base);
+		}, 60_000);
+
+		List<Thread> waiting = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			waiting.add(Thread.ofVirtual().start(() -> {
+				try {
+					cache.get("https://slow.example");
+				} catch (InterruptedException ignored) {
+				}
+			}));
+		}
+		Thread.sleep(100);
+		RobotRules fast = cache.get("https://fast.example");
+		assertTrue(fast.isDisallowed("https://fast.example/private/a"));
+		assertEquals(2, loads.get());
+
+		slowHostAnswers.countDown();
+		for (Thread thread : waiting) {
+			thread.join(2000);
+		}
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	void expiredEntriesReloadAndSavedEntriesSurviveRestart() throws Exception {
+		Path file = dir.resolve("robots.cache");
+		AtomicInteger loads = new AtomicInteger();
+		RobotsCache.Loader loader = base -> {
+			loads.incrementAndGet();
+			return RobotParser.parse("User-agent: *\nDisallow: /x\nAllow: /x/y\nCrawl-delay: 3\n", base);
+		};
+
+		RobotsCache shortLived = new RobotsCache(file, loader, 50);
+		shortLived.get("https://a.example");
+		Thread.sleep(100);
+		shortLived.get("https://a.example");
+		assertEquals(2, loads.get());
+
+		RobotsCache cache = new RobotsCache(file, loader, 60_000);
+		cache.get("https://a.example");
+		cache.save();
+		RobotsCache reopened = new RobotsCache(file, loader, 60_000);
+		RobotRules rules = reopened.get("https://a.example");
+		assertEquals(3, loads.get());
+		assertEquals(3000, rules.getCrawlDelayMillis());
+		assertTrue(rules.isDisallowed("https://a.example/x/z"));
+		assertFalse(rules.isDisallowed("https://a.example/x/y/z"));
+	}
+}
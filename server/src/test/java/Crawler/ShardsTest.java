@@ -0,0 +1,132 @@
+package Crawler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardsTest {
+
+	@Test
+	void hostsAreReadWithoutParsingTheUrl() {
+		assertEquals("www.example.com", Shards.hostOf("https://www.example.com/a/b?c=d"));
+		assertEquals("example.com", Shards.hostOf("http://example.com:8080"));
+		assertEquals("example.com", Shards.hostOf("http://user:pw@Example.com/x"));
+		assertEquals("[::1]", Shards.hostOf("http://[::1]:9000/"));
+		assertEquals("[::1]", Shards.hostOf("http://[::1]/"));
+		assertNull(Shards.hostOf("mailto:someone"));
+		assertNull(Shards.hostOf(null));
+	}
+
+	@Test
+	void everyHostHasExactlyOneOwnerAndTheyAreBalanced() {
+		int count = 4;
+		int[] owned = new int[count];
+		for (int i = 0; i < 20_000; i++) {
+			String url = "https://host" + i + ".example.org/page";
+			int owners = 0;
+			for (int shard = 0; shard < count; shard++) {
+				if (new Shards(shard, count).ownsUrl(url)) {
+					owners++;
+					owned[shard]++;
+				}
+			}
+			assertEquals(1, owners);
+		}
+		for (int shard = 0; shard < count; shard++) {
+			assertTrue(Math.abs(owned[shard] - 5000) < 300, "shard " + shard + " owns " + owned[shard]);
+		}
+		// Every URL on a host goes to the same shard
+		Shards shards = new Shards(0, count);
+		assertEquals(shards.shardOfUrl("https://a.example.org/1"), shards.shardOfUrl("https://a.example.org/2?x"));
+	}
+
+	@Test
+	void linksReachTheShardThatOwnsThem() throws Exception {
+		int count = 3;
+		Map<Integer, ConcurrentLinkedQueue<List<String>>> queues = new ConcurrentHashMap<>();
+		LinkExchange.Transport transport = new LinkExchange.Transport() {
+			@Override
+			public void send(int shard, List<String> urls) {
+				queues.computeIfAbsent(shard, s -> new ConcurrentLinkedQueue<>()).add(urls);
+			}
+
+			@Override
+			public List<String> receive(int shard) {
+				return queues.computeIfAbsent(shard, s -> new ConcurrentLinkedQueue<>()).poll();
+			}
+		};
+		List<LinkExchange> exchanges = new ArrayList<>();
+		List<Set<String>> received = new ArrayList<>();
+		for (int shard = 0; shard < count; shard++) {
+			LinkExchange exchange = new LinkExchange(new Shards(shard, count), transport);
+			Set<String> urls = ConcurrentHashMap.newKeySet();
+			exchange.start(urls::add);
+			exchanges.add(exchange);
+			received.add(urls);
+		}
+
+		Shards first = new Shards(0, count);
+		int local = 0;
+		for (int i = 0; i < 3000; i++) {
+			String url = "https://site" + i + ".example.net/";
+			if (!exchanges.get(0).route(url)) {
+				assertTrue(first.ownsUrl(url));
+				local++;
+			}
+		}
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (received.get(1).size() + received.get(2).size() < 3000 - local
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		for (LinkExchange exchange : exchanges) {
+			exchange.close();
+		}
+		assertTrue(received.get(0).isEmpty());
+		assertEquals(3000 - local, received.get(1).size() + received.get(2).size());
+		for (int shard = 1; shard < count; shard++) {
+			for (String url : received.get(shard)) {
+				assertTrue(new Shards(shard, count).ownsUrl(url), url);
+			}
+		}
+	}
+
+	@Test
+	void sharedBudgetIsNeverOverspent() throws Exception {
+		AtomicInteger counter = new AtomicInteger();
+		int max = 1000;
+		List<PageBudget> budgets = List.of(PageBudget.leased(max, 7, counter::addAndGet),
+				PageBudget.leased(max, 7, counter::addAndGet), PageBudget.leased(max, 7, counter::addAndGet));
+		AtomicInteger taken = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+		for (PageBudget budget : budgets) {
+			for (int i = 0; i < 4; i++) {
+				threads.add(Thread.ofPlatform().start(() -> {
+					while (budget.take()) {
+						taken.incrementAndGet();
+					}
+				}));
+			}
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(max, taken.get());
+		for (PageBudget budget : budgets) {
+			assertTrue(budget.isExhausted());
+			assertTrue(budget.isSpent());
+			assertFalse(budget.take());
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package Crawler;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SimHashTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void smallEditsStayWithinTheDuplicateDistance() {
+		String article = article(new Random(1), 600);
+		String page = "Updated 10:41 GMT " + article + " Sponsored: cheap flights to Rome csrf a81f0c";
+		String reloaded = "Updated 10:58 GMT " + article + " Sponsored: new phones this week csrf 9b2e47";
+		String other = article(new Random(2), 600);
+
+		assertTrue(SimHash.distance(SimHash.fingerprint(page), SimHash.fingerprint(reloaded))
+				<= NearDuplicateIndex.MAX_DISTANCE);
+		assertTrue(SimHash.distance(SimHash.fingerprint(page), SimHash.fingerprint(other)) > 10);
+		assertEquals(SimHash.fingerprint("The Quick, brown fox"), SimHash.fingerprint("the quick brown FOX"));
+	}
+
+	@Test
+	void onlyTextWithoutWordsIsEmpty() {
+		assertEquals(SimHash.EMPTY, SimHash.fingerprint(""));
+		assertEquals(SimHash.EMPTY, SimHash.fingerprint("  ... -- !! "));
+		assertNotEquals(SimHash.EMPTY, SimHash.fingerprint("word"));
+		Random random = new Random(4);
+		for (int i = 0; i < 1000; i++) {
+			assertNotEquals(SimHash.EMPTY, SimHash.fingerprint(article(random, 1 + i % 5)));
+		}
+	}
+
+	@Test
+	void indexFindsFingerprintsWithinThreeBitsAndPersists() throws Exception {
+		Path file = dir.resolve("simhashes.bin");
+		Random random = new Random(3);
+		long[] kept = new long[2000];
+		try (NearDuplicateIndex index = NearDuplicateIndex.open(file)) {
+			for (int i = 0; i < kept.length; i++) {
+				kept[i] = random.nextLong();
+				assertTrue(index.add(kept[i]));
+			}
+			// Flipping up to three bits anywhere is still a duplicate, four is not
+			long base = kept[7];
+			assertFalse(index.add(base ^ (1L << 63) ^ (1L << 20) ^ 1L));
+			assertTrue(index.containsNear(base ^ (1L << 40) ^ (1L << 41)));
+			assertFalse(index.containsNear(base ^ 0xFL));
+			assertEquals(kept.length, index.size());
+		}
+
+		try (NearDuplicateIndex index = NearDuplicateIndex.open(file)) {
+			assertEquals(kept.length, index.size());
+			for (long fingerprint : kept) {
+				assertFalse(index.add(fingerprint ^ (1L << 33)));
+			}
+		}
+	}
+
+	private static String article(Random random, int words) {
+		String[] vocabulary = {"market", "policy", "river", "energy", "court", "season", "engine",
+				"school", "museum", "harbor", "vaccine", "orbit", "budget", "league", "storm", "novel",
+				"village", "bridge", "signal", "garden", "report", "minister", "festival", "satellite"};
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < words; i++) {
+			text.append(vocabulary[random.nextInt(vocabulary.length)]).append(' ');
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,68 @@
+package Crawler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StageTest {
+
+	@Test
+	void fullQueueBlocksTheProducer() throws Exception {
+		CountDownLatch unblock = new CountDownLatch(1);
+		Stage<Integer> stage = new Stage<>("slow", 2, 1, false, item -> unblock.await());
+		stage.start();
+
+		stage.submit(1); // taken by the worker, which then blocks
+		Thread.sleep(200);
+		stage.submit(2);
+		stage.submit(3);
+
+		AtomicBoolean submitted = new AtomicBoolean();
+		Thread producer = Thread.ofVirtual().start(() -> {
+			try {
+				stage.submit(4);
+				submitted.set(true);
+			} catch (InterruptedException ignored) {
+			}
+		});
+		producer.join(300);
+		assertFalse(submitted.get());
+		assertEquals(2, stage.queueDepth());
+		assertEquals(1, stage.busyWorkers());
+		assertTrue(stage.metrics().startsWith("slow queue=2/2 busy=1/1"));
+
+		unblock.countDown();
+		producer.join(2000);
+		assertTrue(submitted.get());
+		stage.close();
+		assertEquals(4, stage.processedCount());
+	}
+
+	@Test
+	void closeDrainsEverythingSubmittedAndCountsFailures() throws Exception {
+		List<Integer> handled = new CopyOnWriteArrayList<>();
+		Stage<Integer> stage = new Stage<>("drain", 64, 4, true, item -> {
+			if (item % 10 == 0) throw new IllegalStateException("bad item " + item);
+			TimeUnit.MILLISECONDS.sleep(1);
+			handled.add(item);
+		});
+		stage.start();
+		for (int i = 1; i <= 100; i++) {
+			stage.submit(i);
+		}
+		stage.close();
+
+		assertEquals(90, handled.size());
+		assertEquals(90, stage.processedCount());
+		assertEquals(10, stage.failedCount());
+		assertEquals(0, stage.queueDepth());
+	}
+}
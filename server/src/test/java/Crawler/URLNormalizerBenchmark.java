@@ -0,0 +1,54 @@
+package Crawler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Normalizing one link, cycling through 4096 well-formed http(s) links with mixed hosts,
+// paths, escapes and queries: the single pass against the java.net.URI and regex version it
+// replaces. Reports ns per link; the gc profiler adds bytes per link:
+//   make bench BENCH="URLNormalizerBenchmark -prof gc"
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class URLNormalizerBenchmark {
+
+	private String[] links;
+	private int next;
+
+	@Setup
+	public void buildLinks() {
+		List<String> corpus = URLNormalizerTest.corpus(4096, 3, true);
+		links = corpus.toArray(new String[0]);
+	}
+
+	@Benchmark
+	public String singlePass() throws URISyntaxException {
+		return URLNormalizer.normalizeToCompactString(nextLink());
+	}
+
+	@Benchmark
+	public String uri() throws URISyntaxException {
+		return URLNormalizer.normalizeWithUri(nextLink());
+	}
+
+	private String nextLink() {
+		String link = links[next];
+		next = (next + 1) & (links.length - 1);
+		return link;
+	}
+}
@@ -0,0 +1,103 @@
+package Crawler;
+
+import org.jsoup.Jsoup;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class URLNormalizerTest {
+
+	static final String[] SCHEMES = {"http://", "https://", "HTTP://", "Https://", "ftp://", "mailto:", "", "//"};
+	static final String[] HOSTS = {"example.com", "WWW.Example.COM", "www.example.co.uk", "sub-domain.example.org",
+			"localhost", "127.0.0.1", "[::1]", "exa_mple.com", "-bad.com", "bad-.com", "a..b.com", "trailing.com.",
+			"1abc.com", "1.2.3.com", "xn--bcher-kva.de", "user@host.com", "host.com:8080", "host.com:80", "host.com:443",
+			"host.com:", "host.com:0080", "host.com:999999", "www.", "www", "ünï.com", "h%41st.com", ""};
+	static final String[] PATHS = {"", "/", "/a/b/", "/a//b", "/./a/../b", "/index.html", "/a/index.htm/",
+			"/a/Default.html", "/a/default.htm", "/..", "/a/b/../../..", "/%7Euser", "/a%2Fb", "/a%20b", "/%E2%82%AC",
+			"/%zz", "/%4", "/a b", "/a|b", "/[x]", "/ünï", "/;p=1", "/a:b@c", "/$,+=&", "/index.php/x",
+			"/a/./index.html", "/%2e%2e/x", "/a/%2e/index.html", "/news/2024/05/story-title-here", "/a/myindex.html",
+			"/wiki/Main_Page", "/p%00x", "/~user/(1)*!"};
+	static final String[] QUERIES = {"", "?", "?a=1", "?b=2&a=1", "?a=&b=", "?a=1&&b=2", "?&a", "?a&", "?=", "?x==&y",
+			"?a=%26b", "?q=hello%20world", "?a=b=&c", "?[]=1", "?u=http://x.com/?y=1", "?%0A=1", "?a=%C3%A9",
+			"?a=1&a=0&A=2", "?z&y=&x=1&w=", "?a=1?b=2", "?&&", "?a=&=&", "?id=42&utm_source=feed&utm_medium=rss",
+			"?a=%zz", "?a b", "?page=2&sort=", "?a=1&b=2&c=3&d=4&e=5"};
+	static final String[] FRAGMENTS = {"", "", "", "#", "#top", "#a#b", "#%zz", "#ä", "#a b", "#section-2"};
+
+	@Test
+	void fastPathMatchesTheUriImplementation() {
+		List<String> corpus = corpus(200_000, 1, false);
+		int fast = 0;
+		for (String url : corpus) {
+			assertEquals(reference(url), actual(url), url);
+			if (URLNormalizer.normalizeFast(url) != null) {
+				fast++;
+			}
+		}
+		// Most of these are malformed on purpose, so most fall back
+		System.out.println("[INFO] " + fast + " of " + corpus.size() + " URLs took the fast path");
+	}
+
+	@Test
+	void linksFoundOnPagesTakeTheFastPath() throws IOException {
+		List<String> links = new ArrayList<>(corpus(20_000, 2, true));
+		for (String name : PageExtractorTest.PAGES) {
+			links.addAll(PageExtractor.extract(Jsoup.parse(PageExtractorTest.readPage(name),
+					"https://www.example.com/articles/" + name)).links);
+		}
+		for (String link : links) {
+			// null here would mean the link fell back to java.net.URI
+			assertEquals(reference(link), URLNormalizer.normalizeFast(link), link);
+		}
+	}
+
+	@Test
+	void normalizesTheUsualSuspects() throws Exception {
+		assertEquals("https://example.com/a/c?a=1&b", URLNormalizer.normalizeToCompactString(
+				"HTTPS://WWW.Example.com:443/a/./b/../c/index.html?b=&a=1#top"));
+		assertEquals("http://example.com/~user/a b", URLNormalizer.normalizeToCompactString("example.com//%7Euser/a%20b/"));
+		assertEquals("http://example.com:8080/", URLNormalizer.normalizeToCompactString("http://example.com:8080/x/.."));
+		assertEquals("", URLNormalizer.normalizeToCompactString(""));
+	}
+
+	// A mix of every piece above; realistic keeps to well-formed http(s) links
+	static List<String> corpus(int size, long seed, boolean realistic) {
+		Random random = new Random(seed);
+		List<String> urls = new ArrayList<>(size);
+		while (urls.size() < size) {
+			String url = realistic
+					? pick(random, SCHEMES, 2) + pick(random, HOSTS, 5) + pick(random, PATHS, 14) + pick(random, QUERIES, 13)
+							+ pick(random, FRAGMENTS, 3)
+					: pick(random, SCHEMES, SCHEMES.length) + pick(random, HOSTS, HOSTS.length) + pick(random, PATHS, PATHS.length)
+							+ (random.nextBoolean() ? pick(random, PATHS, PATHS.length) : "")
+							+ pick(random, QUERIES, QUERIES.length) + pick(random, FRAGMENTS, FRAGMENTS.length);
+			urls.add(url);
+		}
+		return urls;
+	}
+
+	// Weighted towards the first `common` entries, which are the well-formed ones
+	private static String pick(Random random, String[] pieces, int common) {
+		return pieces[random.nextInt(Math.min(common, pieces.length))];
+	}
+
+	private static String reference(String url) {
+		try {
+			return URLNormalizer.normalizeWithUri(url);
+		} catch (Exception e) {
+			return e.getClass().getName();
+		}
+	}
+
+	private static String actual(String url) {
+		try {
+			return URLNormalizer.normalizeToCompactString(url);
+		} catch (Exception e) {
+			return e.getClass().getName();
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package Crawler;
+
+import com.mongodb.MongoSocketOpenException;
+import com.mongodb.ServerAddress;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteBehindTest {
+
+	@Test
+	void batchesBySizeAndTimeAndFlushesOnClose() throws Exception {
+		List<Integer> batches = new CopyOnWriteArrayList<>();
+		WriteBehind writeBehind = new WriteBehind(100, 1000, 10_000);
+		WriteBehind.Buffer buffer = writeBehind.buffer("pages", documents -> batches.add(documents.size()));
+
+		for (int i = 0; i < 250; i++) {
+			buffer.add(new Document("i", i));
+		}
+		Thread.sleep(100);
+		assertEquals(List.of(100, 100), batches);
+
+		// The remaining 50 go out with the timer
+		Thread.sleep(1500);
+		assertEquals(List.of(100, 100, 50), batches);
+
+		buffer.add(new Document("i", 250));
+		writeBehind.close();
+		assertEquals(List.of(100, 100, 50, 1), batches);
+		assertEquals(251, writeBehind.writtenCount());
+	}
+
+	@Test
+	void addersWaitOnlyWhenTooMuchIsUnwritten() throws Exception {
+		CountDownLatch mongoBack = new CountDownLatch(1);
+		WriteBehind writeBehind = new WriteBehind(10, 60_000, 20);
+		WriteBehind.Buffer buffer = writeBehind.buffer("slow", documents -> {
+			try {
+				mongoBack.await();
+			} catch (InterruptedException ignored) {
+			}
+			if (documents.get(0).getInteger("i") == 10) throw new IllegalStateException("down");
+		});
+		for (int i = 0; i < 20; i++) {
+			buffer.add(new Document("i", i));
+		}
+
+		AtomicBoolean added = new AtomicBoolean();
+		Thread adder = Thread.ofVirtual().start(() -> {
+			try {
+				buffer.add(new Document("i", 20));
+				added.set(true);
+			} catch (InterruptedException ignored) {
+			}
+		});
+		adder.join(300);
+		assertFalse(added.get());
+
+		mongoBack.countDown();
+		adder.join(2000);
+		assertTrue(added.get());
+		writeBehind.close();
+		assertEquals(11, writeBehind.writtenCount());
+		assertEquals(10, writeBehind.failedCount());
+	}
+
+	@Test
+	void onlyWrittenDocumentsAreHandedOn() throws Exception {
+		List<Integer> handedOn = new CopyOnWriteArrayList<>();
+		WriteBehind writeBehind = new WriteBehind(5, 60_000, 100);
+		WriteBehind.Buffer buffer = writeBehind.buffer("pages", documents -> {
+			if (documents.get(0).getInteger("i") == 5) throw new IllegalStateException("down");
+		});
+		buffer.afterWrite(documents -> documents.forEach(doc -> handedOn.add(doc.getInteger("i"))));
+		for (int i = 0; i < 12; i++) {
+			buffer.add(new Document("i", i));
+		}
+		writeBehind.close();
+		assertEquals(List.of(0, 1, 2, 3, 4, 10, 11), handedOn);
+	}
+
+	@Test
+	void aBatchIsRetriedWhileMongoIsUnreachableAndCloseWaitsForIt() throws Exception {
+		AtomicInteger attempts = new AtomicInteger();
+		List<Integer> handedOn = new CopyOnWriteArrayList<>();
+		WriteBehind writeBehind = new WriteBehind(100, 60_000, 100);
+		WriteBehind.Buffer buffer = writeBehind.buffer("pages", documents -> {
+			if (attempts.incrementAndGet() < 3) {
+				throw new MongoSocketOpenException("Exception opening socket", new ServerAddress());
+			}
+		});
+		buffer.afterWrite(documents -> documents.forEach(doc -> handedOn.add(doc.getInteger("i"))));
+		for (int i = 0; i < 5; i++) {
+			buffer.add(new Document("i", i));
+		}
+		writeBehind.close();
+		assertEquals(3, attempts.get());
+		assertEquals(5, writeBehind.writtenCount());
+		assertEquals(0, writeBehind.failedCount());
+		assertEquals(List.of(0, 1, 2, 3, 4), handedOn);
+	}
+}
@@ -0,0 +1,78 @@
+package Indexer;
+
+import Indexer.Tokenizer.Token;
+import db.InvertedSegment;
+import db.PostingCodec;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InvertedBufferTest {
+
+	@Test
+	void fillsUpAtTheMemoryBudgetAndDrainsEverything() {
+		InvertedBuffer buffer = new InvertedBuffer(4096);
+		List<String> added = new ArrayList<>();
+		int doc = 0;
+		while (!buffer.isFull()) {
+			String docId = String.format("doc%04d", doc++);
+			buffer.add(docId, Map.of("term" + doc % 7, token(doc % 5 + 1), "common", token(1)));
+			added.add(docId);
+			assertTrue(doc < 1000, "the buffer never filled up");
+		}
+		// Two postings of about a hundred bytes each per document
+		assertTrue(added.size() > 10 && added.size() < 25, added.size() + " documents");
+		assertEquals(added.size(), buffer.documentCount());
+		assertEquals(8, buffer.termCount());
+
+		InvertedSegment segment = buffer.drain();
+		assertEquals(added, segment.docIds);
+		assertEquals(added.size(), segment.postingsByTerm.get("common").size());
+		int postings = segment.postingsByTerm.values().stream().mapToInt(List::size).sum();
+		assertEquals(2 * added.size(), postings);
+
+		assertTrue(buffer.isEmpty());
+		assertFalse(buffer.isFull());
+		assertEquals(0, buffer.termCount());
+	}
+
+	@Test
+	void segmentsAreSortedByTermAndDocId() {
+		InvertedBuffer buffer = new InvertedBuffer(1 << 20);
+		buffer.add("doc3", Map.of("zebra", token(1), "apple", token(2)));
+		buffer.add("doc1", Map.of("zebra", token(3)));
+		buffer.add("doc2", "crawler-000000:0", Map.of());
+		buffer.add("doc0", "crawler-000000:120", Map.of("mango", token(1), "apple", token(1)));
+
+		InvertedSegment segment = buffer.drain();
+		assertEquals(List.of("apple", "mango", "zebra"), new ArrayList<>(segment.postingsByTerm.keySet()));
+		assertEquals(List.of("doc0", "doc3"), docIds(segment.postingsByTerm.get("apple")));
+		assertEquals(List.of("doc1", "doc3"), docIds(segment.postingsByTerm.get("zebra")));
+		// A document without terms is still written, so it gets marked as indexed
+		assertEquals(List.of("doc3", "doc1", "doc2", "doc0"), segment.docIds);
+		assertEquals(Arrays.asList(null, null, "crawler-000000:0", "crawler-000000:120"), segment.versions);
+	}
+
+	private static List<String> docIds(List<InvertedSegment.Posting> postings) {
+		List<String> ids = new ArrayList<>();
+		for (InvertedSegment.Posting posting : postings) {
+			ids.add(posting.docId);
+		}
+		return ids;
+	}
+
+	private static Token token(int occurrences) {
+		Token token = new Token("t");
+		for (int i = 0; i < occurrences; i++) {
+			token.addOccurrence(i * 3, PostingCodec.FIELD_BODY);
+		}
+		return token;
+	}
+}
@@ -0,0 +1,127 @@
+package Indexer;
+
+import db.InvertedSegment;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamingIndexerTest {
+
+	@Test
+	void documentsAreWrittenWithinTheFlushInterval() throws Exception {
+		List<InvertedSegment> segments = new CopyOnWriteArrayList<>();
+		StreamingIndexer indexer = new StreamingIndexer(segments::add, doc -> doc, 64L << 20, 300, 100, 2);
+		Document doc = page("streaming indexers write segments quickly");
+		indexer.add(doc);
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (segments.isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(1, segments.size());
+		assertEquals(List.of(doc.getObjectId("_id").toString()), segments.get(0).docIds);
+		assertTrue(segments.get(0).postingsByTerm.containsKey("segment"));
+		indexer.close();
+		assertEquals(1, segments.size());
+	}
+
+	@Test
+	void aDocumentHandedOverTwiceBeforeItIsWrittenIsIndexedOnce() throws Exception {
+		List<InvertedSegment> segments = new CopyOnWriteArrayList<>();
+		StreamingIndexer indexer = new StreamingIndexer(segments::add, doc -> doc, 64L << 20, 60_000, 100, 1);
+		Document doc = page("the same page twice");
+		indexer.add(doc);
+		indexer.add(doc);
+		indexer.add(page("another page"));
+		indexer.close();
+
+		List<String> written = new ArrayList<>();
+		segments.forEach(segment -> written.addAll(segment.docIds));
+		assertEquals(2, written.size());
+		assertTrue(indexer.metrics().contains("duplicates=1"), indexer.metrics());
+	}
+
+	@Test
+	void closeWritesWhatIsBuffered() throws Exception {
+		List<InvertedSegment> segments = new CopyOnWriteArrayList<>();
+		StreamingIndexer indexer = new StreamingIndexer(segments::add, doc -> doc, 64L << 20, 60_000, 10, 2);
+		for (int i = 0; i < 50; i++) {
+			indexer.add(page("page number " + i));
+		}
+		indexer.close();
+		assertEquals(50, segments.stream().mapToInt(segment -> segment.docIds.size()).sum());
+	}
+
+	@Test
+	void closeFromAnInterruptedThreadStillWritesWhatIsBuffered() throws Exception {
+		List<InvertedSegment> segments = new CopyOnWriteArrayList<>();
+		StreamingIndexer indexer = new StreamingIndexer(segments::add, doc -> doc, 64L << 20, 60_000, 10, 2);
+		for (int i = 0; i < 20; i++) {
+			indexer.add(page("page number " + i));
+		}
+		Thread.currentThread().interrupt();
+		try {
+			indexer.close();
+			assertTrue(Thread.currentThread().isInterrupted());
+		} finally {
+			Thread.interrupted();
+		}
+		assertEquals(20, segments.stream().mapToInt(segment -> segment.docIds.size()).sum());
+		assertTrue(indexer.metrics().contains("queued=0"), indexer.metrics());
+	}
+
+	@Test
+	void aDocumentWhoseTextCannotBeReadIsLeftUnindexed() throws Exception {
+		List<InvertedSegment> segments = new CopyOnWriteArrayList<>();
+		Document unreadable = new Document("_id", new ObjectId()).append("title", "").append("pageRef", "gone:0");
+		StreamingIndexer indexer = new StreamingIndexer(segments::add, doc -> {
+			if (doc.containsKey("pageRef")) {
+				throw new UncheckedIOException(new IOException("Reading page gone:0 failed"));
+			}
+			return doc;
+		}, 64L << 20, 60_000, 10, 1);
+		Document readable = page("a page with text");
+		indexer.add(unreadable);
+		indexer.add(readable);
+		indexer.close();
+
+		List<String> written = new ArrayList<>();
+		segments.forEach(segment -> written.addAll(segment.docIds));
+		assertEquals(List.of(readable.getObjectId("_id").toString()), written);
+	}
+
+	@Test
+	void aNewerRevisionOfABufferedDocumentGoesIntoTheNextSegment() throws Exception {
+		List<InvertedSegment> segments = new CopyOnWriteArrayList<>();
+		StreamingIndexer indexer = new StreamingIndexer(segments::add, doc -> doc, 64L << 20, 300, 10, 1);
+		ObjectId id = new ObjectId();
+		indexer.add(new Document("_id", id).append("title", "").append("pageRef", "crawler-000000:0")
+				.append("body", "the first version"));
+		indexer.add(new Document("_id", id).append("title", "").append("pageRef", "crawler-000000:90")
+				.append("body", "the revised version"));
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (segments.size() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		indexer.close();
+		assertEquals(2, segments.size());
+		assertEquals(List.of("crawler-000000:0"), segments.get(0).versions);
+		assertEquals(List.of("crawler-000000:90"), segments.get(1).versions);
+		assertTrue(segments.get(1).postingsByTerm.containsKey("revis"), segments.get(1).postingsByTerm.keySet().toString());
+		assertTrue(indexer.metrics().contains("duplicates=0"), indexer.metrics());
+	}
+
+	private static Document page(String body) {
+		return new Document("_id", new ObjectId()).append("title", "").append("body", body);
+	}
+}
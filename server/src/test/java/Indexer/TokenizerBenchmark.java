@@ -0,0 +1,93 @@
+package Indexer;
+
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tartarus.snowball.ext.PorterStemmer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+// Tokenizing one ~2000 word page: the streaming Tokenizer against the previous lowercase,
+// regex replace and split pipeline with a fresh PorterStemmer per cache miss. Tokens/sec is
+// ops/s times the word count printed at setup; run with the gc profiler for bytes per page:
+//   make bench BENCH="TokenizerBenchmark -prof gc"
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+	private static final Pattern NON_ALPHA_NUMERIC = Pattern.compile("[^a-z0-9]");
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+	private static final Pattern DIGITS_ONLY = Pattern.compile("\\d+");
+
+	private final Tokenizer tokenizer = new Tokenizer();
+	private final Map<String, String> legacyStemCache = new ConcurrentHashMap<>(10000);
+	private Document page;
+
+	@Setup
+	public void buildPage() {
+		Random random = new Random(11);
+		String[] vocabulary = new String[3000];
+		for (int i = 0; i < vocabulary.length; i++) {
+			StringBuilder word = new StringBuilder();
+			int length = 2 + random.nextInt(9);
+			for (int c = 0; c < length; c++) {
+				word.append((char) ('a' + random.nextInt(26)));
+			}
+			vocabulary[i] = word.toString();
+		}
+		String[] common = {"the", "of", "and", "to", "in", "is", "for", "with", "travel", "guide"};
+
+		StringBuilder body = new StringBuilder();
+		for (int w = 0; w < 2000; w++) {
+			String word = random.nextInt(3) == 0 ? common[random.nextInt(common.length)]
+					: vocabulary[(int) Math.abs(random.nextGaussian() * 400) % vocabulary.length];
+			if (random.nextInt(12) == 0) word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+			body.append(word);
+			body.append(random.nextInt(15) == 0 ? ". " : random.nextInt(20) == 0 ? ", " : " ");
+		}
+		page = new Document("title", "Travel guide to " + vocabulary[1])
+				.append("h1s", List.of(vocabulary[2] + " " + vocabulary[3]))
+				.append("body", body.toString());
+		System.out.println("[INFO] words per page: 2000");
+	}
+
+	@Benchmark
+	public HashMap<String, Tokenizer.Token> streaming() {
+		return tokenizer.tokenizeDoc(page);
+	}
+
+	@Benchmark
+	public HashMap<String, Integer> legacy() {
+		HashMap<String, Integer> counts = new HashMap<>();
+		String[] words = WHITESPACE.split(NON_ALPHA_NUMERIC.matcher(page.getString("body").toLowerCase()).replaceAll(" "));
+		for (String word : words) {
+			if (word.length() <= 1 || DIGITS_ONLY.matcher(word).matches()) continue;
+			String stemmed = legacyStemCache.computeIfAbsent(word, w -> {
+				PorterStemmer stemmer = new PorterStemmer();
+				stemmer.setCurrent(w.toLowerCase());
+				stemmer.stem();
+				return stemmer.getCurrent();
+			});
+			counts.merge(stemmed, 1, Integer::sum);
+		}
+		return counts;
+	}
+}
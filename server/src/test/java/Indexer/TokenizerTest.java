@@ -0,0 +1,117 @@
+package Indexer;
+
+import Indexer.Tokenizer.Token;
+import db.PostingCodec;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenizerTest {
+
+	private final Tokenizer tokenizer = new Tokenizer();
+
+	@Test
+	void headingOccurrencesAreTaggedWhereTheyAppearInTheBody() {
+		Document doc = new Document("title", "Travel guide")
+				.append("h1s", List.of("Modern art"))
+				.append("h2s", List.of("Start painting"))
+				.append("body", "Museums start early. Modern art galleries. Start painting with modern art today.");
+
+		HashMap<String, Token> tokens = tokenizer.tokenizeDoc(doc);
+
+		// The second "modern art" is body text, only the heading span is tagged h1
+		assertEquals(List.of("h1", "body"), fields(tokens.get("modern")));
+		assertEquals(List.of("h1", "body"), fields(tokens.get("art")));
+		// "start" in "Museums start" is not the heading, the substring "art" in it never was
+		assertEquals(List.of("body", "h2"), fields(tokens.get("start")));
+		assertEquals(List.of("title"), fields(tokens.get("travel")));
+	}
+
+	@Test
+	void titleComesFirstInTheStreamWithoutTouchingBodyPhrases() {
+		Document doc = new Document("title", "Football news")
+				.append("body", "Latest football scores");
+
+		HashMap<String, Token> tokens = tokenizer.tokenizeDoc(doc);
+
+		Token football = tokens.get("footbal");
+		assertEquals(List.of("title", "body"), fields(football));
+		int firstBodyPosition = football.positions[1];
+		assertTrue(firstBodyPosition > tokens.get("new").positions[0] + 1);
+	}
+
+	@Test
+	void scanBuffersAreReusedAcrossDocuments() {
+		Document longer = new Document("title", "").append("body", "alpha beta gamma delta epsilon zeta eta theta");
+		Document shorter = new Document("title", "").append("body", "gamma alpha");
+
+		tokenizer.tokenizeDoc(longer);
+		HashMap<String, Token> tokens = tokenizer.tokenizeDoc(shorter);
+
+		assertEquals(2, tokens.size());
+		assertEquals(0, tokens.get("gamma").positions[0]);
+		assertEquals(1, tokens.get("alpha").positions[0]);
+	}
+
+	@Test
+	void poolThreadsTokenizeLikeASingleThread() throws Exception {
+		String[] words = {"search", "engine", "crawler", "index", "ranking", "phrase", "query", "museum",
+				"painting", "football", "travel", "guide", "modern", "history", "science", "garden"};
+		List<Document> docs = new ArrayList<>();
+		for (int d = 0; d < 400; d++) {
+			StringBuilder body = new StringBuilder();
+			// Lengths vary so a shared slot array would leave stale terms behind
+			for (int w = 0; w < 20 + d % 37 * 9; w++) {
+				body.append(words[(d * 7 + w * w) % words.length]).append(w % 11 == 0 ? ". " : " ");
+			}
+			docs.add(new Document("title", words[d % words.length] + " " + words[(d + 3) % words.length])
+					.append("h2s", List.of(words[(d + 5) % words.length]))
+					.append("body", body.toString()));
+		}
+		Tokenizer single = new Tokenizer();
+		List<Map<String, String>> expected = new ArrayList<>();
+		for (Document doc : docs) {
+			expected.add(describe(single.tokenizeDoc(doc)));
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Map<String, String>>> results = new ArrayList<>();
+			for (Document doc : docs) {
+				results.add(pool.submit(() -> describe(Tokenizer.forCurrentThread().tokenizeDoc(doc))));
+			}
+			for (int d = 0; d < docs.size(); d++) {
+				assertEquals(expected.get(d), results.get(d).get(), "document " + d);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static Map<String, String> describe(HashMap<String, Token> tokens) {
+		Map<String, String> described = new TreeMap<>();
+		tokens.forEach((word, token) -> described.put(word, token.count + " "
+				+ Arrays.toString(Arrays.copyOf(token.positions, token.size)) + " " + fields(token)));
+		return described;
+	}
+
+	private static List<String> fields(Token token) {
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < token.size; i++) {
+			names.add(PostingCodec.fieldName(token.fields[i]));
+		}
+		return names;
+	}
+}
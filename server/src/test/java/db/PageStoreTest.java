@@ -0,0 +1,127 @@
+package db;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageStoreTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void pagesAreReadBackByRefAndByDocId() throws Exception {
+		ObjectId id = new ObjectId();
+		try (PageStore store = PageStore.openWriter(dir, "crawler")) {
+			String ref = store.append(id, "Body text — with ünïcode", List.of("first", "", "third"));
+			PageStore.Page page = store.read(ref);
+			assertEquals(id, page.docId);
+			assertEquals(ref, page.ref);
+			assertEquals("Body text — with ünïcode", page.body);
+			assertEquals(List.of("first", "", "third"), page.ps);
+			assertEquals(ref, store.get(id).ref);
+			assertNull(store.get(new ObjectId()));
+
+			PageStore.Page empty = store.read(store.append(new ObjectId(), null, null));
+			assertEquals("", empty.body);
+			assertEquals(List.of(), empty.ps);
+		}
+	}
+
+	@Test
+	void repetitiveTextIsStoredCompressed() throws Exception {
+		String paragraph = "The quick brown fox jumps over the lazy dog near the river bank. ";
+		List<String> ps = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			ps.add(paragraph + i);
+		}
+		String body = String.join(" ", ps);
+		try (PageStore store = PageStore.openWriter(dir, "crawler")) {
+			store.append(new ObjectId(), body, ps);
+		}
+		long raw = 2L * body.length();
+		long stored = Files.size(dir.resolve("crawler-000000.pages"));
+		assertTrue(stored * 10 < raw, stored + " bytes stored for " + raw + " bytes of text");
+	}
+
+	@Test
+	void aReaderSeesPagesAppendedAfterItOpened() throws Exception {
+		try (PageStore writer = PageStore.openWriter(dir, "crawler");
+				PageStore reader = PageStore.openReader(dir)) {
+			String first = writer.append(new ObjectId(), "one", List.of("one"));
+			assertEquals("one", reader.read(first).body);
+			// The segment has grown past what the reader mapped
+			String second = writer.append(new ObjectId(), "two", List.of("two"));
+			assertEquals("two", reader.read(second).body);
+		}
+	}
+
+	@Test
+	void scanReturnsOnlyTheLatestVersionOfEachPage() throws Exception {
+		ObjectId revisited = new ObjectId();
+		ObjectId other = new ObjectId();
+		try (PageStore shardZero = PageStore.openWriter(dir, "shard-0");
+				PageStore shardOne = PageStore.openWriter(dir, "shard-1")) {
+			shardZero.append(revisited, "old", List.of());
+			shardOne.append(other, "other", List.of());
+			shardZero.append(revisited, "new", List.of());
+		}
+		List<String> bodies = new ArrayList<>();
+		try (PageStore reader = PageStore.openReader(dir); PageStore.Scan scan = reader.scan()) {
+			while (scan.hasNext()) {
+				bodies.add(scan.next().body);
+			}
+			assertEquals("new", reader.get(revisited).body);
+		}
+		assertEquals(List.of("new", "other"), bodies);
+	}
+
+	@Test
+	void reopeningCutsATornRecordAndIndexesWholeOnes() throws Exception {
+		ObjectId kept = new ObjectId();
+		ObjectId unindexed = new ObjectId();
+		try (PageStore store = PageStore.openWriter(dir, "crawler")) {
+			store.append(kept, "kept", List.of("a"));
+			store.append(unindexed, "written but not indexed", List.of("b"));
+		}
+		Path segment = dir.resolve("crawler-000000.pages");
+		Path index = dir.resolve("crawler-000000.idx");
+		long whole = Files.size(segment);
+		// A crash after the second record was written but before its index entry was
+		try (FileChannel idx = FileChannel.open(index, StandardOpenOption.WRITE)) {
+			idx.truncate(idx.size() - 20);
+		}
+		// and halfway through a third
+		Files.write(segment, new byte[] {0x50, 0x47, 0x53, 0x31, 0, 0, 1}, StandardOpenOption.APPEND);
+
+		try (PageStore store = PageStore.openWriter(dir, "crawler")) {
+			assertEquals(whole, Files.size(segment));
+			assertEquals("written but not indexed", store.get(unindexed).body);
+			ObjectId next = new ObjectId();
+			store.append(next, "after the crash", List.of());
+			assertEquals("after the crash", store.get(next).body);
+			assertEquals("kept", store.get(kept).body);
+		}
+		try (PageStore reader = PageStore.openReader(dir); PageStore.Scan scan = reader.scan()) {
+			int pages = 0;
+			while (scan.hasNext()) {
+				scan.next();
+				pages++;
+			}
+			assertEquals(3, pages);
+			assertFalse(scan.hasNext());
+		}
+	}
+}
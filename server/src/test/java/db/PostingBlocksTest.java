@@ -0,0 +1,121 @@
+package db;
+
+import Indexer.InvertedBuffer;
+import Indexer.Tokenizer.Token;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PostingBlocksTest {
+
+	@Test
+	void postingsAreCutIntoBlocksCarryingTheirRangeAndBestScore() {
+		InvertedBuffer buffer = new InvertedBuffer(1L << 30);
+		int count = 2 * DBManager.POSTING_BLOCK_SIZE + 44;
+		for (int d = 0; d < count; d++) {
+			// The heaviest posting of each block sits somewhere in its middle
+			buffer.add(String.format("doc%04d", d), Map.of("term", token(d % 100 == 50 ? 9 : 1)));
+		}
+		List<InvertedSegment.Posting> postings = buffer.drain().postingsByTerm.get("term");
+
+		List<Document> blocks = DBManager.toBlocks("term", postings, new Date());
+		assertEquals(3, blocks.size());
+		int[] sizes = {DBManager.POSTING_BLOCK_SIZE, DBManager.POSTING_BLOCK_SIZE, 44};
+		int first = 0;
+		for (int b = 0; b < blocks.size(); b++) {
+			Document block = blocks.get(b);
+			List<InvertedSegment.Posting> chunk = postings.subList(first, first + sizes[b]);
+			assertEquals("term", block.getString("term"));
+			assertEquals(sizes[b], block.getInteger("count"));
+			assertEquals(sizes[b], block.getList("postings", Document.class).size());
+			assertEquals(chunk.get(0).docId, block.getString("minDoc"));
+			assertEquals(chunk.get(chunk.size() - 1).docId, block.getString("maxDoc"));
+			double maxScore = chunk.stream().mapToDouble(p -> p.score).max().getAsDouble();
+			assertEquals(maxScore, block.getDouble("maxScore"));
+			first += sizes[b];
+		}
+		// Blocks follow each other without overlapping
+		assertTrue(blocks.get(0).getString("maxDoc").compareTo(blocks.get(1).getString("minDoc")) < 0);
+		assertTrue(blocks.get(1).getString("maxDoc").compareTo(blocks.get(2).getString("minDoc")) < 0);
+	}
+
+	@Test
+	void blocksWhoseRangeHoldsNoCandidateAreSkipped() {
+		String[] candidates = {"doc0010", "doc0500", "doc0900"};
+		// Between two candidates, so the query's overall range lets it through, but none is in it
+		assertFalse(DBManager.rangeContainsAny(candidates, "doc0100", "doc0499"));
+		assertFalse(DBManager.rangeContainsAny(candidates, "doc0000", "doc0009"));
+		assertFalse(DBManager.rangeContainsAny(candidates, "doc0901", "doc0999"));
+		assertTrue(DBManager.rangeContainsAny(candidates, "doc0100", "doc0500"));
+		assertTrue(DBManager.rangeContainsAny(candidates, "doc0500", "doc0500"));
+		assertTrue(DBManager.rangeContainsAny(candidates, "doc0000", "doc0010"));
+		assertTrue(DBManager.rangeContainsAny(candidates, "doc0600", "doc0999"));
+	}
+
+	@Test
+	void aPhraseReadsOnlyTheBlocksOfCommonWordsThatCanHoldTheRareOnes() {
+		InvertedBuffer buffer = new InvertedBuffer(1L << 30);
+		int count = 10 * DBManager.POSTING_BLOCK_SIZE;
+		for (int d = 0; d < count; d++) {
+			// "rare" is in three documents, all inside the common word's fourth block
+			Map<String, Token> tokens = d >= 400 && d < 403
+					? Map.of("common", token(1), "rare", token(2))
+					: Map.of("common", token(1));
+			buffer.add(String.format("doc%04d", d), tokens);
+		}
+		buffer.add("doc9999", Map.of("rare", token(1)));
+		InvertedSegment segment = buffer.drain();
+
+		Map<Object, Document> blocks = new HashMap<>();
+		List<Document> headers = new ArrayList<>();
+		for (String term : List.of("common", "rare")) {
+			for (Document block : DBManager.toBlocks(term, segment.postingsByTerm.get(term), new Date())) {
+				ObjectId id = new ObjectId();
+				// Read back from Mongo, the encoded occurrences come as Binary
+				for (Document posting : block.getList("postings", Document.class)) {
+					posting.put("occ", new Binary(posting.get("occ", byte[].class)));
+				}
+				blocks.put(id, block.append("_id", id));
+				headers.add(new Document("_id", id).append("term", term).append("minDoc", block.get("minDoc"))
+						.append("maxDoc", block.get("maxDoc")).append("count", block.get("count")));
+			}
+		}
+		List<Object> read = new ArrayList<>();
+		Map<String, Map<String, Document>> termDocs = DBManager.readAllWords(List.of("common", "rare"), headers, ids -> {
+			read.addAll(ids);
+			return ids.stream().map(blocks::get).toList();
+		});
+
+		// One block of "rare" and the one block of "common" its documents fall in
+		assertEquals(2, read.size());
+		Set<String> common = Set.of("doc0400", "doc0401", "doc0402");
+		assertEquals(common, termDocs.get("common").keySet());
+		assertEquals(common, termDocs.get("rare").keySet());
+		assertEquals(2.0, termDocs.get("rare").get("doc0401").get("tf"));
+
+		assertTrue(DBManager.readAllWords(List.of("common", "missing"), headers, ids -> {
+			throw new AssertionError("no block needs reading when a word has none");
+		}).isEmpty());
+	}
+
+	private static Token token(int occurrences) {
+		Token token = new Token("term");
+		for (int i = 0; i < occurrences; i++) {
+			token.addOccurrence(i, PostingCodec.FIELD_BODY);
+		}
+		token.count = occurrences;
+		return token;
+	}
+}
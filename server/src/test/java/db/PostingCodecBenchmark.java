@@ -0,0 +1,111 @@
+package db;
+
+import org.bson.BsonBinaryReader;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.Binary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Decoding one block of postings as it comes off the wire: the old layout with a BSON int array
+// of positions and a string array of tags per posting, against the PostingCodec binary field.
+// Run with: make bench BENCH=PostingCodecBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PostingCodecBenchmark {
+
+	private static final String[] TAGS = {"body", "body", "body", "body", "title", "h1", "h2", "h3"};
+	private static final DocumentCodec CODEC = new DocumentCodec();
+
+	// Average occurrences per posting
+	@Param({"4", "32"})
+	public int occurrences;
+
+	private byte[] legacyBlock;
+	private byte[] binaryBlock;
+
+	@Setup
+	public void encodeBlocks() {
+		Random random = new Random(7);
+		List<Document> legacy = new ArrayList<>();
+		List<Document> binary = new ArrayList<>();
+		for (int p = 0; p < 128; p++) {
+			int n = 1 + random.nextInt(2 * occurrences);
+			List<Integer> positions = new ArrayList<>(n);
+			List<String> tags = new ArrayList<>(n);
+			int position = 0;
+			for (int i = 0; i < n; i++) {
+				position += 1 + random.nextInt(60);
+				positions.add(position);
+				tags.add(TAGS[random.nextInt(TAGS.length)]);
+			}
+			String docId = String.format("%024x", p);
+			legacy.add(new Document("doc", docId).append("tf", n / 500.0)
+					.append("positions", positions).append("tags", tags));
+			binary.add(new Document("doc", docId).append("tf", n / 500.0)
+					.append("occ", PostingCodec.encode(positions, tags)));
+		}
+		legacyBlock = toBson(new Document("term", "travel").append("postings", legacy));
+		binaryBlock = toBson(new Document("term", "travel").append("postings", binary));
+		System.out.println("[INFO] block bytes, legacy: " + legacyBlock.length + ", binary: " + binaryBlock.length);
+	}
+
+	@Benchmark
+	public long legacyDecode() {
+		long checksum = 0;
+		for (Document posting : fromBson(legacyBlock).getList("postings", Document.class)) {
+			List<Integer> positions = posting.getList("positions", Integer.class);
+			List<String> tags = posting.getList("tags", String.class);
+			for (int i = 0; i < positions.size(); i++) {
+				checksum += positions.get(i) + PostingCodec.fieldCode(tags.get(i));
+			}
+		}
+		return checksum;
+	}
+
+	@Benchmark
+	public long binaryDecode() {
+		long checksum = 0;
+		for (Document posting : fromBson(binaryBlock).getList("postings", Document.class)) {
+			PostingCodec.Occurrences occ = PostingCodec.decode(posting.get("occ", Binary.class).getData());
+			for (int i = 0; i < occ.size(); i++) {
+				checksum += occ.positions[i] + occ.fields[i];
+			}
+		}
+		return checksum;
+	}
+
+	private static byte[] toBson(Document document) {
+		ByteBuffer buffer = new RawBsonDocument(document, CODEC).getByteBuffer().asNIO();
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private static Document fromBson(byte[] bytes) {
+		try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bytes))) {
+			return CODEC.decode(reader, DecoderContext.builder().build());
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package db;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PostingCodecTest {
+
+	@Test
+	void roundTripsPositionsAndFields() {
+		List<Integer> positions = List.of(0, 3, 127, 128, 16_500, 2_000_000);
+		List<String> tags = List.of("title", "body", "h1", "h5", "h3", "p");
+
+		PostingCodec.Occurrences occ = PostingCodec.decode(PostingCodec.encode(positions, tags));
+
+		assertArrayEquals(new int[]{0, 3, 127, 128, 16_500, 2_000_000}, occ.positions);
+		assertArrayEquals(new byte[]{PostingCodec.FIELD_TITLE, PostingCodec.FIELD_BODY, PostingCodec.FIELD_H1,
+				PostingCodec.FIELD_H456, PostingCodec.FIELD_H3, PostingCodec.FIELD_BODY}, occ.fields);
+		assertArrayEquals(occ.positions, PostingCodec.decodePositions(PostingCodec.encode(positions, tags)));
+	}
+
+	@Test
+	void smallGapsTakeOneBytePerOccurrence() {
+		List<Integer> positions = List.of(1, 2, 3, 4, 5, 6, 7, 8);
+		byte[] encoded = PostingCodec.encode(positions, List.of());
+
+		// count, eight one-byte gaps, eight field bytes
+		assertEquals(1 + 8 + 8, encoded.length);
+		assertEquals(0, PostingCodec.decode(new byte[]{0}).size());
+	}
+
+	@Test
+	void rejectsDescendingPositions() {
+		assertThrows(IllegalArgumentException.class, () -> PostingCodec.encode(List.of(5, 4), List.of()));
+	}
+}
@@ -0,0 +1,33 @@
+package ranker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PageRankStoreTest {
+
+	@Test
+	void ranksStoredByDocIdNeedNoUrls() {
+		// Four pages were ranked, but only two of them were crawled
+		PageRankStore.Snapshot snapshot = PageRankStore.build(Map.of("a", 0.5, "b", 0.25), 4, 7);
+		assertEquals(0.5, snapshot.rankOf("a"));
+		assertEquals(0.25, snapshot.rankOf("b"));
+		assertEquals(0.25, snapshot.rankOf("crawled after the run"));
+		assertEquals(2, snapshot.size());
+		assertEquals(7, snapshot.version());
+	}
+
+	@Test
+	void ranksStoredByUrlAreJoinedToTheSameSnapshot() {
+		Map<String, String> urlByDocId = Map.of("a", "https://a.com", "b", "https://b.com", "c", "https://c.com");
+		Map<String, Double> rankByUrl = Map.of("https://a.com", 0.5, "https://b.com", 0.25,
+				"https://x.com", 0.125, "https://y.com", 0.125);
+		PageRankStore.Snapshot byUrl = PageRankStore.build(urlByDocId, rankByUrl, 7);
+		PageRankStore.Snapshot byDocId = PageRankStore.build(Map.of("a", 0.5, "b", 0.25), 4, 7);
+		for (String docId : new String[] {"a", "b", "c", "d"}) {
+			assertEquals(byDocId.rankOf(docId), byUrl.rankOf(docId), docId);
+		}
+	}
+}
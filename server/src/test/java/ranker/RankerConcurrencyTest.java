@@ -0,0 +1,201 @@
+package ranker;
+
+import db.DocumentLookup;
+import db.PostingCodec;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import processor.QueryResult;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RankerConcurrencyTest {
+
+	private static final int DOCS = 400;
+	private static final int CONCURRENT_QUERIES = 500;
+	private static final String[] VOCABULARY = {
+			"travel", "guide", "europ", "sport", "news", "footbal", "weather", "market",
+			"scienc", "space", "music", "film", "review", "health", "food", "recip"
+	};
+	private static final String[] TAGS = {"body", "body", "body", "title", "h1", "h2", "h3"};
+
+	private final Map<String, Document> documents = new HashMap<>();
+	private final Map<String, Map<String, Object>> postings = new HashMap<>();
+	private Ranker ranker;
+
+	@BeforeEach
+	void buildCorpus() {
+		Random random = new Random(42);
+		Map<String, String> urlByDocId = new HashMap<>();
+		Map<String, Double> rankByUrl = new HashMap<>();
+		for (int d = 0; d < DOCS; d++) {
+			String docId = String.format("%024x", d);
+			String url = "https://example.com/page/" + d;
+			List<String> paragraphs = new ArrayList<>();
+			for (int p = 0; p < 3; p++) {
+				StringBuilder paragraph = new StringBuilder();
+				for (int w = 0; w < 12; w++) {
+					paragraph.append(VOCABULARY[random.nextInt(VOCABULARY.length)]).append(' ');
+				}
+				paragraphs.add(paragraph.toString().trim());
+			}
+			documents.put(docId, new Document("_id", docId).append("url", url)
+					.append("title", "Page " + d).append("ps", paragraphs));
+			urlByDocId.put(docId, url);
+			if (d % 3 != 0) {
+				rankByUrl.put(url, random.nextDouble() / DOCS);
+			}
+
+			for (String word : VOCABULARY) {
+				if (random.nextInt(3) != 0) continue;
+				int occurrences = 1 + random.nextInt(4);
+				List<String> tags = new ArrayList<>();
+				int[] positions = new int[occurrences];
+				for (int o = 0; o < occurrences; o++) {
+					tags.add(TAGS[random.nextInt(TAGS.length)]);
+					positions[o] = (o == 0 ? 0 : positions[o - 1]) + 1 + random.nextInt(100);
+				}
+				postings.computeIfAbsent(word, k -> new HashMap<>())
+						.put(docId, Map.of("tf", occurrences / 100.0, "positions", positions,
+								"tags", PostingCodec.fieldCodes(tags, occurrences)));
+			}
+		}
+
+		PageRankStore pageRanks = new PageRankStore();
+		pageRanks.publish(PageRankStore.build(urlByDocId, rankByUrl, 1));
+		ranker = new Ranker(this::lookup, pageRanks);
+	}
+
+	private Map<String, Document> lookup(List<String> docIds, boolean withParagraphs) {
+		Map<String, Document> found = new HashMap<>();
+		for (String docId : docIds) {
+			Document doc = documents.get(docId);
+			if (doc == null) continue;
+			Document projected = new Document("_id", docId).append("url", doc.get("url")).append("title", doc.get("title"));
+			if (withParagraphs) {
+				projected.append("ps", doc.get("ps"));
+			}
+			found.put(docId, projected);
+		}
+		return found;
+	}
+
+	private QueryResult query(String type, String... words) {
+		Map<String, Map<String, Object>> perWord = new HashMap<>();
+		for (String word : words) {
+			perWord.put(word, postings.getOrDefault(word, Map.of()));
+		}
+		QueryResult result = new QueryResult();
+		result.setType(type);
+		result.setQueryWords(List.of(words));
+		result.setQueryWordsString(List.of(words));
+		result.setPerWordResults(perWord);
+		return result;
+	}
+
+	private static List<String> render(List<RankedDocument> page) {
+		List<String> rendered = new ArrayList<>();
+		for (RankedDocument doc : page) {
+			rendered.add(doc.getUrl() + "|" + doc.getScore() + "|" + doc.getTitle() + "|" + doc.getSnippet());
+		}
+		return rendered;
+	}
+
+	@Test
+	void concurrentQueriesMatchSequentialAnswers() throws Exception {
+		List<QueryResult> queries = List.of(
+				query("normal", "travel"),
+				query("normal", "travel", "guide"),
+				query("normal", "sport", "news", "footbal"),
+				query("normal", "scienc", "space", "music", "film"),
+				query("normal", "health", "food", "recip", "review", "market"),
+				query("phrase", "weather", "market"),
+				query("phrase", "europ", "travel", "guide"));
+		int[][] pages = {{0, 10}, {1, 10}, {3, 7}, {0, 50}};
+
+		Map<String, List<String>> expected = new HashMap<>();
+		for (int q = 0; q < queries.size(); q++) {
+			for (int[] page : pages) {
+				List<String> answer = render(ranker.rank(queries.get(q), page[0], page[1]).getResults());
+				assertFalse(answer.isEmpty(), "query " + q + " should have results");
+				expected.put(q + "/" + page[0] + "/" + page[1], answer);
+			}
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(64);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Void>> futures = new ArrayList<>();
+		try {
+			for (int i = 0; i < CONCURRENT_QUERIES; i++) {
+				int q = i % queries.size();
+				int[] page = pages[(i / queries.size()) % pages.length];
+				futures.add(pool.submit(() -> {
+					start.await();
+					String key = q + "/" + page[0] + "/" + page[1];
+					assertEquals(expected.get(key), render(ranker.rank(queries.get(q), page[0], page[1]).getResults()), key);
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<Void> future : futures) {
+				future.get(60, TimeUnit.SECONDS);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void pagesAreDisjointSlicesOfTheFullRanking() {
+		QueryResult q = query("normal", "travel", "guide");
+		List<RankedDocument> ranked = ranker.rank(q, 0, DOCS).getResults();
+		for (int i = 1; i < ranked.size(); i++) {
+			assertTrue(ranked.get(i - 1).getScore() >= ranked.get(i).getScore(), "ranking must be ordered by score");
+		}
+		List<String> all = render(ranked);
+		List<String> stitched = new ArrayList<>();
+		for (int page = 0; page * 10 < all.size(); page++) {
+			stitched.addAll(render(ranker.rank(q, page, 10).getResults()));
+		}
+		assertEquals(all, stitched);
+	}
+
+	@Test
+	void pagesPastTheEndAreEmptyEvenNearIntegerMaxValue() {
+		QueryResult q = query("normal", "travel", "guide");
+		assertTrue(ranker.rank(q, DOCS, 10).getResults().isEmpty());
+		assertTrue(ranker.rank(q, Integer.MAX_VALUE, 10).getResults().isEmpty());
+		assertTrue(ranker.rank(q, Integer.MAX_VALUE, Integer.MAX_VALUE).getResults().isEmpty());
+	}
+
+	@Test
+	void theTotalCountsOnlyDocumentsTheRankerCanScore() {
+		Map<String, Object> travel = postings.get("travel");
+		int scored = travel.size();
+		// Indexed with no weight, so it is a candidate that never gets a score
+		travel.put(String.format("%024x", DOCS), Map.of("tf", 0.0, "positions", new int[] {1},
+				"tags", PostingCodec.fieldCodes(List.of("body"), 1)));
+		QueryResult q = query("normal", "travel");
+
+		RankedPage first = ranker.rank(q, 0, 10);
+		assertEquals(10, first.getResults().size());
+		assertEquals(scored, first.getTotalCount());
+		// Past the last page there is nothing to show, but the total stays the same
+		RankedPage past = ranker.rank(q, DOCS, 10);
+		assertTrue(past.getResults().isEmpty());
+		assertEquals(scored, past.getTotalCount());
+	}
+}